@@ -32,6 +32,16 @@ class HouseState(object):
       self.__param = ";"
       self.__end = "."
 
+      # additional zones of a multi-zone house, reported as zone-qualified keys (e.g. TR@2)
+      self.__zones = []
+
+   def set_zone_count(self, count):
+      '''
+      Simulate a multi-zone house with the given number of additional zones
+      '''
+      self.__zones = [{"TR": 65, "HR": 50, "DS": False, "LS": False, "PS": False,
+                       "HES": False, "CHS": False, "HUS": False} for _ in range(count)]
+
    def update_simulation(self):
       '''
       Update the house simulation. This is really very simple
@@ -45,6 +55,13 @@ class HouseState(object):
          else:
             self.__humidity +=1
 
+      for zone in self.__zones:
+         if zone["HES"]: zone["TR"] += 1
+         if zone["CHS"]: zone["TR"] -= 1
+         if zone["HR"]<100 and zone["HR"]>0:
+            if zone["HUS"]: zone["HR"] -= 1
+            else: zone["HR"] += 1
+
    def set_state(self, new_state):
       '''
       Handle set state requests
@@ -55,6 +72,12 @@ class HouseState(object):
       for par in params:
          if len(par) == 0: continue
          k,v = par.split('=')
+         if '@' in k:
+            k, z = k.split('@')
+            z = int(z)
+            if 1 <= z <= len(self.__zones) and k in self.__zones[z-1]:
+               self.__zones[z-1][k] = (v == "1")
+            continue
          if k == "LS":
             if v == "1": self.__light = True
             else: self.__light = False
@@ -147,7 +170,19 @@ class HouseState(object):
                                                                                                self.get_heater_state(),
                                                                                                self.get_chiller_state(),
                                                                                                self.get_hvac_mode(),
-                                                                                               self.get_dehumidifier())
+                                                                                               self.get_dehumidifier()) + self.get_zone_state()
+
+   def get_zone_state(self):
+      '''
+      The zone-qualified state of the additional zones
+      '''
+      params = []
+      for i, zone in enumerate(self.__zones):
+         for k, v in zone.items():
+            if isinstance(v, bool): v = "1" if v else "0"
+            params.append("{0}@{1}={2}".format(k, i+1, v))
+      if len(params) == 0: return ""
+      return ";" + ";".join(params)
 house = HouseState()
 
 class UserThread(threading.Thread):
@@ -202,6 +237,10 @@ def main():
 
    server = socket.socket(socket.AF_INET, socket.SOCK_STREAM)
    server_address = (sys.argv[1], int(sys.argv[2]))
+
+   # optional third argument: the number of additional zones to simulate
+   if len(sys.argv) > 3:
+      house.set_zone_count(int(sys.argv[3]))
    server.bind(server_address)
    server.listen(1)  # max backlog of connections
 
@@ -218,7 +257,7 @@ def main():
      
       try:
          while True:
-            data = connection.recv(1024).decode('ascii')
+            data = connection.recv(8192).decode('ascii')
 
             if data:
                if data[:2] == "GS":
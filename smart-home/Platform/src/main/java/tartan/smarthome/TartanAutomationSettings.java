@@ -0,0 +1,78 @@
+package tartan.smarthome;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * Jackson-compatible configuration for a user-defined automation rule. Rules are stored with the
+ * house settings and have the form "when <trigger> <condition> <value> [between after and before]
+ * then set <action> to <actionValue>". Triggers and actions are IoTValues keys such as HR or LS.
+ */
+public class TartanAutomationSettings {
+
+    @NotEmpty
+    @JsonProperty
+    private String name;
+
+    // the state variable that triggers the rule
+    @NotEmpty
+    @JsonProperty
+    private String trigger;
+
+    // the comparison: one of =, !=, <, <=, >, >=
+    @NotEmpty
+    @JsonProperty
+    private String condition;
+
+    @NotEmpty
+    @JsonProperty
+    private String value;
+
+    // optional time of day window (HH:mm) in which the rule applies
+    @JsonProperty
+    private String after;
+
+    @JsonProperty
+    private String before;
+
+    // the state variable to change when the rule fires
+    @NotEmpty
+    @JsonProperty
+    private String action;
+
+    @NotEmpty
+    @JsonProperty
+    private String actionValue;
+
+    public String getName() { return name; }
+
+    public void setName(String name) { this.name = name; }
+
+    public String getTrigger() { return trigger; }
+
+    public void setTrigger(String trigger) { this.trigger = trigger; }
+
+    public String getCondition() { return condition; }
+
+    public void setCondition(String condition) { this.condition = condition; }
+
+    public String getValue() { return value; }
+
+    public void setValue(String value) { this.value = value; }
+
+    public String getAfter() { return after; }
+
+    public void setAfter(String after) { this.after = after; }
+
+    public String getBefore() { return before; }
+
+    public void setBefore(String before) { this.before = before; }
+
+    public String getAction() { return action; }
+
+    public void setAction(String action) { this.action = action; }
+
+    public String getActionValue() { return actionValue; }
+
+    public void setActionValue(String actionValue) { this.actionValue = actionValue; }
+}
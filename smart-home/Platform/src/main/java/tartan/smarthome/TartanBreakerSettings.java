@@ -0,0 +1,39 @@
+package tartan.smarthome;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Jackson-compatible configuration for the circuit breaker of each house. A breaker opens when
+ * failureRate percent of the last window calls and polls failed, or took longer than callTimeout
+ * seconds, and stays open for openSeconds before it lets a trial call through.
+ */
+public class TartanBreakerSettings {
+
+    @JsonProperty
+    private String window = "10";
+
+    @JsonProperty
+    private String failureRate = "50";
+
+    @JsonProperty
+    private String openSeconds = "30";
+
+    @JsonProperty
+    private String callTimeout = "10";
+
+    public String getWindow() { return window; }
+
+    public void setWindow(String window) { this.window = window; }
+
+    public String getFailureRate() { return failureRate; }
+
+    public void setFailureRate(String failureRate) { this.failureRate = failureRate; }
+
+    public String getOpenSeconds() { return openSeconds; }
+
+    public void setOpenSeconds(String openSeconds) { this.openSeconds = openSeconds; }
+
+    public String getCallTimeout() { return callTimeout; }
+
+    public void setCallTimeout(String callTimeout) { this.callTimeout = callTimeout; }
+}
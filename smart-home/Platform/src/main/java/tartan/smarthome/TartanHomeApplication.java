@@ -1,5 +1,7 @@
 package tartan.smarthome;
 
+import com.fasterxml.jackson.jakarta.rs.cbor.JacksonCBORProvider;
+import com.fasterxml.jackson.jakarta.rs.smile.JacksonSmileProvider;
 import io.dropwizard.core.Application;
 import io.dropwizard.auth.AuthDynamicFeature;
 import io.dropwizard.auth.AuthValueFactoryProvider;
@@ -7,13 +9,40 @@ import io.dropwizard.auth.basic.BasicCredentialAuthFilter;
 import io.dropwizard.db.DataSourceFactory;
 import io.dropwizard.hibernate.HibernateBundle;
 import io.dropwizard.core.setup.Bootstrap;
+import io.dropwizard.core.server.AbstractServerFactory;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.util.Duration;
 import io.dropwizard.views.common.ViewBundle;
+import org.glassfish.jersey.media.sse.SseFeature;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import tartan.smarthome.auth.TartanAuthenticator;
 import tartan.smarthome.auth.TartanUser;
+import tartan.smarthome.core.HouseData;
 import tartan.smarthome.core.TartanHomeData;
 import tartan.smarthome.db.HomeDAO;
+import tartan.smarthome.health.TartanHealthCheck;
+import tartan.smarthome.resources.CircuitBreaker;
+import tartan.smarthome.resources.HouseRegistry;
+import tartan.smarthome.resources.ShadowEvaluator;
+import tartan.smarthome.resources.StateFormat;
+import tartan.smarthome.resources.TartanAdminResource;
 import tartan.smarthome.resources.TartanResource;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.history.Historian;
+import tartan.smarthome.resources.history.HistoryMigration;
+import tartan.smarthome.resources.history.HistoryResource;
+import tartan.smarthome.resources.history.HistorySpool;
+import tartan.smarthome.resources.history.SpoolDrainer;
+import tartan.smarthome.resources.limit.AimdLimiter;
+import tartan.smarthome.resources.limit.ConcurrencyLimitFilter;
+import tartan.smarthome.resources.schedule.ScheduleEngine;
 
 /**
  * This is the driver for the program.
@@ -21,8 +50,10 @@ import tartan.smarthome.resources.TartanResource;
  */
 public class TartanHomeApplication extends Application<TartanHomeConfiguration> {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TartanHomeApplication.class);
+
     private final HibernateBundle<TartanHomeConfiguration> hibernateBundle =
-            new HibernateBundle<TartanHomeConfiguration>(TartanHomeData.class) {
+            new HibernateBundle<TartanHomeConfiguration>(TartanHomeData.class, HouseData.class) {
                 @Override
                 public DataSourceFactory getDataSourceFactory(TartanHomeConfiguration configuration) {
                     return configuration.getDataSourceFactory();
@@ -62,19 +93,177 @@ public class TartanHomeApplication extends Application<TartanHomeConfiguration>
      * Run the system.
      * @param configuration system settings
      * @param environment system environment
+     * @throws IOException if the history spool cannot be opened
      */
     @Override
     public void run(final TartanHomeConfiguration configuration,
-                    final Environment environment) {
+                    final Environment environment) throws IOException {
         HomeDAO dao = new HomeDAO(hibernateBundle.getSessionFactory());
+        try {
+            if (dao.seedIds()) {
+                LOGGER.info("Moved the history id sequence past the ids in use");
+            }
+        } catch (RuntimeException x) {
+            // the history is written later; the server can run without it
+            LOGGER.error("Could not check the history id sequence", x);
+        }
 
         TartanAuthenticator auth = new TartanAuthenticator();
         auth.setValidUsers(configuration);
 
-        final TartanResource resource = new TartanResource(configuration.getHouses(),
-                dao, Integer.parseInt(configuration.getHistoryTimer()));
+        // one engine runs the weekly schedules of every house
+        ScheduleEngine scheduleEngine = new ScheduleEngine();
+        environment.lifecycle().manage(scheduleEngine);
+
+        // shadow evaluations run on their own small pool, so they can never slow the houses down.
+        // Each house queues a bounded number of them and drops the rest, which bounds the pool queue
+        ShadowEvaluator.Factory shadowFactory = null;
+        if (configuration.getShadowEvaluator() != null) {
+            int threads = Integer.parseInt(configuration.getShadowThreads());
+            ExecutorService shadowExecutor = environment.lifecycle().executorService("shadow-evaluator-%d")
+                    .minThreads(threads)
+                    .maxThreads(threads)
+                    .build();
+            shadowFactory = new ShadowEvaluator.Factory(configuration.getShadowEvaluator(),
+                    shadowExecutor, environment.metrics());
+        }
+
+        // completes long polls when house states change
+        ExecutorService notifier = environment.lifecycle().executorService("state-notifier-%d")
+                .minThreads(2)
+                .maxThreads(2)
+                .build();
+
+        // the controllers publish every evaluated state to one bus, and the long polls and streams
+        // subscribe to it
+        int eventThreads = Integer.parseInt(configuration.getEventThreads());
+        ExecutorService eventExecutor = environment.lifecycle().executorService("state-bus-%d")
+                .minThreads(eventThreads)
+                .maxThreads(eventThreads)
+                .build();
+        StateEventBus eventBus = new StateEventBus(eventExecutor,
+                Integer.parseInt(configuration.getEventBufferSize()), configuration.getBackPressure());
+
+        // Jetty and Jersey handle requests on virtual threads, if configured; the server is built
+        // from its factory after this method returns
+        boolean virtualThreads = Boolean.parseBoolean(configuration.getVirtualThreads());
+        if (virtualThreads && configuration.getServerFactory() instanceof AbstractServerFactory) {
+            ((AbstractServerFactory) configuration.getServerFactory()).setEnableVirtualThreads(true);
+        }
+
+        // requests never wait on house sockets themselves; each house has one thread of this pool
+        // at most, so a slow house cannot take the others' threads. The registry resizes the pool
+        // as houses come and go. On virtual threads there is nothing to size: a house still runs
+        // one operation at a time, and a thread is started for each
+        ExecutorService housePool;
+        if (virtualThreads) {
+            housePool = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("house-io-", 0).factory());
+            environment.lifecycle().manage(new ExecutorServiceManager(housePool, Duration.seconds(5), "house-io"));
+        } else {
+            int houseThreads = Math.max(1, configuration.getHouses().size());
+            housePool = environment.lifecycle().executorService("house-io-%d")
+                    .minThreads(houseThreads)
+                    .maxThreads(houseThreads)
+                    .build();
+        }
+
+        // the houses connect in the background, a few at a time, so the server starts right away
+        ScheduledExecutorService connector = environment.lifecycle().scheduledExecutorService("house-connect-%d")
+                .threads(Integer.parseInt(configuration.getConnectThreads()))
+                .build();
+
+        // calls to a house that stops answering fail fast until it answers again
+        TartanBreakerSettings breakerSettings = configuration.getBreaker();
+        CircuitBreaker.Factory breakerFactory = new CircuitBreaker.Factory(
+                Integer.parseInt(breakerSettings.getWindow()),
+                Integer.parseInt(breakerSettings.getFailureRate()),
+                Integer.parseInt(breakerSettings.getOpenSeconds()),
+                Long.parseLong(breakerSettings.getCallTimeout()));
+
+        // the houses, which can be changed at runtime through the admin API
+        HouseRegistry registry = new HouseRegistry(scheduleEngine, shadowFactory, eventBus, housePool,
+                Integer.parseInt(configuration.getHouseQueueLimit()), breakerFactory, connector,
+                Integer.parseInt(configuration.getConnectRetryMax()));
+        environment.lifecycle().manage(registry);
+        registry.addListener(new HouseRegistry.Listener() {
+            @Override
+            public void added(TartanHomeSettings settings) {
+                auth.addHouse(settings);
+            }
+
+            @Override
+            public void removed(String name) {
+                auth.removeHouse(name);
+            }
+        });
+        for (TartanHomeSettings homeSettings : configuration.getHouses()) {
+            registry.put(homeSettings);
+        }
+
+        // one historian samples every house on a shared tick and writes the samples in batches. With
+        // a spool, the samples are written behind, on a thread of their own, so the database never
+        // holds up the historian
+        int historyBatchSize = Integer.parseInt(configuration.getHistoryBatchSize());
+        HistorySpool spool = null;
+        if (configuration.getHistorySpool() != null) {
+            // one mapping holds at most 2 GB
+            long spoolSize = Long.parseLong(configuration.getHistorySpoolSize()) * 1024 * 1024;
+            if (spoolSize <= 0 || spoolSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("historySpoolSize must be from 1 to 2047 megabytes");
+            }
+            spool = new HistorySpool(Paths.get(configuration.getHistorySpool()), (int) spoolSize);
+            ScheduledExecutorService drainExecutor = environment.lifecycle().scheduledExecutorService("history-drain-%d")
+                    .threads(1)
+                    .build();
+            environment.lifecycle().manage(new SpoolDrainer(spool, dao, drainExecutor, historyBatchSize,
+                    environment.metrics()));
+        }
+        // history written before the typed table is moved into it in the background, a chunk at a time
+        ScheduledExecutorService migrationExecutor = environment.lifecycle()
+                .scheduledExecutorService("history-migration-%d")
+                .threads(1)
+                .build();
+        environment.lifecycle().manage(new HistoryMigration(dao, migrationExecutor, historyBatchSize));
+        ScheduledExecutorService historyTicker = environment.lifecycle().scheduledExecutorService("historian-%d")
+                .threads(1)
+                .build();
+        Historian historian = new Historian(registry, dao, spool, historyTicker,
+                Long.parseLong(configuration.getHistoryTimer()),
+                historyBatchSize,
+                Boolean.parseBoolean(configuration.getHistoryChangesOnly()),
+                Long.parseLong(configuration.getHistoryHeartbeat()));
+        environment.lifecycle().manage(historian);
+
+        // each stream client is written to on a virtual thread of its own, so one that stops
+        // reading holds up neither the other clients nor the event bus
+        ExecutorService streamWriter = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("stream-writer-", 0).factory());
+        environment.lifecycle().manage(new ExecutorServiceManager(streamWriter, Duration.seconds(5), "stream-writer"));
+
+        final TartanResource resource = new TartanResource(registry, notifier, eventBus,
+                Integer.parseInt(configuration.getRequestDeadline()),
+                Integer.parseInt(configuration.getBatchParallelism()), streamWriter);
+
+        // requests over the adaptive concurrency limit fail fast instead of queueing in Jetty
+        TartanLimiterSettings limiterSettings = configuration.getLimiter();
+        if (Boolean.parseBoolean(limiterSettings.getEnabled())) {
+            AimdLimiter limiter = new AimdLimiter(Integer.parseInt(limiterSettings.getInitialLimit()),
+                    Integer.parseInt(limiterSettings.getMinLimit()),
+                    Integer.parseInt(limiterSettings.getMaxLimit()),
+                    Long.parseLong(limiterSettings.getLatencyTarget()),
+                    Double.parseDouble(limiterSettings.getBackoffRatio()));
+            limiter.registerMetrics(environment.metrics());
+            environment.jersey().register(new ConcurrencyLimitFilter(limiter));
+        }
 
+        environment.healthChecks().register("houses", new TartanHealthCheck(registry));
         environment.jersey().register(resource);
+        environment.jersey().register(new TartanAdminResource(registry));
+        environment.jersey().register(new HistoryResource(historian));
+        environment.jersey().register(SseFeature.class);
+        // machine clients may send and receive Smile or CBOR instead of JSON
+        environment.jersey().register(new JacksonSmileProvider(StateFormat.SMILE.getMapper()));
+        environment.jersey().register(new JacksonCBORProvider(StateFormat.CBOR.getMapper()));
         environment.jersey().register(new AuthDynamicFeature(new BasicCredentialAuthFilter.Builder<TartanUser>()
                 .setAuthenticator(auth)
                 .buildAuthFilter()));
@@ -6,7 +6,10 @@ import io.dropwizard.db.DataSourceFactory;
 import org.hibernate.validator.constraints.NotEmpty;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotNull;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import tartan.smarthome.resources.events.BackPressure;
 
 /**
  * Configuration settings read from YAML file config.yml. See that file for field definitions
@@ -23,6 +26,86 @@ public class TartanHomeConfiguration extends Configuration {
     @JsonProperty
     private String historyTimer;
 
+    // how many history rows are sent to the database per JDBC batch
+    @JsonProperty
+    private String historyBatchSize = "1000";
+
+    // whether history is only written when a house changes, and how often it is written anyway, in seconds
+    @JsonProperty
+    private String historyChangesOnly = "false";
+
+    @JsonProperty
+    private String historyHeartbeat = "300";
+
+    // optional: the file history is spooled to until it is in the database, and its size in megabytes
+    @JsonProperty
+    private String historySpool;
+
+    @JsonProperty
+    private String historySpoolSize = "64";
+
+    // optional: the credentials that may add, remove and re-configure houses at runtime
+    @JsonProperty
+    private String adminUser;
+
+    @JsonProperty
+    private String adminPassword;
+
+    // optional: the class of an evaluator to run in shadow mode next to each house evaluator
+    @JsonProperty
+    private String shadowEvaluator;
+
+    // the number of threads that run the shadow evaluations
+    @JsonProperty
+    private String shadowThreads = "2";
+
+    // how many seconds a request may wait for a house before it fails with 504
+    @JsonProperty
+    private String requestDeadline = "10";
+
+    // handle requests, and talk to the houses, on virtual threads rather than on pools of
+    // platform threads, so a request blocked on a house costs kilobytes rather than a thread
+    @JsonProperty
+    private String virtualThreads = "false";
+
+    // how many houses may connect at once, and the longest wait in seconds between attempts to
+    // connect to an unreachable house
+    @JsonProperty
+    private String connectThreads = "8";
+
+    @JsonProperty
+    private String connectRetryMax = "300";
+
+    // how many user commands may wait for a house before more are rejected with 503; security
+    // commands are never rejected and go first
+    @JsonProperty
+    private String houseQueueLimit = "16";
+
+    // when the calls to a house stop and fail fast
+    @Valid
+    @JsonProperty
+    private TartanBreakerSettings breaker = new TartanBreakerSettings();
+
+    // the adaptive limit on concurrent REST requests
+    @Valid
+    @JsonProperty
+    private TartanLimiterSettings limiter = new TartanLimiterSettings();
+
+    // how many house updates of a batch may run at once
+    @JsonProperty
+    private String batchParallelism = "16";
+
+    // the size of each event bus subscriber queue, and the threads that deliver the events
+    @JsonProperty
+    private String eventBufferSize = "16";
+
+    @JsonProperty
+    private String eventThreads = "4";
+
+    // the back-pressure policy of each event bus consumer (stream, longPoll)
+    @JsonProperty
+    private Map<String, BackPressure> backPressure = new HashMap<>();
+
     @Valid
     @NotNull
     private DataSourceFactory database = new DataSourceFactory();
@@ -51,4 +134,104 @@ public class TartanHomeConfiguration extends Configuration {
     public String getHistoryTimer() {
         return historyTimer;
     }
+
+    @JsonProperty
+    public String getHistoryBatchSize() {
+        return historyBatchSize;
+    }
+
+    @JsonProperty
+    public String getHistoryChangesOnly() {
+        return historyChangesOnly;
+    }
+
+    @JsonProperty
+    public String getHistoryHeartbeat() {
+        return historyHeartbeat;
+    }
+
+    @JsonProperty
+    public String getHistorySpool() {
+        return historySpool;
+    }
+
+    @JsonProperty
+    public String getHistorySpoolSize() {
+        return historySpoolSize;
+    }
+
+    @JsonProperty
+    public String getShadowEvaluator() {
+        return shadowEvaluator;
+    }
+
+    @JsonProperty
+    public String getShadowThreads() {
+        return shadowThreads;
+    }
+
+    @JsonProperty
+    public String getEventBufferSize() {
+        return eventBufferSize;
+    }
+
+    @JsonProperty
+    public String getEventThreads() {
+        return eventThreads;
+    }
+
+    @JsonProperty
+    public Map<String, BackPressure> getBackPressure() {
+        return backPressure;
+    }
+
+    @JsonProperty
+    public String getRequestDeadline() {
+        return requestDeadline;
+    }
+
+    @JsonProperty
+    public String getBatchParallelism() {
+        return batchParallelism;
+    }
+
+    @JsonProperty
+    public String getVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @JsonProperty
+    public String getConnectThreads() {
+        return connectThreads;
+    }
+
+    @JsonProperty
+    public String getConnectRetryMax() {
+        return connectRetryMax;
+    }
+
+    @JsonProperty
+    public String getHouseQueueLimit() {
+        return houseQueueLimit;
+    }
+
+    @JsonProperty
+    public TartanBreakerSettings getBreaker() {
+        return breaker;
+    }
+
+    @JsonProperty
+    public TartanLimiterSettings getLimiter() {
+        return limiter;
+    }
+
+    @JsonProperty
+    public String getAdminUser() {
+        return adminUser;
+    }
+
+    @JsonProperty
+    public String getAdminPassword() {
+        return adminPassword;
+    }
 }
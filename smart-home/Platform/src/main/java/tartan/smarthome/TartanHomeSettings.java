@@ -2,6 +2,8 @@ package tartan.smarthome;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.hibernate.validator.constraints.NotEmpty;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This is Jackson-compatible a configuration class for the initial configuration setting in the primiary
@@ -41,6 +43,32 @@ public class TartanHomeSettings {
     @JsonProperty
     private String alarmPasscode;
 
+    // HVAC hysteresis settings; these are optional
+    @JsonProperty
+    private String hvacDeadband = "0";
+
+    @JsonProperty
+    private String hvacMinOnTime = "0";
+
+    @JsonProperty
+    private String hvacMinOffTime = "0";
+
+    // user-defined automation rules; these are optional
+    @JsonProperty
+    private List<TartanAutomationSettings> automations = new ArrayList<>();
+
+    // the weekly target temperature and alarm schedule; optional
+    @JsonProperty
+    private List<TartanScheduleSettings> schedule = new ArrayList<>();
+
+    // the house time zone used for the schedule; defaults to the server time zone
+    @JsonProperty
+    private String timeZone;
+
+    // the groups the house belongs to, so that fleet operations can select it (such as "vacation")
+    @JsonProperty
+    private List<String> groups;
+
     public String getTargetTemp() {
         return targetTemp;
     }
@@ -98,4 +126,32 @@ public class TartanHomeSettings {
     public String getAlarmPasscode() { return alarmPasscode;  }
 
     public void setAlarmPasscode(String alarmPasscode) { this.alarmPasscode = alarmPasscode;  }
+
+    public String getHvacDeadband() { return hvacDeadband; }
+
+    public void setHvacDeadband(String hvacDeadband) { this.hvacDeadband = hvacDeadband; }
+
+    public String getHvacMinOnTime() { return hvacMinOnTime; }
+
+    public void setHvacMinOnTime(String hvacMinOnTime) { this.hvacMinOnTime = hvacMinOnTime; }
+
+    public String getHvacMinOffTime() { return hvacMinOffTime; }
+
+    public void setHvacMinOffTime(String hvacMinOffTime) { this.hvacMinOffTime = hvacMinOffTime; }
+
+    public List<TartanAutomationSettings> getAutomations() { return automations; }
+
+    public void setAutomations(List<TartanAutomationSettings> automations) { this.automations = automations; }
+
+    public List<TartanScheduleSettings> getSchedule() { return schedule; }
+
+    public void setSchedule(List<TartanScheduleSettings> schedule) { this.schedule = schedule; }
+
+    public String getTimeZone() { return timeZone; }
+
+    public void setTimeZone(String timeZone) { this.timeZone = timeZone; }
+
+    public List<String> getGroups() { return groups; }
+
+    public void setGroups(List<String> groups) { this.groups = groups; }
 }
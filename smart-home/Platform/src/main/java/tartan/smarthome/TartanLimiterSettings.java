@@ -0,0 +1,55 @@
+package tartan.smarthome;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Jackson-compatible configuration for the adaptive limit on concurrent REST requests. The limit
+ * starts at initialLimit and moves between minLimit and maxLimit: it grows slowly while requests
+ * finish within latencyTarget milliseconds, and is cut by backoffRatio when they do not.
+ */
+public class TartanLimiterSettings {
+
+    // set to false to accept every request
+    @JsonProperty
+    private String enabled = "true";
+
+    @JsonProperty
+    private String initialLimit = "64";
+
+    @JsonProperty
+    private String minLimit = "8";
+
+    @JsonProperty
+    private String maxLimit = "512";
+
+    // the request latency, in milliseconds, above which the limit is cut
+    @JsonProperty
+    private String latencyTarget = "250";
+
+    @JsonProperty
+    private String backoffRatio = "0.9";
+
+    public String getEnabled() { return enabled; }
+
+    public void setEnabled(String enabled) { this.enabled = enabled; }
+
+    public String getInitialLimit() { return initialLimit; }
+
+    public void setInitialLimit(String initialLimit) { this.initialLimit = initialLimit; }
+
+    public String getMinLimit() { return minLimit; }
+
+    public void setMinLimit(String minLimit) { this.minLimit = minLimit; }
+
+    public String getMaxLimit() { return maxLimit; }
+
+    public void setMaxLimit(String maxLimit) { this.maxLimit = maxLimit; }
+
+    public String getLatencyTarget() { return latencyTarget; }
+
+    public void setLatencyTarget(String latencyTarget) { this.latencyTarget = latencyTarget; }
+
+    public String getBackoffRatio() { return backoffRatio; }
+
+    public void setBackoffRatio(String backoffRatio) { this.backoffRatio = backoffRatio; }
+}
@@ -0,0 +1,45 @@
+package tartan.smarthome;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.hibernate.validator.constraints.NotEmpty;
+
+/**
+ * Jackson-compatible configuration for one transition in a house's weekly schedule. At the given
+ * time on each of the given days the target temperature and/or the alarm arming are changed.
+ */
+public class TartanScheduleSettings {
+
+    // comma separated days (MON,TUE,...), or "weekdays", "weekends" or "daily"
+    @NotEmpty
+    @JsonProperty
+    private String days;
+
+    // the time of day (HH:mm) of the transition
+    @NotEmpty
+    @JsonProperty
+    private String time;
+
+    // the new target temperature; optional
+    @JsonProperty
+    private String targetTemp;
+
+    // the new alarm state, armed or disarmed; optional
+    @JsonProperty
+    private String alarmArmed;
+
+    public String getDays() { return days; }
+
+    public void setDays(String days) { this.days = days; }
+
+    public String getTime() { return time; }
+
+    public void setTime(String time) { this.time = time; }
+
+    public String getTargetTemp() { return targetTemp; }
+
+    public void setTargetTemp(String targetTemp) { this.targetTemp = targetTemp; }
+
+    public String getAlarmArmed() { return alarmArmed; }
+
+    public void setAlarmArmed(String alarmArmed) { this.alarmArmed = alarmArmed; }
+}
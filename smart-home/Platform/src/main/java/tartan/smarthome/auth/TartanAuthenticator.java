@@ -3,11 +3,11 @@ package tartan.smarthome.auth;
 import io.dropwizard.auth.AuthenticationException;
 import io.dropwizard.auth.Authenticator;
 import io.dropwizard.auth.basic.BasicCredentials;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.AbstractMap;
+import java.util.concurrent.ConcurrentHashMap;
 import tartan.smarthome.TartanHomeConfiguration;
 import tartan.smarthome.TartanHomeSettings;
 
@@ -17,7 +17,13 @@ import tartan.smarthome.TartanHomeSettings;
 public class TartanAuthenticator implements Authenticator<BasicCredentials, TartanUser> {
 
 
-    private  Map<Map.Entry<String, String>, String> VALID_USERS = new HashMap<>();
+    private  Map<Map.Entry<String, String>, String> VALID_USERS = new ConcurrentHashMap<>();
+
+    // the credentials of each house, to forget them when the house is removed
+    private Map<String, Map.Entry<String, String>> HOUSE_USERS = new ConcurrentHashMap<>();
+
+    // the administrator credentials, if any
+    private Map.Entry<String, String> ADMIN = null;
 
     /**
      * Empty constructor
@@ -31,10 +37,42 @@ public class TartanAuthenticator implements Authenticator<BasicCredentials, Tart
     public void setValidUsers(TartanHomeConfiguration config) {
         List<TartanHomeSettings> houses = config.getHouses();
         for (TartanHomeSettings h : houses) {
-            Map.Entry<String,String> key =
-                    new AbstractMap.SimpleEntry<>(h.getUser(), h.getPassword());
+            addHouse(h);
+        }
+        if (config.getAdminUser() != null && config.getAdminPassword() != null) {
+            ADMIN = new AbstractMap.SimpleEntry<>(config.getAdminUser(), config.getAdminPassword());
+        }
+    }
 
-            VALID_USERS.put(key, h.getName());
+    /**
+     * Let the users of a house in. Credentials give access to one house: if another house was
+     * configured with the same credentials, they now give access to this one instead
+     * @param h the house settings
+     */
+    public synchronized void addHouse(TartanHomeSettings h) {
+        removeHouse(h.getName());
+        Map.Entry<String,String> key =
+                new AbstractMap.SimpleEntry<>(h.getUser(), h.getPassword());
+
+        VALID_USERS.put(key, h.getName());
+        HOUSE_USERS.put(h.getName(), key);
+    }
+
+    /**
+     * Forget the users of a house. Credentials it took over from another house that still uses
+     * them go back to that house
+     * @param name the house name
+     */
+    public synchronized void removeHouse(String name) {
+        Map.Entry<String,String> key = HOUSE_USERS.remove(name);
+        if (key == null || !name.equals(VALID_USERS.get(key))) {
+            return;
+        }
+        VALID_USERS.remove(key);
+        for (Map.Entry<String, Map.Entry<String, String>> other : HOUSE_USERS.entrySet()) {
+            if (other.getValue().equals(key)) {
+                VALID_USERS.put(key, other.getKey());
+            }
         }
     }
 
@@ -49,8 +87,10 @@ public class TartanAuthenticator implements Authenticator<BasicCredentials, Tart
         Map.Entry<String,String> p =
                 new AbstractMap.SimpleEntry<>(credentials.getUsername(), credentials.getPassword());
 
-        if (VALID_USERS.containsKey(p)) {
-            return Optional.of(new TartanUser(credentials.getUsername(), VALID_USERS.get(p)));
+        boolean admin = p.equals(ADMIN);
+        String house = VALID_USERS.get(p);
+        if (house != null || admin) {
+            return Optional.of(new TartanUser(credentials.getUsername(), house, admin));
         }
         return Optional.empty();
     }
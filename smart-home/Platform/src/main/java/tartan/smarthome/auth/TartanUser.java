@@ -1,6 +1,8 @@
 package tartan.smarthome.auth;
 
 import java.security.Principal;
+import java.util.Collections;
+import java.util.Set;
 
 /**
  * Simple class to represent an Authenticated users
@@ -10,6 +12,9 @@ public class TartanUser implements Principal {
     private String name=null;
     private String house = null;
 
+    // administrators may add, remove and re-configure houses
+    private boolean admin = false;
+
     /**
      * Create a new TartanUser. Note that this is the only place to set name and house
      * @param name The user name
@@ -20,6 +25,17 @@ public class TartanUser implements Principal {
         this.house = house;
     }
 
+    /**
+     * Create a new TartanUser that may be an administrator
+     * @param name The user name
+     * @param house The user house, or null for an administrator without houses
+     * @param admin true if the user may manage the houses
+     */
+    public TartanUser(String name, String house, boolean admin) {
+        this(name, house);
+        this.admin = admin;
+    }
+
     /**
      * Get the user name
      * @return the user name
@@ -36,4 +52,31 @@ public class TartanUser implements Principal {
     public String getHouse() {
         return house;
     }
+
+    /**
+     * Get the houses the user is bound to: the user house, if any. An administrator may access
+     * every house, not just these
+     * @return the house names
+     */
+    public Set<String> getHouses() {
+        return house == null ? Collections.emptySet() : Collections.singleton(house);
+    }
+
+    /**
+     * Check whether the user may access a house. An administrator runs the fleet and may access
+     * every house
+     * @param house the house name
+     * @return true if the user may access the house
+     */
+    public boolean mayAccess(String house) {
+        return admin || (this.house != null && this.house.equals(house));
+    }
+
+    /**
+     * Check whether the user may add, remove and re-configure houses
+     * @return true for an administrator
+     */
+    public boolean isAdmin() {
+        return admin;
+    }
 }
@@ -0,0 +1,65 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * The state of the door, "open" or "closed" on the wire
+ */
+public enum DoorState {
+    OPEN(TartanHomeValues.OPEN),
+    CLOSED(TartanHomeValues.CLOSED),
+    UNKNOWN(TartanHomeValues.UNKNOWN);
+
+    private final String value;
+
+    DoorState(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Read a value as sent by clients, refusing words that are not one of the values
+     * @param value the text
+     * @return the constant, or null if there is no text
+     * @throws IllegalArgumentException if the text is not one of the values
+     */
+    @JsonCreator
+    public static DoorState fromClient(String value) {
+        DoorState constant = of(value);
+        if (value != null && constant == null) {
+            throw new IllegalArgumentException("Unknown value: " + value);
+        }
+        return constant;
+    }
+
+    /**
+     * Read a value, such as one kept in the old history table
+     * @param value the text
+     * @return the constant, or null if the text is not one of the values
+     */
+    public static DoorState of(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case TartanHomeValues.OPEN:
+                return OPEN;
+            case TartanHomeValues.CLOSED:
+                return CLOSED;
+            case TartanHomeValues.UNKNOWN:
+                return UNKNOWN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the text of the value
+     * @return the text clients see
+     */
+    @JsonValue
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,71 @@
+package tartan.smarthome.core;
+
+import jakarta.persistence.*;
+
+/**
+ * Represents a database table of the houses that have history. Each history row refers to its
+ * house by id instead of repeating the name and address.
+ */
+@Entity
+@Table(name = "house")
+public class HouseData {
+
+    // Primary key for the table
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "name", nullable = false, unique = true)
+    private String name;
+
+    @Column(name = "address")
+    private String address;
+
+    /**
+     * Create an empty house, as Hibernate does before it fills one in from a row
+     */
+    public HouseData() {
+    }
+
+    /**
+     * Create a new house
+     * @param name the house name
+     * @param address the house address
+     */
+    public HouseData(String name, String address) {
+        this.name = name;
+        this.address = address;
+    }
+
+    /**
+     * Get the ID
+     * @return the ID, or null until the house is saved
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Get the name
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the address
+     * @return the address
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Set the address
+     * @param address the new address
+     */
+    public void setAddress(String address) {
+        this.address = address;
+    }
+}
@@ -0,0 +1,66 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * The HVAC mode. Written as "heat" or "cool"; the house controller calls these the
+ * heater and the chiller.
+ */
+public enum HvacMode {
+    HEAT(TartanHomeValues.HEAT),
+    COOL(TartanHomeValues.COOL),
+    UNKNOWN(TartanHomeValues.UNKNOWN);
+
+    private final String value;
+
+    HvacMode(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Read a value as sent by clients, refusing words that are not one of the values
+     * @param value the text
+     * @return the constant, or null if there is no text
+     * @throws IllegalArgumentException if the text is not one of the values
+     */
+    @JsonCreator
+    public static HvacMode fromClient(String value) {
+        HvacMode constant = of(value);
+        if (value != null && constant == null) {
+            throw new IllegalArgumentException("Unknown value: " + value);
+        }
+        return constant;
+    }
+
+    /**
+     * Read a value, such as one kept in the old history table
+     * @param value the text
+     * @return the constant, or null if the text is not one of the values
+     */
+    public static HvacMode of(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case TartanHomeValues.HEAT:
+                return HEAT;
+            case TartanHomeValues.COOL:
+                return COOL;
+            case TartanHomeValues.UNKNOWN:
+                return UNKNOWN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the text of the value
+     * @return the text clients see
+     */
+    @JsonValue
+    @Override
+    public String toString() {
+        return value;
+    }
+}
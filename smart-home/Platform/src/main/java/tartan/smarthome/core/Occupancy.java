@@ -0,0 +1,65 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * What the proximity sensor reports: "occupied" while someone is home, otherwise "empty"
+ */
+public enum Occupancy {
+    OCCUPIED(TartanHomeValues.OCCUPIED),
+    EMPTY(TartanHomeValues.EMPTY),
+    UNKNOWN(TartanHomeValues.UNKNOWN);
+
+    private final String value;
+
+    Occupancy(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Read a value as sent by clients, refusing words that are not one of the values
+     * @param value the text
+     * @return the constant, or null if there is no text
+     * @throws IllegalArgumentException if the text is not one of the values
+     */
+    @JsonCreator
+    public static Occupancy fromClient(String value) {
+        Occupancy constant = of(value);
+        if (value != null && constant == null) {
+            throw new IllegalArgumentException("Unknown value: " + value);
+        }
+        return constant;
+    }
+
+    /**
+     * Read a value, such as one kept in the old history table
+     * @param value the text
+     * @return the constant, or null if the text is not one of the values
+     */
+    public static Occupancy of(String value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case TartanHomeValues.OCCUPIED:
+                return OCCUPIED;
+            case TartanHomeValues.EMPTY:
+                return EMPTY;
+            case TartanHomeValues.UNKNOWN:
+                return UNKNOWN;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the text of the value
+     * @return the text clients see
+     */
+    @JsonValue
+    @Override
+    public String toString() {
+        return value;
+    }
+}
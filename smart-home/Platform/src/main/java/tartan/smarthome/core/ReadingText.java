@@ -0,0 +1,107 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * The numbers of the house model are held as ints but written as JSON strings, "72" rather than
+ * 72, as clients have always received them. UNKNOWN_READING is written as "UNKNOWN".
+ */
+public final class ReadingText {
+
+    private ReadingText() {
+    }
+
+    /**
+     * Get the text of a reading
+     * @param reading the reading, UNKNOWN_READING, or null
+     * @return the text clients see, or null
+     */
+    public static String of(Integer reading) {
+        if (reading == null) {
+            return null;
+        }
+        return isUnknown(reading) ? TartanHomeValues.UNKNOWN : String.valueOf(reading);
+    }
+
+    /**
+     * Tell whether a reading is the unknown reading
+     * @param reading the reading, or null
+     * @return true if it is UNKNOWN_READING
+     */
+    public static boolean isUnknown(Integer reading) {
+        return reading != null && reading == TartanHomeValues.UNKNOWN_READING;
+    }
+
+    /**
+     * Read a reading from its text
+     * @param text the text, "UNKNOWN", or null
+     * @return the reading, UNKNOWN_READING, or null if there is no text or it is not a whole number
+     */
+    public static Integer parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        text = text.trim();
+        if (text.equals(TartanHomeValues.UNKNOWN)) {
+            return TartanHomeValues.UNKNOWN_READING;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException x) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes a reading as its text
+     */
+    public static class Serializer extends StdSerializer<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Serializer() {
+            super(Integer.class);
+        }
+
+        @Override
+        public void serialize(Integer reading, JsonGenerator json, SerializerProvider provider) throws IOException {
+            json.writeString(of(reading));
+        }
+    }
+
+    /**
+     * Reads a reading from its text, or from a plain JSON number
+     */
+    public static class Deserializer extends StdDeserializer<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        public Deserializer() {
+            super(Integer.class);
+        }
+
+        @Override
+        public Integer deserialize(JsonParser json, DeserializationContext context) throws IOException {
+            if (json.hasToken(JsonToken.VALUE_NUMBER_INT)) {
+                return json.getIntValue();
+            }
+            String text = json.getValueAsString();
+            if (text == null) {
+                return (Integer) context.handleUnexpectedToken(Integer.class, json);
+            }
+            Integer reading = parse(text);
+            if (reading == null) {
+                return (Integer) context.handleWeirdStringValue(Integer.class, text, "not a whole number");
+            }
+            return reading;
+        }
+    }
+}
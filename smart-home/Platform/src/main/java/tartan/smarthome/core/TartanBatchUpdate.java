@@ -0,0 +1,63 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * A fleet update: either a list of house/patch pairs, or one patch applied to the houses
+ * selected by name or group. The patches are partial TartanHome states; fields left null are not
+ * changed.
+ */
+public class TartanBatchUpdate {
+
+    // per-house patches
+    @JsonProperty
+    private List<HouseUpdate> updates;
+
+    // the houses the shared patch applies to, by name and by group
+    @JsonProperty
+    private List<String> houses;
+
+    @JsonProperty
+    private String group;
+
+    // the shared patch
+    @JsonProperty
+    private TartanHome patch;
+
+    public List<HouseUpdate> getUpdates() { return updates; }
+
+    public void setUpdates(List<HouseUpdate> updates) { this.updates = updates; }
+
+    public List<String> getHouses() { return houses; }
+
+    public void setHouses(List<String> houses) { this.houses = houses; }
+
+    public String getGroup() { return group; }
+
+    public void setGroup(String group) { this.group = group; }
+
+    public TartanHome getPatch() { return patch; }
+
+    public void setPatch(TartanHome patch) { this.patch = patch; }
+
+    /**
+     * The patch for one house
+     */
+    public static class HouseUpdate {
+        @JsonProperty
+        private String house;
+
+        @JsonProperty
+        private TartanHome patch;
+
+        public String getHouse() { return house; }
+
+        public void setHouse(String house) { this.house = house; }
+
+        public TartanHome getPatch() { return patch; }
+
+        public void setPatch(TartanHome patch) { this.patch = patch; }
+    }
+}
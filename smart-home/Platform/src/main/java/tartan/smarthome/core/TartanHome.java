@@ -1,12 +1,19 @@
 package tartan.smarthome.core;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import java.util.List;
 import java.util.Objects;
 
 /**
  * The mode for a Tartan Home to be serialized as JSON. This is managed by Jackson via Dropwizard.
  * See https://www.dropwizard.io/1.0.0/docs/getting-started.html#jackson-for-json
+ *
+ * The states are enums and the readings ints, so the service converts them with switches rather
+ * than string comparisons; the JSON is the same text as when every field was a string.
  */
 public class TartanHome {
 
@@ -20,62 +27,76 @@ public class TartanHome {
 
     // The desired temperature
     @JsonProperty
-    private String targetTemp;
+    @JsonSerialize(using = ReadingText.Serializer.class)
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    private Integer targetTemp;
 
     // the current temperature
     @JsonProperty
-    private String temperature;
+    @JsonSerialize(using = ReadingText.Serializer.class)
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    private Integer temperature;
 
     // the current humidity
     @JsonProperty
-    private String humidity;
+    @JsonSerialize(using = ReadingText.Serializer.class)
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    private Integer humidity;
 
     // the state of the door (true if open, false if closed)
     @JsonProperty
-    private String door;
+    private DoorState door;
 
     // the state of the light (true if on, false if off)
     @JsonProperty
-    private String light;
+    private Power light;
 
     // the humidifier state (true if on, false if off)
     @JsonProperty
-    private String humidifier;
+    private Power humidifier;
 
     // the state of the proximity sensor (true of address occupied, false if vacant)
     @JsonProperty
-    private String proximity;
+    private Occupancy proximity;
 
     // the heater state (true if on, false if off)
     @JsonProperty
-    private String hvacMode;
+    private HvacMode hvacMode;
 
     // The state of the HVAC system
     @JsonProperty
-    private String hvacState;
+    private Power hvacState;
 
     // the alarm active state (true if alarm sounding, false if alarm not sounding)
     @JsonProperty
-    private String alarmActive;
+    private ActiveState alarmActive;
 
     // the alarm delay timeout
     @JsonProperty
-    private String alarmDelay;
+    @JsonSerialize(using = ReadingText.Serializer.class)
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    private Integer alarmDelay;
 
     // the alarm enabled state
     @JsonProperty
-    private String alarmArmed;
+    private ArmedState alarmArmed;
 
     // Properties that are not part of the historical record
     @JsonProperty
     private List<String> eventLog;
 
     @JsonProperty
-    private String authenticated;
+    @JsonSerialize(using = ToStringSerializer.class)
+    private Boolean authenticated;
 
     @JsonProperty
     private String alarmPasscode;
 
+    // the additional zones of a multi-zone house; null (and not serialized) for single-zone houses
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<TartanZone> zones;
+
     /**
      * Empty constructor needed by Jackson deserialization
      */
@@ -118,7 +139,7 @@ public class TartanHome {
      * Get the target temperature
      * @return the target temperature
      */
-    public String getTargetTemp() {
+    public Integer getTargetTemp() {
         return targetTemp;
     }
 
@@ -126,13 +147,13 @@ public class TartanHome {
      * Set the target temperature
      * @param targetTemp the new target temperature
      */
-    public void setTargetTemp(String targetTemp) { this.targetTemp = targetTemp; }
+    public void setTargetTemp(Integer targetTemp) { this.targetTemp = targetTemp; }
 
     /**
      * Get the current temperature
      * @return the temperature
      */
-    public String getTemperature() {
+    public Integer getTemperature() {
         return this.temperature;
     }
 
@@ -140,7 +161,7 @@ public class TartanHome {
      * Set the temperature
      * @param temperature the new temperature
      */
-    public void setTemperature(String temperature) {
+    public void setTemperature(Integer temperature) {
         this.temperature = temperature;
     }
 
@@ -148,7 +169,7 @@ public class TartanHome {
      * Get the humidity
      * @return Current humidity
      */
-    public String getHumidity() {
+    public Integer getHumidity() {
         return this.humidity;
     }
 
@@ -156,7 +177,7 @@ public class TartanHome {
      * Set the humidity
      * @param humidity the new humidity
      */
-    public void setHumidity(String humidity) {
+    public void setHumidity(Integer humidity) {
         this.humidity = humidity;
     }
 
@@ -164,7 +185,7 @@ public class TartanHome {
      * Get the door state
      * @return the door state
      */
-    public String getDoor() {
+    public DoorState getDoor() {
         return this.door;
     }
 
@@ -172,7 +193,7 @@ public class TartanHome {
      * Set the door state
      * @param door the new door state
      */
-    public void setDoor(String door) {
+    public void setDoor(DoorState door) {
         this.door = door;
     }
 
@@ -180,7 +201,7 @@ public class TartanHome {
      * Get the light state
      * @return the light state
      */
-    public String getLight() {
+    public Power getLight() {
         return this.light;
     }
 
@@ -188,7 +209,7 @@ public class TartanHome {
      * Set the light state
      * @param light the new light state
      */
-    public void setLight(String light) {
+    public void setLight(Power light) {
         this.light = light;
     }
 
@@ -196,7 +217,7 @@ public class TartanHome {
      * Get the dehumidifier state
      * @return the dehumidifier state
      */
-    public String getHumidifier() {
+    public Power getHumidifier() {
         return humidifier;
     }
 
@@ -204,7 +225,7 @@ public class TartanHome {
      * Set the dehumidifier state
      * @param humidifier the new state
      */
-    public void setHumidifier(String humidifier) {
+    public void setHumidifier(Power humidifier) {
         this.humidifier = humidifier;
     }
 
@@ -212,7 +233,7 @@ public class TartanHome {
      * Get the motion sensor state
      * @return the motion sensor state
      */
-    public String getProximity() {
+    public Occupancy getProximity() {
         return proximity;
     }
 
@@ -220,7 +241,7 @@ public class TartanHome {
      * Set the motion sensor state
      * @param proximity the new state
      */
-    public void setProximity(String proximity) {
+    public void setProximity(Occupancy proximity) {
         this.proximity = proximity;
     }
 
@@ -228,7 +249,7 @@ public class TartanHome {
      * Get the alarm armed state
      * @return the status of the alarm
      */
-    public String getAlarmArmed() {
+    public ArmedState getAlarmArmed() {
         return alarmArmed;
     }
 
@@ -236,7 +257,7 @@ public class TartanHome {
      * Arm/Disarm the alarm
      * @param alarmArmed the new state
      */
-    public void setAlarmArmed(String alarmArmed) {
+    public void setAlarmArmed(ArmedState alarmArmed) {
         this.alarmArmed = alarmArmed;
     }
 
@@ -244,7 +265,7 @@ public class TartanHome {
      * Get the HVAC mode
      * @return the HVAC mode
      */
-    public String getHvacMode() {
+    public HvacMode getHvacMode() {
         return hvacMode;
     }
 
@@ -252,7 +273,7 @@ public class TartanHome {
      * Set the HVAC mode
      * @param hvacMode the new mode
      */
-    public void setHvacMode(String hvacMode) {
+    public void setHvacMode(HvacMode hvacMode) {
         this.hvacMode = hvacMode;
     }
 
@@ -260,7 +281,7 @@ public class TartanHome {
      * Get the alarm active state
      * @return the current state
      */
-    public String getAlarmActive() {
+    public ActiveState getAlarmActive() {
         return alarmActive;
     }
 
@@ -268,7 +289,7 @@ public class TartanHome {
      * Set the alarm active state
      * @param alarmActive the new state
      */
-    public void setAlarmActive(String alarmActive) {
+    public void setAlarmActive(ActiveState alarmActive) {
         this.alarmActive = alarmActive;
     }
 
@@ -276,7 +297,7 @@ public class TartanHome {
      * Get the alarm delay
      * @return the current delay
      */
-    public String getAlarmDelay() {
+    public Integer getAlarmDelay() {
         return alarmDelay;
     }
 
@@ -284,7 +305,7 @@ public class TartanHome {
      * Set the alarm delay
      * @param alarmDelay the new delay
      */
-    public void setAlarmDelay(String alarmDelay) {
+    public void setAlarmDelay(Integer alarmDelay) {
         this.alarmDelay = alarmDelay;
     }
 
@@ -292,7 +313,7 @@ public class TartanHome {
      * Get the HVAC state
      * @return the current state
      */
-    public String getHvacState() {
+    public Power getHvacState() {
         return hvacState;
     }
 
@@ -300,7 +321,7 @@ public class TartanHome {
      * Set the HVAC state
      * @param hvacState the new state
      */
-    public void setHvacState(String hvacState) {
+    public void setHvacState(Power hvacState) {
         this.hvacState = hvacState;
     }
 
@@ -322,13 +343,13 @@ public class TartanHome {
      * Get the authenticated state
      * @return the state
      */
-    public String getAuthenticated() { return authenticated; }
+    public Boolean getAuthenticated() { return authenticated; }
 
     /**
      * Set the authenticated state
      * @param authenticated the new state
      */
-    public void setAuthenticated(String authenticated) { this.authenticated = authenticated;  }
+    public void setAuthenticated(Boolean authenticated) { this.authenticated = authenticated;  }
 
     /**
      * Get the alarm passcode
@@ -342,6 +363,18 @@ public class TartanHome {
      */
     public void setAlarmPasscode(String alarmPasscode) { this.alarmPasscode = alarmPasscode; }
 
+    /**
+     * Get the additional zones
+     * @return the zones, or null for a single-zone house
+     */
+    public List<TartanZone> getZones() { return zones; }
+
+    /**
+     * Set the additional zones
+     * @param zones the zones
+     */
+    public void setZones(List<TartanZone> zones) { this.zones = zones; }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -1,19 +1,43 @@
 package tartan.smarthome.core;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import jakarta.persistence.*;
 import java.util.Date;
 import java.util.Objects;
 
 /**
- * Represents a database table for home status
+ * Represents a database table for home status. A row refers to its house by id, packs the
+ * device states into one SMALLINT of two bits per device and keeps the readings as SMALLINTs,
+ * so that it is a fraction of the size of the text it replaces and its readings can be compared
+ * in queries. Rows are found by house and time through the (house_id, create_time) index.
  */
 @Entity
-@Table(name = "Home")
+@Table(name = "home_history",
+        indexes = @Index(name = "home_history_house_time", columnList = "house_id, create_time"))
 public class TartanHomeData {
 
-    // Primary key for the table. Not meant to be used
+    // how many ids are taken from the sequence at once
+    public static final int ID_BLOCK = 1000;
+
+    // where each device keeps its two bits in the flags: 0 if not recorded, otherwise its ordinal + 1
+    private static final int DOOR = 0;
+    private static final int LIGHT = 2;
+    private static final int HUMIDIFIER = 4;
+    private static final int PROXIMITY = 6;
+    private static final int HVAC_MODE = 8;
+    private static final int HVAC_STATE = 10;
+    private static final int ALARM_ACTIVE = 12;
+    private static final int ALARM_ARMED = 14;
+
+    // a reading that was UNKNOWN
+    private static final short UNKNOWN_READING = Short.MIN_VALUE;
+
+    // Primary key for the table. Not meant to be used. The ids come from a sequence, a block of
+    // ID_BLOCK at a time, so that Hibernate can batch the inserts; an identity column would need a
+    // round trip per row to learn its key
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "home_history_id")
+    @SequenceGenerator(name = "home_history_id", sequenceName = "home_history_seq", allocationSize = ID_BLOCK)
     private long id;
 
     // the creation time
@@ -21,89 +45,93 @@ public class TartanHomeData {
     @Column(name = "create_time", updatable = false)
     private Date createTimeStamp;
 
-    @Column(name = "home_name", nullable = false)
+    // the house, set when the row is saved
+    @ManyToOne(fetch = FetchType.EAGER, optional = false)
+    @JoinColumn(name = "house_id", nullable = false)
+    private HouseData house;
+
+    // the house as the historian knows it, until the row is saved
+    @Transient
     private String homeName;
 
-    @Column(name = "address", nullable = false)
+    @Transient
     private String address;
 
     // The desired temperature
     @Column(name = "target_temp")
-    private String targetTemp;
+    private Short targetTemp;
 
     // the current temperature
     @Column(name = "temperature")
-    private String temperature;
+    private Short temperature;
 
     // the current humidity
     @Column(name = "humidity")
-    private String humidity;
-
-    // the state of the door (true if open, false if closed)
-    @Column(name = "door_state")
-    private String door;
-
-    // the state of the light (true if on, false if off)
-    @Column(name = "light_state")
-    private String light;
-
-    // the humidifier state (true if on, false if off)
-    @Column(name = "humidifier_state")
-    private String humidifier;
-
-    // the state of the proximity sensor (true of address occupied, false if vacant)
-    @Column(name = "proximity_state")
-    private String proximity;
-    // the heater state (true if on, false if off)
-    @Column(name = "hvac_mode")
-    
-    private String hvacMode;
-    // The state of the HVAC system
-    @Column(name = "hvac_state")
-    private String hvacState;
-
-    // the alarm active state (true if alarm sounding, false if alarm not sounding)
-    @Column(name = "alarm_active_state")
-    private String alarmActive;
+    private Short humidity;
 
     // the alarm delay timeout
     @Column(name = "alarm_delay")
-    private String alarmDelay;
+    private Short alarmDelay;
+
+    // the door, light, humidifier, proximity, HVAC mode and state, and alarm active and armed states
+    @Column(name = "device_flags", nullable = false)
+    private short flags;
 
-    // the alarm enabled state
-    @Column(name = "alarm_enabled_state")
-    private String alarmArmed;
+    /**
+     * Create an empty data set, as Hibernate does before it fills one in from a row
+     */
+    public TartanHomeData() {
+    }
 
     /**
      * Create a mew data set from a TartanHome model
      * @param h the home model
      */
     public TartanHomeData(TartanHome h) {
+        // the fields are set directly rather than through the setters, which a subclass could override
         this.homeName = h.getName();
         this.address = h.getAddress();
-        this.targetTemp = h.getTargetTemp();
-        this.temperature = h.getTemperature();
-        this.humidity = h.getHumidity();
-        this.door = h.getDoor();
-        this.light = h.getLight();
-        this.humidifier = h.getHumidifier();
-        this.proximity = h.getProximity();
-        this.hvacMode = h.getHvacMode();
-        this.hvacState = h.getHvacState();
-        this.alarmActive = h.getAlarmActive();
-        this.alarmDelay = h.getAlarmDelay();
-        this.alarmArmed = h.getAlarmArmed();
+        this.targetTemp = toColumn(h.getTargetTemp());
+        this.temperature = toColumn(h.getTemperature());
+        this.humidity = toColumn(h.getHumidity());
+        this.alarmDelay = toColumn(h.getAlarmDelay());
+        short packed = 0;
+        packed = withFlag(packed, DOOR, h.getDoor());
+        packed = withFlag(packed, LIGHT, h.getLight());
+        packed = withFlag(packed, HUMIDIFIER, h.getHumidifier());
+        packed = withFlag(packed, PROXIMITY, h.getProximity());
+        packed = withFlag(packed, HVAC_MODE, h.getHvacMode());
+        packed = withFlag(packed, HVAC_STATE, h.getHvacState());
+        packed = withFlag(packed, ALARM_ACTIVE, h.getAlarmActive());
+        packed = withFlag(packed, ALARM_ARMED, h.getAlarmArmed());
+        this.flags = packed;
 
         // Remember when this record is created
         this.createTimeStamp = new Date();
     }
 
+    /**
+     * Get the house
+     * @return the house, or null until the row is saved or read
+     */
+    public HouseData getHouse() {
+        return house;
+    }
+
+    /**
+     * Set the house
+     * @param house the saved house
+     */
+    public void setHouse(HouseData house) {
+        this.house = house;
+    }
+
     /**
      * Get the name
      * @return the name
      */
     public String getHomeName() {
-        return homeName;
+        return house != null ? house.getName() : homeName;
     }
 
     /**
@@ -119,7 +147,7 @@ public class TartanHomeData {
      * @return the address
      */
     public String getAddress() {
-        return address;
+        return house != null ? house.getAddress() : address;
     }
 
     /**
@@ -134,190 +162,194 @@ public class TartanHomeData {
      * Get the target temperature
      * @return the target temperature
      */
-    public String getTargetTemp() {
-        return targetTemp;
+    public Integer getTargetTemp() {
+        return toReading(targetTemp);
     }
 
     /**
      * Set the target temperature
      * @param targetTemp the new target temperature
      */
-    public void setTargetTemp(String targetTemp) { this.targetTemp = targetTemp; }
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    public void setTargetTemp(Integer targetTemp) { this.targetTemp = toColumn(targetTemp); }
 
     /**
      * Get the current temperature
      * @return the temperature
      */
-    public String getTemperature() {
-        return this.temperature;
+    public Integer getTemperature() {
+        return toReading(this.temperature);
     }
 
     /**
      * Set the temperature
      * @param temperature the new temperature
      */
-    public void setTemperature(String temperature) {
-        this.temperature = temperature;
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    public void setTemperature(Integer temperature) {
+        this.temperature = toColumn(temperature);
     }
 
     /**
      * Get the humidity
      * @return Current humidity
      */
-    public String getHumidity() {
-        return this.humidity;
+    public Integer getHumidity() {
+        return toReading(this.humidity);
     }
 
     /**
      * Set the humidity
      * @param humidity the new humidity
      */
-    public void setHumidity(String humidity) {
-        this.humidity = humidity;
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    public void setHumidity(Integer humidity) {
+        this.humidity = toColumn(humidity);
     }
 
     /**
      * Get the door state
      * @return the door state
      */
-    public String getDoor() {
-        return this.door;
+    public DoorState getDoor() {
+        return getFlag(DOOR, DoorState.values());
     }
 
     /**
      * Set the door state
      * @param door the new door state
      */
-    public void setDoor(String door) {
-        this.door = door;
+    public void setDoor(DoorState door) {
+        setFlag(DOOR, door);
     }
 
     /**
      * Get the light state
      * @return the light state
      */
-    public String getLight() {
-        return this.light;
+    public Power getLight() {
+        return getFlag(LIGHT, Power.values());
     }
 
     /**
      * Set the light state
      * @param light the new light state
      */
-    public void setLight(String light) {
-        this.light = light;
+    public void setLight(Power light) {
+        setFlag(LIGHT, light);
     }
 
     /**
      * Get the dehumidifier state
      * @return the dehumidifier state
      */
-    public String getHumidifier() {
-        return humidifier;
+    public Power getHumidifier() {
+        return getFlag(HUMIDIFIER, Power.values());
     }
 
     /**
      * Set the dehumidifier state
      * @param humidifier the new state
      */
-    public void setHumidifier(String humidifier) {
-        this.humidifier = humidifier;
+    public void setHumidifier(Power humidifier) {
+        setFlag(HUMIDIFIER, humidifier);
     }
 
     /**
      * Get the motion sensor state
      * @return the motion sensor state
      */
-    public String getProximity() {
-        return proximity;
+    public Occupancy getProximity() {
+        return getFlag(PROXIMITY, Occupancy.values());
     }
 
     /**
      * Set the motion sensor state
      * @param proximity the new state
      */
-    public void setProximity(String proximity) {
-        this.proximity = proximity;
+    public void setProximity(Occupancy proximity) {
+        setFlag(PROXIMITY, proximity);
     }
 
     /**
      * Get the alarm armed state
      * @return the status of the alarm
      */
-    public String getAlarmArmed() {
-        return alarmArmed;
+    public ArmedState getAlarmArmed() {
+        return getFlag(ALARM_ARMED, ArmedState.values());
     }
 
     /**
      * Arm/Disarm the alarm
      * @param alarmArmed the new state
      */
-    public void setAlarmArmed(String alarmArmed) {
-        this.alarmArmed = alarmArmed;
+    public void setAlarmArmed(ArmedState alarmArmed) {
+        setFlag(ALARM_ARMED, alarmArmed);
     }
 
     /**
      * Get the HVAC mode
      * @return the HVAC mode
      */
-    public String getHvacMode() {
-        return hvacMode;
+    public HvacMode getHvacMode() {
+        return getFlag(HVAC_MODE, HvacMode.values());
     }
 
     /**
      * Set the HVAC mode
      * @param hvacMode the new mode
      */
-    public void setHvacMode(String hvacMode) {
-        this.hvacMode = hvacMode;
+    public void setHvacMode(HvacMode hvacMode) {
+        setFlag(HVAC_MODE, hvacMode);
     }
 
     /**
      * Get the alarm active state
      * @return the current state
      */
-    public String getAlarmActive() {
-        return alarmActive;
+    public ActiveState getAlarmActive() {
+        return getFlag(ALARM_ACTIVE, ActiveState.values());
     }
 
     /**
      * Set the alarm active state
      * @param alarmActive the new state
      */
-    public void setAlarmActive(String alarmActive) {
-        this.alarmActive = alarmActive;
+    public void setAlarmActive(ActiveState alarmActive) {
+        setFlag(ALARM_ACTIVE, alarmActive);
     }
 
     /**
      * Get the alarm delay
      * @return the current delay
      */
-    public String getAlarmDelay() {
-        return alarmDelay;
+    public Integer getAlarmDelay() {
+        return toReading(alarmDelay);
     }
 
     /**
      * Set the alarm delay
      * @param alarmDelay the new delay
      */
-    public void setAlarmDelay(String alarmDelay) {
-        this.alarmDelay = alarmDelay;
+    @JsonDeserialize(using = ReadingText.Deserializer.class)
+    public void setAlarmDelay(Integer alarmDelay) {
+        this.alarmDelay = toColumn(alarmDelay);
     }
 
     /**
      * Get the HVAC state
      * @return the current state
      */
-    public String getHvacState() {
-        return hvacState;
+    public Power getHvacState() {
+        return getFlag(HVAC_STATE, Power.values());
     }
 
     /**
      * Set the HVAC state
      * @param hvacState the new state
      */
-    public void setHvacState(String hvacState) {
-        this.hvacState = hvacState;
+    public void setHvacState(Power hvacState) {
+        setFlag(HVAC_STATE, hvacState);
     }
 
 
@@ -349,9 +381,58 @@ public class TartanHomeData {
      */
     public void setCreateTimeStamp(Date createTimeStamp) { this.createTimeStamp = createTimeStamp; }
 
+    /**
+     * Tell whether another data set records the same house state. The ID and creation time are
+     * not part of the state
+     * @param other the other data set, or null
+     * @return true if every recorded value is the same
+     */
+    public boolean sameState(TartanHomeData other) {
+        return other != null
+                && Objects.equals(getHomeName(), other.getHomeName())
+                && Objects.equals(getAddress(), other.getAddress())
+                && Objects.equals(targetTemp, other.targetTemp)
+                && Objects.equals(temperature, other.temperature)
+                && Objects.equals(humidity, other.humidity)
+                && Objects.equals(alarmDelay, other.alarmDelay)
+                && flags == other.flags;
+    }
+
+    private <E extends Enum<E>> E getFlag(int shift, E[] values) {
+        int code = (flags >>> shift) & 3;
+        return code == 0 ? null : values[code - 1];
+    }
+
+    private void setFlag(int shift, Enum<?> value) {
+        flags = withFlag(flags, shift, value);
+    }
+
+    private static short withFlag(short flags, int shift, Enum<?> value) {
+        int code = value == null ? 0 : value.ordinal() + 1;
+        return (short) ((flags & ~(3 << shift)) | (code << shift));
+    }
+
+    private static Integer toReading(Short column) {
+        if (column == null) {
+            return null;
+        }
+        return column == UNKNOWN_READING ? TartanHomeValues.UNKNOWN_READING : Integer.valueOf(column);
+    }
+
+    private static Short toColumn(Integer reading) {
+        if (reading == null) {
+            return null;
+        }
+        // a reading too large for the column is as good as unknown
+        if (reading == TartanHomeValues.UNKNOWN_READING || reading <= UNKNOWN_READING || reading > Short.MAX_VALUE) {
+            return UNKNOWN_READING;
+        }
+        return reading.shortValue();
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hash(id, homeName);
+        return Objects.hash(id, getHomeName());
     }
 
     @Override
@@ -363,7 +444,7 @@ public class TartanHomeData {
             return false;
         }
         final TartanHomeData that = (TartanHomeData) o;
-        return Objects.equals(this.homeName, that.homeName);
+        return Objects.equals(this.getHomeName(), that.getHomeName());
     }
 
 }
@@ -23,4 +23,7 @@ public abstract class TartanHomeValues {
     public static final String INACTIVE = "inactive";
 
     public static final String UNKNOWN = "UNKNOWN";
+
+    // a temperature, humidity or delay the house did not report; clients see UNKNOWN
+    public static final int UNKNOWN_READING = Integer.MIN_VALUE;
 }
@@ -0,0 +1,89 @@
+package tartan.smarthome.core;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The model for one additional zone of a multi-zone Tartan Home, serialized as part of the
+ * TartanHome JSON. As with TartanHome, fields left null are not changed by an update.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TartanZone {
+
+    // the zone number, starting at 1
+    @JsonProperty
+    private String zone;
+
+    // the desired temperature in this zone
+    @JsonProperty
+    private String targetTemp;
+
+    // the current temperature
+    @JsonProperty
+    private String temperature;
+
+    // the current humidity
+    @JsonProperty
+    private String humidity;
+
+    // the state of the door
+    @JsonProperty
+    private String door;
+
+    // the state of the light
+    @JsonProperty
+    private String light;
+
+    // the state of the proximity sensor
+    @JsonProperty
+    private String proximity;
+
+    // the humidifier state
+    @JsonProperty
+    private String humidifier;
+
+    // the state of the HVAC in this zone
+    @JsonProperty
+    private String hvacState;
+
+    /**
+     * Empty constructor needed by Jackson deserialization
+     */
+    public TartanZone() {  }
+
+    public String getZone() { return zone; }
+
+    public void setZone(String zone) { this.zone = zone; }
+
+    public String getTargetTemp() { return targetTemp; }
+
+    public void setTargetTemp(String targetTemp) { this.targetTemp = targetTemp; }
+
+    public String getTemperature() { return temperature; }
+
+    public void setTemperature(String temperature) { this.temperature = temperature; }
+
+    public String getHumidity() { return humidity; }
+
+    public void setHumidity(String humidity) { this.humidity = humidity; }
+
+    public String getDoor() { return door; }
+
+    public void setDoor(String door) { this.door = door; }
+
+    public String getLight() { return light; }
+
+    public void setLight(String light) { this.light = light; }
+
+    public String getProximity() { return proximity; }
+
+    public void setProximity(String proximity) { this.proximity = proximity; }
+
+    public String getHumidifier() { return humidifier; }
+
+    public void setHumidifier(String humidifier) { this.humidifier = humidifier; }
+
+    public String getHvacState() { return hvacState; }
+
+    public void setHvacState(String hvacState) { this.hvacState = hvacState; }
+}
@@ -2,17 +2,57 @@ package tartan.smarthome.db;
 
 import io.dropwizard.hibernate.AbstractDAO;
 import org.hibernate.Session;
-import org.hibernate.SessionException;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import tartan.smarthome.core.ActiveState;
+import tartan.smarthome.core.ArmedState;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.HouseData;
+import tartan.smarthome.core.HvacMode;
+import tartan.smarthome.core.Occupancy;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.ReadingText;
 import tartan.smarthome.core.TartanHomeData;
 
+import java.sql.ResultSet;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
 /**
  * The data access object to log the house data
  */
 public class HomeDAO extends AbstractDAO<TartanHomeData> {
+
+    // the table the history was kept in before it was typed, and its columns in the order they are read
+    private static final String LEGACY_TABLE = "Home";
+    private static final String LEGACY_COLUMNS = "id, create_time, home_name, address, target_temp, temperature,"
+            + " humidity, door_state, light_state, humidifier_state, proximity_state, hvac_mode, hvac_state,"
+            + " alarm_active_state, alarm_delay, alarm_enabled_state";
+
+    // on databases without sequences, such as MySQL, the history id sequence is a one-row table
+    private static final String ID_TABLE = "home_history_seq";
+
+    // how many times a write is tried when it saves a house another writer saved first
+    private static final int ATTEMPTS = 3;
+
     // Keep a reference to the session
     private SessionFactory factory = null;
 
+    // the saved houses by name, so that a row needs no query to find its house id
+    private final Map<String, HouseData> houses = new ConcurrentHashMap<>();
+
     public HomeDAO(SessionFactory factory) {
         super(factory);
         this.factory = factory;
@@ -23,14 +63,254 @@ public class HomeDAO extends AbstractDAO<TartanHomeData> {
      * @param tartanHomeData the data to save
      */
     public void create(TartanHomeData tartanHomeData) {
+        createAll(Collections.singletonList(tartanHomeData), 1);
+    }
+
+    /**
+     * Save many rows in one transaction. They are sent to the database in JDBC batches of
+     * batchSize inserts, and the session is cleared after each batch so that it holds no more
+     * than one batch of entities however many rows there are.
+     * @param rows the data to save
+     * @param batchSize the number of inserts per JDBC batch
+     */
+    public void createAll(List<TartanHomeData> rows, int batchSize) {
+        inTransaction((session, saved) -> {
+            session.setJdbcBatchSize(batchSize);
+            for (int i = 0; i < rows.size(); i++) {
+                TartanHomeData row = rows.get(i);
+                // a row keeps the id it was given in an attempt that was rolled back; it is new again
+                row.setId(0);
+                row.setHouse(houseOf(session, row.getHomeName(), row.getAddress(), saved));
+                session.persist(row);
+                if ((i + 1) % batchSize == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Fetch the history of a house over a period. Rows are only written when something changes, so
+     * the row in effect when the period starts, which may be older, comes first.
+     * @param homeName the house
+     * @param from the start of the period
+     * @param to the end of the period
+     * @return the rows, oldest first
+     */
+    public List<TartanHomeData> findHistory(String homeName, Date from, Date to) {
+        Session session = factory.openSession();
         try {
-            // There is a dropwizard way to establish a Hibernate session outside of Jersey
-            // but this is more reliable
-            Session session = factory.openSession();
-            session.beginTransaction();
-            session.save(tartanHomeData);
-            session.getTransaction().commit();
+            List<TartanHomeData> rows = new ArrayList<>(session.createQuery(
+                    "from TartanHomeData where house.name = :house and createTimeStamp <= :from"
+                            + " order by createTimeStamp desc", TartanHomeData.class)
+                    .setParameter("house", homeName)
+                    .setParameter("from", from)
+                    .setMaxResults(1)
+                    .list());
+            rows.addAll(session.createQuery(
+                    "from TartanHomeData where house.name = :house and createTimeStamp > :from"
+                            + " and createTimeStamp <= :to order by createTimeStamp", TartanHomeData.class)
+                    .setParameter("house", homeName)
+                    .setParameter("from", from)
+                    .setParameter("to", to)
+                    .list());
+            return rows;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Move the id sequence past the ids already in the history table. A sequence created next to
+     * existing rows, or reset, would otherwise hand out their ids again, and every batch holding
+     * one of them would fail. Ids are taken a block at a time, so the sequence is set a block past
+     * the highest id.
+     * @return true if the sequence was moved
+     */
+    public boolean seedIds() {
+        Session session = factory.openSession();
+        try {
+            if (!tableExists(session, ID_TABLE)) {
+                return false;
+            }
+            Transaction transaction = session.beginTransaction();
+            try {
+                Long max = session.createQuery("select max(id) from TartanHomeData", Long.class).uniqueResult();
+                int moved = max == null ? 0 : session.createNativeMutationQuery(
+                        "update " + ID_TABLE + " set next_val = :next where next_val < :next")
+                        .setParameter("next", max + TartanHomeData.ID_BLOCK + 1)
+                        .executeUpdate();
+                transaction.commit();
+                return moved > 0;
+            } catch (RuntimeException x) {
+                transaction.rollback();
+                throw x;
+            }
+        } finally {
             session.close();
-        } catch (SessionException sx) {/* Nothing to do */ }
+        }
+    }
+
+    /**
+     * Move the oldest rows of the old text-valued Home table to the history table. The rows are
+     * inserted and deleted from the old table in one transaction, so the migration can run while
+     * the server does, a few rows at a time, and be stopped and resumed at any point.
+     * @param max the most rows to move
+     * @return the number of rows moved; 0 once the old table is empty or if there is none
+     */
+    public int migrateLegacy(int max) {
+        return inTransaction((session, saved) -> {
+            if (!tableExists(session, LEGACY_TABLE)) {
+                return 0;
+            }
+            List<Object[]> legacy = session.createNativeQuery(
+                    "select " + LEGACY_COLUMNS + " from " + LEGACY_TABLE + " order by id", Object[].class)
+                    .setMaxResults(max)
+                    .list();
+            if (legacy.isEmpty()) {
+                return 0;
+            }
+            List<Long> ids = new ArrayList<>(legacy.size());
+            for (Object[] columns : legacy) {
+                ids.add(((Number) columns[0]).longValue());
+                TartanHomeData row = fromLegacy(columns);
+                row.setHouse(houseOf(session, row.getHomeName(), row.getAddress(), saved));
+                session.persist(row);
+            }
+            session.createNativeMutationQuery("delete from " + LEGACY_TABLE + " where id in (:ids)")
+                    .setParameterList("ids", ids)
+                    .executeUpdate();
+            return legacy.size();
+        });
+    }
+
+    /**
+     * Run work in a transaction of its own, and cache the houses it found once it commits. Two
+     * writers that meet a new house at the same time, such as the historian and the migration,
+     * both save it, and the one that commits second breaks the unique house name. Its work is
+     * rolled back and run again, and then finds the house the other one saved.
+     * @param work the work, given the session and a map to put the houses it finds in
+     * @return the result of the work
+     */
+    private <T> T inTransaction(BiFunction<Session, Map<String, HouseData>, T> work) {
+        for (int attempt = 1; ; attempt++) {
+            Session session = factory.openSession();
+            try {
+                Transaction transaction = session.beginTransaction();
+                try {
+                    Map<String, HouseData> saved = new HashMap<>();
+                    T result = work.apply(session, saved);
+                    transaction.commit();
+                    houses.putAll(saved);
+                    return result;
+                } catch (RuntimeException x) {
+                    if (transaction.isActive()) {
+                        transaction.rollback();
+                    }
+                    if (attempt >= ATTEMPTS || !isConstraintViolation(x)) {
+                        throw x;
+                    }
+                }
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Tell whether a failure, or one of its causes, is a broken database constraint
+     * @param x the failure
+     * @return true if a constraint was broken
+     */
+    private static boolean isConstraintViolation(Throwable x) {
+        for (Throwable cause = x; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException || cause instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a table exists in the database the session uses
+     * @param session the session
+     * @param name the table name
+     * @return true if there is such a table
+     */
+    private static boolean tableExists(Session session, String name) {
+        return session.doReturningWork(connection -> {
+            try (ResultSet tables = connection.getMetaData().getTables(connection.getCatalog(), null, name, null)) {
+                return tables.next();
+            }
+        });
+    }
+
+    /**
+     * Find the house of a row, saving it if it is new and updating its address if it moved
+     * @param session the session saving the row
+     * @param name the house name
+     * @param address the house address
+     * @param saved the houses found in this transaction, cached once it commits
+     * @return a reference to the house
+     */
+    private HouseData houseOf(Session session, String name, String address, Map<String, HouseData> saved) {
+        HouseData house = saved.get(name);
+        if (house == null) {
+            house = houses.get(name);
+        }
+        if (house == null || !Objects.equals(house.getAddress(), address)) {
+            house = session.createQuery("from HouseData where name = :name", HouseData.class)
+                    .setParameter("name", name)
+                    .uniqueResult();
+            if (house == null) {
+                house = new HouseData(name, address);
+                session.persist(house);
+            } else if (!Objects.equals(house.getAddress(), address)) {
+                house.setAddress(address);
+                session.flush();
+            }
+            saved.put(name, house);
+        }
+        return session.getReference(HouseData.class, house.getId());
+    }
+
+    /**
+     * Convert a row of the old table
+     * @param columns the columns, in the order of LEGACY_COLUMNS
+     * @return the row
+     */
+    private static TartanHomeData fromLegacy(Object[] columns) {
+        TartanHomeData row = new TartanHomeData();
+        row.setCreateTimeStamp(toDate(columns[1]));
+        row.setHomeName((String) columns[2]);
+        row.setAddress((String) columns[3]);
+        row.setTargetTemp(ReadingText.parse((String) columns[4]));
+        row.setTemperature(ReadingText.parse((String) columns[5]));
+        row.setHumidity(ReadingText.parse((String) columns[6]));
+        row.setDoor(DoorState.of((String) columns[7]));
+        row.setLight(Power.of((String) columns[8]));
+        row.setHumidifier(Power.of((String) columns[9]));
+        row.setProximity(Occupancy.of((String) columns[10]));
+        row.setHvacMode(HvacMode.of((String) columns[11]));
+        row.setHvacState(Power.of((String) columns[12]));
+        row.setAlarmActive(ActiveState.of((String) columns[13]));
+        row.setAlarmDelay(ReadingText.parse((String) columns[14]));
+        row.setAlarmArmed(ArmedState.of((String) columns[15]));
+        return row;
+    }
+
+    private static Date toDate(Object value) {
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        }
+        if (value instanceof LocalDateTime) {
+            return Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant());
+        }
+        if (value instanceof Instant) {
+            return Date.from((Instant) value);
+        }
+        return null;
     }
 }
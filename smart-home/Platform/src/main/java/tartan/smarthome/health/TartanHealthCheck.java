@@ -1,16 +1,59 @@
 package tartan.smarthome.health;
 
 import com.codahale.metrics.health.HealthCheck;
+import tartan.smarthome.resources.CircuitBreaker;
+import tartan.smarthome.resources.HouseRegistry;
+import tartan.smarthome.resources.TartanHomeService;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reports the circuit breakers of the houses. A house that stops answering only affects itself, so
+ * the server is unhealthy only when no house is answering; the houses whose breakers are not
+ * closed are listed either way.
+ */
 public class TartanHealthCheck extends HealthCheck {
 
+    // the houses
+    private final HouseRegistry registry;
+
     /**
-     * This health check does nothing. Perhaps something more robust is needed?
-     * @return health check result
+     * Check the houses of a registry
+     * @param registry the houses
+     */
+    public TartanHealthCheck(HouseRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Check the circuit breaker of every house
+     * @return healthy unless every breaker is open, with the open and half-open houses as details
      * @throws Exception for an error
      */
     @Override
     protected Result check() throws Exception {
-        return Result.healthy();
+        List<String> open = new ArrayList<>();
+        List<String> halfOpen = new ArrayList<>();
+        int houses = 0;
+        for (TartanHomeService service : registry.getServices()) {
+            houses++;
+            CircuitBreaker.State state = service.getBreaker().getState();
+            if (state == CircuitBreaker.State.OPEN) {
+                open.add(service.getName());
+            } else if (state == CircuitBreaker.State.HALF_OPEN) {
+                halfOpen.add(service.getName());
+            }
+        }
+
+        ResultBuilder result = Result.builder()
+                .withMessage(open.size() + " of " + houses + " house circuits open")
+                .withDetail("houses", houses)
+                .withDetail("open", open)
+                .withDetail("halfOpen", halfOpen);
+        if (houses > 0 && open.size() == houses) {
+            return result.unhealthy().build();
+        }
+        return result.healthy().build();
     }
 }
@@ -0,0 +1,270 @@
+package tartan.smarthome.resources;
+
+import tartan.smarthome.resources.iotcontroller.Priority;
+
+import java.time.Clock;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Stops the calls to a house that is not answering, so that requests fail in microseconds instead
+ * of each one waiting on the socket. Each house has one.
+ *
+ * The breaker is CLOSED while the house answers. It keeps the outcomes of the last calls, where a
+ * timeout counts as a failure, and OPENs when enough of them failed. While it is open, calls are
+ * refused. Once the open time has passed it is HALF_OPEN: one trial call is let through, and its
+ * outcome closes the breaker again or re-opens it for another open time.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The breaker states
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Creates the breaker of each house, all to the same settings
+     */
+    public static class Factory {
+
+        // how long a call may take before it counts as failed, in seconds, if not configured
+        public static final long DEFAULT_CALL_TIMEOUT = 10;
+
+        private final int window;
+        private final int failureRate;
+        private final int openSeconds;
+        private final long callTimeout;
+
+        /**
+         * Create a new factory
+         * @param window how many of the last outcomes decide whether to open
+         * @param failureRate the percentage of failed outcomes that opens a breaker
+         * @param openSeconds how long a breaker stays open before a trial call
+         * @param callTimeout how long a call may take before it counts as failed, in seconds
+         */
+        public Factory(int window, int failureRate, int openSeconds, long callTimeout) {
+            this.window = window;
+            this.failureRate = failureRate;
+            this.openSeconds = openSeconds;
+            this.callTimeout = callTimeout;
+        }
+
+        /**
+         * Create a breaker
+         * @return a closed breaker
+         */
+        public CircuitBreaker create() {
+            return new CircuitBreaker(window, failureRate, openSeconds, Clock.systemUTC());
+        }
+
+        /**
+         * Get the call timeout
+         * @return how long a call may take before it counts as failed, in seconds
+         */
+        public long getCallTimeout() {
+            return callTimeout;
+        }
+    }
+
+    private final Clock clock;
+
+    // the number of outcomes kept, the fewest that can open the breaker, and the failure percentage that does
+    private final int window;
+    private final int minimumCalls;
+    private final int failureRate;
+
+    // how long the breaker stays open before it lets a trial call through, in milliseconds
+    private final long openMillis;
+
+    // the last outcomes, oldest first from next; true for a failure
+    private final boolean[] outcomes;
+    private int next = 0;
+    private int calls = 0;
+    private int failures = 0;
+
+    private volatile State state = State.CLOSED;
+    private long openedAt = 0;
+    private boolean trialRunning = false;
+
+    /**
+     * Create a breaker with the default settings
+     */
+    public CircuitBreaker() {
+        this(10, 50, 30, Clock.systemUTC());
+    }
+
+    /**
+     * Create a new breaker
+     * @param window how many of the last outcomes decide whether to open; at least half must be known
+     * @param failureRate the percentage of failed outcomes that opens the breaker
+     * @param openSeconds how long the breaker stays open before a trial call
+     * @param clock the clock the open time is measured on
+     */
+    public CircuitBreaker(int window, int failureRate, int openSeconds, Clock clock) {
+        this.window = Math.max(1, window);
+        this.minimumCalls = Math.max(1, this.window / 2);
+        this.failureRate = failureRate;
+        this.openMillis = openSeconds * 1000L;
+        this.clock = clock;
+        this.outcomes = new boolean[this.window];
+    }
+
+    /**
+     * Ask to make a call. Every call allowed must be followed by onSuccess, onFailure or onIgnored.
+     * @return true if the call may go ahead, false if it must fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialRunning) {
+                    return false;
+                }
+                trialRunning = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record a call that the house answered
+     */
+    public synchronized void onSuccess() {
+        State current = getState();
+        if (current == State.HALF_OPEN) {
+            close();
+        } else if (current == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Record a call that failed or timed out
+     */
+    public synchronized void onFailure() {
+        State current = getState();
+        if (current == State.HALF_OPEN) {
+            open();
+        } else if (current == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures * 100 >= failureRate * calls) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Record a call that says nothing about the house, such as one that was never sent because the
+     * house had too much waiting. A trial call that ends this way lets another one through.
+     */
+    public synchronized void onIgnored() {
+        trialRunning = false;
+    }
+
+    /**
+     * Run an operation in a lane and record its outcome. The timeout starts when the operation
+     * starts to run, not when it is queued: an operation still waiting in the lane has not been
+     * sent, and how long a busy house keeps it waiting says nothing about whether the house
+     * answers. An answer closes the breaker, and a failure or an operation that runs longer than
+     * the timeout counts against it. An operation that never ran, because the lane was full or
+     * because it timed out or was cancelled while it waited, does not count and is never sent;
+     * neither does one the caller cancelled.
+     * @param lane the lane the operation waits in
+     * @param operation the operation
+     * @param priority where the operation waits in the lane
+     * @param timeout how long the operation may run
+     * @param unit the unit of the timeout
+     * @return completed with the result, or with a RejectedExecutionException if the lane is full
+     */
+    public <T> CompletableFuture<T> call(SerialExecutor lane, Supplier<T> operation, Priority priority,
+                                         long timeout, TimeUnit unit) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean started = new AtomicBoolean(false);
+        result.whenComplete((r, x) -> {
+            Throwable cause = x instanceof CompletionException ? x.getCause() : x;
+            if (cause == null) {
+                onSuccess();
+            } else if (!started.get() || cause instanceof CancellationException) {
+                onIgnored();
+            } else {
+                onFailure();
+            }
+        });
+        try {
+            lane.execute(() -> {
+                if (result.isDone()) {
+                    // nobody is waiting for it any more
+                    return;
+                }
+                started.set(true);
+                result.orTimeout(timeout, unit);
+                try {
+                    result.complete(operation.get());
+                } catch (RuntimeException x) {
+                    result.completeExceptionally(x);
+                }
+            }, priority);
+        } catch (RejectedExecutionException x) {
+            result.completeExceptionally(x);
+        }
+        return result;
+    }
+
+    /**
+     * Get the breaker state. An open breaker whose open time has passed is half-open.
+     * @return the state
+     */
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.millis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialRunning = false;
+        }
+        return state;
+    }
+
+    /**
+     * Tell whether calls fail fast, without asking for one
+     * @return true unless the breaker is closed
+     */
+    public boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    private void record(boolean failed) {
+        if (calls == window) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = failed;
+        if (failed) {
+            failures++;
+        }
+        next = (next + 1) % window;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.millis();
+        trialRunning = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        trialRunning = false;
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+}
@@ -0,0 +1,274 @@
+package tartan.smarthome.resources;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.schedule.ScheduleEngine;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The houses this server manages, by name. Houses can be added, removed and re-configured while
+ * the server runs; a removed house is shut down, which closes its connection and stops its
+ * threads and subscriptions. Lookups are constant time however many houses there are.
+ *
+ * A house is registered as soon as it is added and connected in the background, a few houses at a
+ * time, so that neither startup nor the admin API waits for the houses. A house that cannot be
+ * reached is tried again, backing off up to the configured maximum delay.
+ */
+public class HouseRegistry implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HouseRegistry.class);
+
+    // the delay before the first retry, in seconds; it doubles with every failed attempt
+    private static final long FIRST_RETRY_DELAY = 5;
+
+    /**
+     * Told when the set of houses changes
+     */
+    public interface Listener {
+        /**
+         * A house was added, or re-configured
+         * @param settings the house settings
+         */
+        default void added(TartanHomeSettings settings) {
+        }
+
+        /**
+         * A house was removed, or is about to be re-configured
+         * @param name the house name
+         */
+        default void removed(String name) {
+        }
+    }
+
+    // the connected houses and the settings they were created from
+    private final Map<String, TartanHomeService> services = new ConcurrentHashMap<>();
+    private final Map<String, TartanHomeSettings> settings = new ConcurrentHashMap<>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // what every house service is started with
+    private final ScheduleEngine scheduleEngine;
+    private final ShadowEvaluator.Factory shadowFactory;
+    private final StateEventBus eventBus;
+    private final Executor housePool;
+    private final int houseQueueLimit;
+    private final CircuitBreaker.Factory breakerFactory;
+
+    // connects the houses; its thread count bounds how many connect at once
+    private final ScheduledExecutorService connector;
+    private final long maxRetryDelay;
+
+    /**
+     * Create a new registry
+     * @param scheduleEngine the engine that runs the house schedules
+     * @param shadowFactory creates the shadow evaluator for each house, or null if shadow mode is off
+     * @param eventBus carries the published house states
+     * @param housePool runs the operations that talk to the houses; resized with the registry if it is a thread pool
+     * @param houseQueueLimit how many user operations may wait for a house before more are rejected
+     * @param breakerFactory creates the circuit breaker of each house, or null for the default breaker
+     * @param connector connects the houses in the background
+     * @param maxRetryDelay the longest wait between attempts to connect to a house, in seconds
+     */
+    public HouseRegistry(ScheduleEngine scheduleEngine, ShadowEvaluator.Factory shadowFactory,
+                         StateEventBus eventBus, Executor housePool,
+                         Integer houseQueueLimit, CircuitBreaker.Factory breakerFactory,
+                         ScheduledExecutorService connector, Integer maxRetryDelay) {
+        this.scheduleEngine = scheduleEngine;
+        this.shadowFactory = shadowFactory;
+        this.eventBus = eventBus;
+        this.housePool = housePool;
+        this.houseQueueLimit = houseQueueLimit;
+        this.breakerFactory = breakerFactory;
+        this.connector = connector;
+        this.maxRetryDelay = Math.max(FIRST_RETRY_DELAY, maxRetryDelay);
+    }
+
+    /**
+     * Add a listener
+     * @param listener told about every change from now on
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Add a house and start connecting to it. A house already registered under the same name is
+     * shut down first, so this also re-configures a house. Changes to the houses are made one at a
+     * time, so that two changes to the same house cannot both replace the old service and leave one
+     * of the new ones running unregistered.
+     * @param homeSettings the house settings
+     * @return true if the house is new, false if it replaced one
+     * @throws RuntimeException if the settings are not valid
+     */
+    public boolean put(TartanHomeSettings homeSettings) {
+        // bad settings fail here, before the house they would replace is touched
+        TartanHomeService service = new TartanHomeService();
+        service.initializeSettings(homeSettings);
+
+        synchronized (this) {
+            return register(service, homeSettings);
+        }
+    }
+
+    /**
+     * Replace the house of the same name, if any, by a new service
+     * @param service the new service, with its settings applied
+     * @param homeSettings the house settings
+     * @return true if the house is new, false if it replaced one
+     */
+    private boolean register(TartanHomeService service, TartanHomeSettings homeSettings) {
+        boolean replaced = remove(homeSettings.getName());
+        service.startSchedule(scheduleEngine);
+        service.startEvents(eventBus);
+        service.startOperations(housePool, houseQueueLimit);
+        if (breakerFactory != null) {
+            service.startBreaker(breakerFactory);
+        }
+        if (shadowFactory != null) {
+            service.startShadowEvaluation(shadowFactory);
+        }
+
+        settings.put(service.getName(), homeSettings);
+        TartanHomeService previous = services.put(service.getName(), service);
+        if (previous != null) {
+            // cannot happen while the changes hold the lock, but a service must never be dropped running
+            previous.shutdown();
+        }
+        resizePool();
+        for (Listener listener : listeners) {
+            listener.added(homeSettings);
+        }
+        connector.execute(() -> connect(service, 0));
+        return !replaced;
+    }
+
+    /**
+     * Try to connect to a house, and schedule the next try if that fails
+     * @param service the house
+     * @param attempt how many attempts failed before this one
+     */
+    private void connect(TartanHomeService service, int attempt) {
+        if (services.get(service.getName()) != service) {
+            // removed or replaced meanwhile
+            return;
+        }
+        try {
+            service.connect();
+        } catch (TartanHomeConnectException thce) {
+            long delay = Math.min(maxRetryDelay, FIRST_RETRY_DELAY << Math.min(attempt, 16));
+            LOGGER.error("Could not connect to house " + service.getName() + " @ " + service.getAddress()
+                    + "; trying again in " + delay + "s");
+            service.setStatus(TartanHomeService.RETRYING);
+            try {
+                connector.schedule(() -> connect(service, attempt + 1), delay, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException x) {
+                // the server is stopping
+            }
+            return;
+        }
+        if (services.get(service.getName()) != service) {
+            // removed while connecting, and the removal could not close a connection not made yet
+            service.shutdown();
+            return;
+        }
+        LOGGER.info("Connected to house " + service.getName() + " @ " + service.getAddress());
+        service.startHistorian();
+    }
+
+    /**
+     * Remove a house and shut it down
+     * @param name the house name
+     * @return true if the house was registered
+     */
+    public synchronized boolean remove(String name) {
+        TartanHomeService service = services.remove(name);
+        if (service == null) {
+            return false;
+        }
+        settings.remove(name);
+        for (Listener listener : listeners) {
+            listener.removed(name);
+        }
+        service.shutdown();
+        resizePool();
+        return true;
+    }
+
+    /**
+     * Fetch the service for a house
+     * @param name the house name
+     * @return the service, or null if there is no such house
+     */
+    public TartanHomeService get(String name) {
+        return name == null ? null : services.get(name);
+    }
+
+    /**
+     * Fetch the settings a house was created from
+     * @param name the house name
+     * @return the settings, or null if there is no such house
+     */
+    public TartanHomeSettings getSettings(String name) {
+        return name == null ? null : settings.get(name);
+    }
+
+    /**
+     * Get every house
+     * @return a live view of the house services
+     */
+    public Collection<TartanHomeService> getServices() {
+        return services.values();
+    }
+
+    /**
+     * Get the number of houses
+     * @return the house count
+     */
+    public int size() {
+        return services.size();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    /**
+     * Shut every house down when the server stops
+     */
+    @Override
+    public void stop() {
+        for (String name : services.keySet()) {
+            remove(name);
+        }
+    }
+
+    /**
+     * Keep one house thread per house, as the pool was sized at startup
+     */
+    private synchronized void resizePool() {
+        if (housePool instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) housePool;
+            int threads = Math.max(1, services.size());
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package tartan.smarthome.resources;
+
+import java.time.Clock;
+
+/**
+ * Per-house HVAC run-time tracking. Rather than flipping the heater or chiller every time the
+ * temperature crosses the target, the HVAC is only switched once the reading leaves a deadband
+ * around the target, and only after it has been in its current state for a minimum duration.
+ */
+public class HvacHysteresis {
+
+    // the clock used to measure run times
+    private final Clock clock;
+
+    // the last commanded heater and chiller states (null until the first evaluation)
+    private Boolean heaterOn = null;
+    private Boolean chillerOn = null;
+
+    // when the heater and chiller last changed state (0 if never switched)
+    private long heaterChangedAt = 0;
+    private long chillerChangedAt = 0;
+
+    /**
+     * Create a new run-time tracker using the system clock
+     */
+    public HvacHysteresis() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * Create a new run-time tracker
+     * @param clock the clock used to measure run times
+     */
+    public HvacHysteresis(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the clock run times are measured with
+     * @return the clock
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Create a tracker for another zone of the same house, sharing this tracker's clock
+     * @return the new tracker
+     */
+    public HvacHysteresis newTracker() {
+        return new HvacHysteresis(clock);
+    }
+
+    /**
+     * Decide whether the heater should run
+     * @param tempReading the current temperature
+     * @param targetTemp the target temperature
+     * @param reported the heater state reported by the house
+     * @param deadband how far (in degrees) the temperature may drift from the target before switching
+     * @param minOnTime the minimum heater run time, in seconds
+     * @param minOffTime the minimum heater rest time, in seconds
+     * @return true if the heater should be on, false otherwise
+     */
+    public boolean heaterDecision(int tempReading, int targetTemp, Boolean reported,
+                                  int deadband, int minOnTime, int minOffTime) {
+        boolean current = current(heaterOn, reported);
+        boolean wanted = current;
+        if (tempReading < targetTemp - deadband) {
+            wanted = true;
+        } else if (tempReading >= targetTemp + deadband) {
+            wanted = false;
+        }
+        return hold(current, wanted, heaterChangedAt, minOnTime, minOffTime);
+    }
+
+    /**
+     * Decide whether the chiller should run
+     * @param tempReading the current temperature
+     * @param targetTemp the target temperature
+     * @param reported the chiller state reported by the house
+     * @param deadband how far (in degrees) the temperature may drift from the target before switching
+     * @param minOnTime the minimum chiller run time, in seconds
+     * @param minOffTime the minimum chiller rest time, in seconds
+     * @return true if the chiller should be on, false otherwise
+     */
+    public boolean chillerDecision(int tempReading, int targetTemp, Boolean reported,
+                                   int deadband, int minOnTime, int minOffTime) {
+        boolean current = current(chillerOn, reported);
+        boolean wanted = current;
+        if (tempReading > targetTemp + deadband) {
+            wanted = true;
+        } else if (tempReading <= targetTemp - deadband) {
+            wanted = false;
+        }
+        return hold(current, wanted, chillerChangedAt, minOnTime, minOffTime);
+    }
+
+    /**
+     * Record the final HVAC states sent to the house. This must be called after the safety rules
+     * have been applied so that forced shutdowns are tracked as well.
+     * @param heater the final heater state
+     * @param chiller the final chiller state
+     */
+    public void commit(Boolean heater, Boolean chiller) {
+        long now = clock.millis();
+        if (heater != null) {
+            if (heaterOn != null && !heaterOn.equals(heater)) {
+                heaterChangedAt = now;
+            }
+            heaterOn = heater;
+        }
+        if (chiller != null) {
+            if (chillerOn != null && !chillerOn.equals(chiller)) {
+                chillerChangedAt = now;
+            }
+            chillerOn = chiller;
+        }
+    }
+
+    /**
+     * The state the device is considered to be in. Our own last command wins over the house
+     * report because the house may not have applied it yet.
+     */
+    private boolean current(Boolean commanded, Boolean reported) {
+        if (commanded != null) return commanded;
+        return reported != null && reported;
+    }
+
+    /**
+     * Keep the current state if the device has not been in it for the minimum duration
+     */
+    private boolean hold(boolean current, boolean wanted, long changedAt, int minOnTime, int minOffTime) {
+        if (current == wanted || changedAt == 0) {
+            return wanted;
+        }
+        long minimum = (current ? minOnTime : minOffTime) * 1000L;
+        if (clock.millis() - changedAt < minimum) {
+            return current;
+        }
+        return wanted;
+    }
+}
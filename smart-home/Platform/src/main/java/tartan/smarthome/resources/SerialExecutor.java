@@ -0,0 +1,113 @@
+package tartan.smarthome.resources;
+
+import tartan.smarthome.resources.iotcontroller.Priority;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the tasks given to it one at a time on a shared executor. Each house gets one, so that the
+ * operations on a house never run concurrently and a slow house holds up at most one thread of
+ * the shared executor.
+ *
+ * Tasks wait in priority lanes: the next task is the oldest one of the most urgent lane. The user
+ * and background lanes are bounded, and a task that finds its lane full is rejected rather than
+ * queued behind work that is already late; security tasks are always accepted.
+ */
+public class SerialExecutor implements Executor {
+
+    private final Executor executor;
+
+    // how many tasks may wait in the user and the background lane
+    private final int limit;
+
+    // the tasks waiting to run in each lane, and the task running now
+    private final Map<Priority, Queue<Runnable>> lanes = new EnumMap<>(Priority.class);
+    private Runnable active;
+
+    /**
+     * Create a new serial executor with unbounded lanes
+     * @param executor the shared executor the tasks run on
+     */
+    public SerialExecutor(Executor executor) {
+        this(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a new serial executor
+     * @param executor the shared executor the tasks run on
+     * @param limit how many tasks may wait in the user and the background lane
+     */
+    public SerialExecutor(Executor executor, int limit) {
+        this.executor = executor;
+        this.limit = limit;
+        for (Priority priority : Priority.values()) {
+            lanes.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Queue a user task
+     * @param task the task
+     */
+    @Override
+    public void execute(Runnable task) {
+        execute(task, Priority.USER);
+    }
+
+    /**
+     * Queue a task in a lane
+     * @param task the task
+     * @param priority the lane
+     * @throws RejectedExecutionException if the lane is full
+     */
+    public void execute(Runnable task, Priority priority) {
+        synchronized (lanes) {
+            Queue<Runnable> lane = lanes.get(priority);
+            if (priority != Priority.SECURITY && lane.size() >= limit) {
+                throw new RejectedExecutionException("The house is busy");
+            }
+            lane.add(() -> {
+                try {
+                    task.run();
+                } finally {
+                    next();
+                }
+            });
+            if (active == null) {
+                next();
+            }
+        }
+    }
+
+    /**
+     * Get the number of tasks waiting to run
+     * @return the queue length
+     */
+    public int getQueued() {
+        synchronized (lanes) {
+            int queued = 0;
+            for (Queue<Runnable> lane : lanes.values()) {
+                queued += lane.size();
+            }
+            return queued;
+        }
+    }
+
+    private void next() {
+        synchronized (lanes) {
+            active = null;
+            for (Queue<Runnable> lane : lanes.values()) {
+                active = lane.poll();
+                if (active != null) {
+                    executor.execute(active);
+                    return;
+                }
+            }
+        }
+    }
+}
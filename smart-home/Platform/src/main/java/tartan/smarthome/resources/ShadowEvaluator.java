@@ -0,0 +1,262 @@
+package tartan.smarthome.resources;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.resources.automation.AutomationStateEvaluator;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a second evaluator in shadow mode next to a house's primary evaluator. The shadow sees the
+ * same inputs as the primary, but runs on its own executor and its output is never sent to the
+ * house; it is only compared with the primary output. Divergences and the latency of both
+ * evaluators are recorded so a new evaluator can be shown to be equivalent and faster before it
+ * is switched in.
+ *
+ * Evaluators keep state from one evaluation to the next, so each house's comparisons run one at a
+ * time and in the order the primary ran, in a lane of their own on the shared executor. A house
+ * whose lane is full drops the comparison, and the drops are counted. The shadow runs later than
+ * the primary did, so it reads the time from a clock set to the time of the primary evaluation.
+ */
+public class ShadowEvaluator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShadowEvaluator.class);
+
+    // how many divergences are kept for inspection
+    private static final int MAX_RECENT_DIVERGENCES = 100;
+
+    // how many comparisons of a house may wait for the shadow
+    private static final int MAX_QUEUED = 16;
+
+    private final String house;
+    private final TartanStateEvaluator shadow;
+
+    // the clock the shadow reads, set to the time of each primary evaluation; null if the shadow
+    // reads the system clock
+    private final EvaluationClock clock;
+
+    // runs this house's comparisons in order
+    private final SerialExecutor lane;
+
+    // latency of each evaluator and the divergence/drop rates
+    private final Timer primaryLatency;
+    private final Timer shadowLatency;
+    private final Meter divergences;
+    private final Meter dropped;
+
+    private final Deque<String> recentDivergences = new ArrayDeque<>();
+
+    /**
+     * Create a shadow evaluation for a house
+     * @param house the house name
+     * @param primary the evaluator driving the house
+     * @param shadow the evaluator to compare against it
+     * @param executor the executor the shadow runs on, shared by the houses; it must not reject tasks
+     * @param metrics where latencies, divergences and dropped comparisons are recorded
+     */
+    public ShadowEvaluator(String house, TartanStateEvaluator primary, TartanStateEvaluator shadow,
+                           Executor executor, MetricRegistry metrics) {
+        this(house, primary, shadow, null, executor, metrics);
+    }
+
+    /**
+     * Create a shadow evaluation for a house whose shadow reads the time from a clock of its own
+     * @param house the house name
+     * @param primary the evaluator driving the house
+     * @param shadow the evaluator to compare against it
+     * @param clock the clock the shadow reads, or null if it reads the system clock
+     * @param executor the executor the shadow runs on, shared by the houses; it must not reject tasks
+     * @param metrics where latencies, divergences and dropped comparisons are recorded
+     */
+    public ShadowEvaluator(String house, TartanStateEvaluator primary, TartanStateEvaluator shadow,
+                           EvaluationClock clock, Executor executor, MetricRegistry metrics) {
+        this.house = house;
+        this.shadow = shadow;
+        this.clock = clock;
+        this.lane = new SerialExecutor(executor, MAX_QUEUED);
+        this.primaryLatency = metrics.timer(MetricRegistry.name(ShadowEvaluator.class, "primary",
+                primary.getClass().getSimpleName()));
+        this.shadowLatency = metrics.timer(MetricRegistry.name(ShadowEvaluator.class, "shadow",
+                shadow.getClass().getSimpleName()));
+        this.divergences = metrics.meter(MetricRegistry.name(ShadowEvaluator.class, "divergences"));
+        this.dropped = metrics.meter(MetricRegistry.name(ShadowEvaluator.class, "dropped"));
+    }
+
+    /**
+     * Record a primary evaluation and queue the shadow evaluation of the same input. This never
+     * blocks; if the house already has MAX_QUEUED comparisons waiting, this one is dropped.
+     * @param input a snapshot of the state the primary evaluated
+     * @param primaryOutput the primary result
+     * @param primaryNanos how long the primary took
+     * @param evaluatedAt when the primary ran, in milliseconds since the epoch
+     */
+    public void compare(Map<String, Object> input, Map<String, Object> primaryOutput, long primaryNanos,
+                        long evaluatedAt) {
+        primaryLatency.update(primaryNanos, TimeUnit.NANOSECONDS);
+        try {
+            lane.execute(() -> evaluate(input, primaryOutput, evaluatedAt));
+        } catch (RejectedExecutionException rx) {
+            dropped.mark();
+        }
+    }
+
+    /**
+     * Get the most recent divergences
+     * @return a description of each divergence, oldest first
+     */
+    public List<String> getRecentDivergences() {
+        synchronized (recentDivergences) {
+            return new ArrayList<>(recentDivergences);
+        }
+    }
+
+    private void evaluate(Map<String, Object> input, Map<String, Object> primaryOutput, long evaluatedAt) {
+        if (clock != null) {
+            // the lane runs one evaluation at a time, so nothing else reads the clock meanwhile
+            clock.set(evaluatedAt);
+        }
+        Map<String, Object> shadowOutput;
+        long start = System.nanoTime();
+        try {
+            shadowOutput = shadow.evaluateState(input, new StringBuffer());
+        } catch (RuntimeException x) {
+            record("shadow evaluator failed: " + x);
+            return;
+        } finally {
+            shadowLatency.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        Set<String> keys = new HashSet<>(primaryOutput.keySet());
+        keys.addAll(shadowOutput.keySet());
+        StringBuilder diff = new StringBuilder();
+        for (String key : keys) {
+            Object expected = primaryOutput.get(key);
+            Object actual = shadowOutput.get(key);
+            if (!Objects.equals(expected, actual)) {
+                diff.append(' ').append(key).append(": ").append(expected).append(" != ").append(actual);
+            }
+        }
+        if (diff.length() > 0) {
+            record(diff.toString().trim());
+        }
+    }
+
+    private void record(String divergence) {
+        divergences.mark();
+        LOGGER.warn("Shadow evaluator diverged for house " + house + ": " + divergence);
+        synchronized (recentDivergences) {
+            if (recentDivergences.size() == MAX_RECENT_DIVERGENCES) {
+                recentDivergences.removeFirst();
+            }
+            recentDivergences.addLast(divergence);
+        }
+    }
+
+    /**
+     * A clock that stands still at the time it was last set to, in the system time zone
+     */
+    public static class EvaluationClock extends Clock {
+        private volatile long millis = System.currentTimeMillis();
+
+        /**
+         * Set the time
+         * @param millis the time, in milliseconds since the epoch
+         */
+        public void set(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.systemDefault();
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return Clock.fixed(instant(), zone);
+        }
+    }
+
+    /**
+     * Creates the shadow evaluation for each house from the configured evaluator class
+     */
+    public static class Factory {
+        private final Class<? extends TartanStateEvaluator> evaluatorClass;
+        private final Executor executor;
+        private final MetricRegistry metrics;
+
+        /**
+         * Create a new factory
+         * @param evaluatorClass the fully qualified name of the shadow evaluator class
+         * @param executor the executor the shadows run on; it must not reject tasks
+         * @param metrics where latencies and divergences are recorded
+         */
+        public Factory(String evaluatorClass, Executor executor, MetricRegistry metrics) {
+            try {
+                this.evaluatorClass = Class.forName(evaluatorClass).asSubclass(TartanStateEvaluator.class);
+            } catch (ClassNotFoundException | ClassCastException x) {
+                throw new IllegalArgumentException("Invalid shadow evaluator: " + evaluatorClass, x);
+            }
+            this.executor = executor;
+            this.metrics = metrics;
+        }
+
+        /**
+         * Create the shadow evaluation for a house. Each house gets its own shadow evaluator
+         * instance, since evaluators may keep per-house state. A house with automations runs the
+         * same automation rules ahead of the shadow as ahead of the primary, so only the
+         * evaluators themselves are compared. An evaluator class with a Clock constructor reads
+         * the time of the primary evaluation from it.
+         * @param house the house name
+         * @param primary the evaluator driving the house
+         * @return the shadow evaluation
+         */
+        public ShadowEvaluator create(String house, TartanStateEvaluator primary) {
+            EvaluationClock clock = new EvaluationClock();
+            TartanStateEvaluator shadow;
+            try {
+                shadow = newEvaluator(clock);
+            } catch (ReflectiveOperationException x) {
+                throw new IllegalArgumentException("Cannot create shadow evaluator " + evaluatorClass.getName(), x);
+            }
+            if (primary instanceof AutomationStateEvaluator automations) {
+                shadow = automations.wrap(shadow, clock);
+            }
+            return new ShadowEvaluator(house, primary, shadow, clock, executor, metrics);
+        }
+
+        private TartanStateEvaluator newEvaluator(Clock clock) throws ReflectiveOperationException {
+            try {
+                return evaluatorClass.getConstructor(Clock.class).newInstance(clock);
+            } catch (NoSuchMethodException x) {
+                return evaluatorClass.getDeclaredConstructor().newInstance();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package tartan.smarthome.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.dropwizard.jackson.Jackson;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Variant;
+import java.util.List;
+
+/**
+ * The representations the state API serves. Browsers get HTML or JSON; machine clients may ask
+ * for Smile or CBOR, binary forms of the same documents that are smaller and cheaper to parse.
+ */
+public enum StateFormat {
+    HTML(MediaType.TEXT_HTML_TYPE, null),
+    JSON(MediaType.APPLICATION_JSON_TYPE, Jackson.newObjectMapper()),
+    SMILE(MediaType.valueOf(StateFormat.APPLICATION_SMILE), Jackson.newObjectMapper(new SmileFactory())),
+    CBOR(MediaType.valueOf(StateFormat.APPLICATION_CBOR), Jackson.newObjectMapper(new CBORFactory()));
+
+    // the binary media types, for use in annotations
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String APPLICATION_CBOR = "application/cbor";
+
+    // the representations of a house state, and of the documents only machines read, in order of preference
+    public static final List<Variant> STATE_VARIANTS = variants(HTML, JSON, SMILE, CBOR);
+    public static final List<Variant> DATA_VARIANTS = variants(JSON, SMILE, CBOR);
+
+    private final MediaType mediaType;
+    private final ObjectMapper mapper;
+
+    StateFormat(MediaType mediaType, ObjectMapper mapper) {
+        this.mediaType = mediaType;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Get the media type
+     * @return the media type
+     */
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Get the mapper that writes this format, configured as Jersey's JSON mapper is
+     * @return the mapper, or null for HTML
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Find the format of a negotiated variant
+     * @param variant the variant, or null if none was acceptable
+     * @param fallback the format to use without a variant
+     * @return the format
+     */
+    public static StateFormat of(Variant variant, StateFormat fallback) {
+        if (variant != null) {
+            for (StateFormat format : values()) {
+                if (format.mediaType.equals(variant.getMediaType())) {
+                    return format;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    private static List<Variant> variants(StateFormat... formats) {
+        MediaType[] types = new MediaType[formats.length];
+        for (int i = 0; i < formats.length; i++) {
+            types[i] = formats[i].mediaType;
+        }
+        return Variant.mediaTypes(types).build();
+    }
+}
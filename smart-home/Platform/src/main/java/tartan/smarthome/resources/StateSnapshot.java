@@ -0,0 +1,114 @@
+package tartan.smarthome.resources;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.views.SmartHomeView;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One version of a house state as served to clients. The converted home and its JSON and binary
+ * forms are built at most once per state version, so repeated reads of an unchanged house cost
+ * nothing but a version check.
+ */
+public class StateSnapshot {
+
+    // the same mapper configuration Jersey uses for the JSON responses
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    // marks a snapshot that was read directly from the house and is not cached
+    public static final long UNVERSIONED = -1;
+
+    private final long version;
+    private final TartanHome home;
+
+    // the serialized view and home, built on first use
+    private volatile byte[] json;
+    private volatile String homeJson;
+
+    // the view in the binary formats, by format, built on first use
+    private final AtomicReferenceArray<byte[]> encoded = new AtomicReferenceArray<>(StateFormat.values().length);
+
+    /**
+     * Create a new snapshot
+     * @param version the state version
+     * @param home the converted state
+     */
+    public StateSnapshot(long version, TartanHome home) {
+        this.version = version;
+        this.home = home;
+    }
+
+    /**
+     * Get the state version
+     * @return the version, or UNVERSIONED
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the converted state. It is shared by every reader of this version and must not be changed.
+     * @return the home
+     */
+    public TartanHome getHome() {
+        return home;
+    }
+
+    /**
+     * Get the JSON form of the house view
+     * @return the serialized view
+     */
+    public byte[] getJson() {
+        byte[] bytes = json;
+        if (bytes == null) {
+            try {
+                bytes = MAPPER.writeValueAsBytes(new SmartHomeView(home));
+            } catch (JsonProcessingException x) {
+                throw new IllegalStateException("Cannot serialize house " + home.getName(), x);
+            }
+            json = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the house view in a format other than HTML
+     * @param format JSON, SMILE or CBOR
+     * @return the serialized view
+     */
+    public byte[] getEncoded(StateFormat format) {
+        if (format == StateFormat.JSON) {
+            return getJson();
+        }
+        byte[] bytes = encoded.get(format.ordinal());
+        if (bytes == null) {
+            try {
+                bytes = format.getMapper().writeValueAsBytes(new SmartHomeView(home));
+            } catch (JsonProcessingException x) {
+                throw new IllegalStateException("Cannot serialize house " + home.getName(), x);
+            }
+            encoded.set(format.ordinal(), bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the JSON form of the home itself, without the view around it
+     * @return the serialized home
+     */
+    public String getHomeJson() {
+        String text = homeJson;
+        if (text == null) {
+            try {
+                text = MAPPER.writeValueAsString(home);
+            } catch (JsonProcessingException x) {
+                throw new IllegalStateException("Cannot serialize house " + home.getName(), x);
+            }
+            homeJson = text;
+        }
+        return text;
+    }
+}
@@ -2,15 +2,47 @@ package tartan.smarthome.resources;
 
 import java.sql.Date;
 import java.text.SimpleDateFormat;
+import java.time.Clock;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Arrays;
 import java.util.Set;
 import tartan.smarthome.resources.iotcontroller.IoTValues;
+import tartan.smarthome.resources.iotcontroller.ZoneState;
 
 public class StaticTartanStateEvaluator implements TartanStateEvaluator {
 
+    // HVAC run times for the house this evaluator belongs to
+    private final HvacHysteresis hvac;
+
+    // HVAC run times for each additional zone, indexed by zone
+    private HvacHysteresis[] zoneHvac = new HvacHysteresis[1];
+
+    /**
+     * Create a new evaluator with its own HVAC run-time tracking
+     */
+    public StaticTartanStateEvaluator() {
+        this(new HvacHysteresis());
+    }
+
+    /**
+     * Create a new evaluator with its own HVAC run-time tracking
+     * @param clock the clock the evaluator reads the time from
+     */
+    public StaticTartanStateEvaluator(Clock clock) {
+        this(new HvacHysteresis(clock));
+    }
+
+    /**
+     * Create a new evaluator
+     * @param hvac the HVAC run-time tracking for the house
+     */
+    public StaticTartanStateEvaluator(HvacHysteresis hvac) {
+        this.hvac = hvac;
+    }
+
     private String formatLogEntry(String entry) {
-        Long timeStamp = System.currentTimeMillis();
+        Long timeStamp = hvac.getClock().millis();
         SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
         return "[" + sdf.format(new Date(timeStamp)) + "]: " + entry + "\n";
     }
@@ -44,6 +76,11 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
         String alarmPassCode = null;
         String hvacSetting = null; // the HVAC mode setting, either Heater or Chiller
         String givenPassCode = "";
+        Integer hvacDeadband = 0; // degrees the temperature may drift from the target before the HVAC switches
+        Integer hvacMinOnTime = 0; // minimum HVAC run time in seconds
+        Integer hvacMinOffTime = 0; // minimum HVAC rest time in seconds
+        ZoneState zones = null; // the additional zones of a multi-zone house
+        int[] zoneTargets = null; // the target temperature of each additional zone, 0 if not set
 
         System.out.println("Evaluating new state statically");
 
@@ -81,9 +118,27 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
                 awayTimerState = (Boolean) inState.getOrDefault(key, false);
              } else if (key.equals(IoTValues.ALARM_ACTIVE)) {
                 alarmActiveState = (Boolean) inState.get(key);
+            } else if (key.equals(IoTValues.HVAC_DEADBAND)) {
+                hvacDeadband = (Integer) inState.get(key);
+            } else if (key.equals(IoTValues.HVAC_MIN_ON_TIME)) {
+                hvacMinOnTime = (Integer) inState.get(key);
+            } else if (key.equals(IoTValues.HVAC_MIN_OFF_TIME)) {
+                hvacMinOffTime = (Integer) inState.get(key);
+            } else if (key.equals(IoTValues.ZONES)) {
+                zones = (ZoneState) inState.get(key);
+            } else if (key.equals(IoTValues.ZONE_TARGET_TEMPS)) {
+                zoneTargets = (int[]) inState.get(key);
             }
         }
 
+        // In a multi-zone house the house is occupied if anybody is in any zone. The main zone
+        // sensor is reported back unchanged
+        Boolean mainProximityState = proximityState;
+        if (zones != null && zones.isAnyOccupied()) {
+            proximityState = true;
+        }
+        boolean awayTimerFired = awayTimerState;
+
         if (lightState == true) {
             // The light was activated
             if (!proximityState) {
@@ -202,11 +257,26 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
             log.append(formatLogEntry("Warning: Not enough information to evaluate alarm"));
         }
 
-       
-        // Is the heater needed?
-        if (tempReading < targetTempSetting) {
-            log.append(formatLogEntry("Turning on heater, target temperature = " + targetTempSetting
-                    + "F, current temperature = " + tempReading + "F"));
+
+        // Apply the same rules to each additional zone
+        ZoneState newZones = null;
+        if (zones != null) {
+            newZones = new ZoneState(zones);
+            if (evaluateZones(newZones, zoneTargets, targetTempSetting, proximityState, alarmState, awayTimerFired,
+                    hvacDeadband, hvacMinOnTime, hvacMinOffTime, log)) {
+                alarmActiveState = true;
+            }
+        }
+
+        // Is the heater needed? The heater only switches once the temperature leaves the deadband
+        // and it has been in its current state for the minimum run time
+        boolean heaterWanted = hvac.heaterDecision(tempReading, targetTempSetting, heaterOnState,
+                hvacDeadband, hvacMinOnTime, hvacMinOffTime);
+        if (heaterWanted) {
+            if (heaterOnState == null || !heaterOnState) {
+                log.append(formatLogEntry("Turning on heater, target temperature = " + targetTempSetting
+                        + "F, current temperature = " + tempReading + "F"));
+            }
             heaterOnState = true;
 
             // Heater already on
@@ -215,8 +285,10 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
             heaterOnState = false;
         }
 
-        if (tempReading > targetTempSetting) {
-            // Is the heater needed?
+        // Is the air conditioner needed?
+        boolean chillerWanted = hvac.chillerDecision(tempReading, targetTempSetting, chillerOnState,
+                hvacDeadband, hvacMinOnTime, hvacMinOffTime);
+        if (chillerWanted) {
             if (chillerOnState != null) {
                 if (!chillerOnState) {
                     log.append(formatLogEntry("Turning on air conditioner target temperature = " + targetTempSetting
@@ -264,11 +336,14 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
             humidifierState = false;
         }
 
+        // remember what the HVAC was told to do so run times can be enforced
+        hvac.commit(heaterOnState, chillerOnState);
+
         Map<String, Object> newState = new Hashtable<>();
         newState.put(IoTValues.DOOR_STATE, doorState);
         newState.put(IoTValues.AWAY_TIMER, awayTimerState);
         newState.put(IoTValues.LIGHT_STATE, lightState);
-        newState.put(IoTValues.PROXIMITY_STATE, proximityState);
+        newState.put(IoTValues.PROXIMITY_STATE, mainProximityState);
         newState.put(IoTValues.ALARM_STATE, alarmState);
         newState.put(IoTValues.HUMIDIFIER_STATE, humidifierState);
         newState.put(IoTValues.HEATER_STATE, heaterOnState);
@@ -277,7 +352,99 @@ public class StaticTartanStateEvaluator implements TartanStateEvaluator {
         newState.put(IoTValues.HVAC_MODE, hvacSetting);
         newState.put(IoTValues.ALARM_PASSCODE, alarmPassCode);
         newState.put(IoTValues.GIVEN_PASSCODE, givenPassCode);
+        if (newZones != null) {
+            newState.put(IoTValues.ZONES, newZones);
+        }
         
         return newState; 
     }
+
+    /**
+     * Apply the house rules to each additional zone of a multi-zone house. Lights and HVAC are
+     * controlled per zone, while doors and the alarm follow the occupancy of the whole house.
+     *
+     * @param zones the zone states, updated in place
+     * @param zoneTargets the zone target temperatures, or null
+     * @param houseTarget the house target temperature, used for zones without their own
+     * @param houseOccupied true if anybody is in any zone of the house
+     * @param alarmState true if the alarm is armed
+     * @param lockdown true if the away timer has fired
+     * @param deadband the HVAC deadband
+     * @param minOnTime the minimum HVAC run time
+     * @param minOffTime the minimum HVAC rest time
+     * @param log The log of state evaluations
+     * @return true if an open zone door means a break in
+     */
+    private boolean evaluateZones(ZoneState zones, int[] zoneTargets, Integer houseTarget, boolean houseOccupied,
+                                  boolean alarmState, boolean lockdown, int deadband, int minOnTime, int minOffTime,
+                                  StringBuffer log) {
+        boolean breakIn = false;
+        for (int zone = 1; zone <= zones.getZoneCount(); zone++) {
+            boolean zoneOccupied = zones.isKnown(zone, ZoneState.PROXIMITY) && zones.isOn(zone, ZoneState.PROXIMITY);
+
+            // lights may only be on in occupied zones
+            if (zones.isKnown(zone, ZoneState.LIGHT) && zones.isOn(zone, ZoneState.LIGHT) && (lockdown || !zoneOccupied)) {
+                zones.setDevice(zone, ZoneState.LIGHT, false);
+                log.append(formatLogEntry("Turned off light in zone " + zone + " because zone is empty"));
+            }
+
+            if (zones.isKnown(zone, ZoneState.DOOR) && zones.isOn(zone, ZoneState.DOOR)) {
+                if (!houseOccupied && alarmState) {
+                    log.append(formatLogEntry("Break in detected in zone " + zone + ": Activating alarm"));
+                    breakIn = true;
+                } else if (!houseOccupied || lockdown) {
+                    zones.setDevice(zone, ZoneState.DOOR, false);
+                    log.append(formatLogEntry("Closed door in zone " + zone + " because house vacant"));
+                }
+            }
+
+            if (!zones.hasReading(zone, ZoneState.TEMPERATURE) || houseTarget == null) {
+                continue;
+            }
+            int temperature = zones.getReading(zone, ZoneState.TEMPERATURE);
+            int target = houseTarget;
+            if (zoneTargets != null && zone < zoneTargets.length && zoneTargets[zone] > 0) {
+                target = zoneTargets[zone];
+            }
+
+            HvacHysteresis tracker = zoneTracker(zone);
+            boolean heaterOn = zones.isKnown(zone, ZoneState.HEATER) && zones.isOn(zone, ZoneState.HEATER);
+            boolean chillerOn = zones.isKnown(zone, ZoneState.CHILLER) && zones.isOn(zone, ZoneState.CHILLER);
+            boolean heater = tracker.heaterDecision(temperature, target, heaterOn, deadband, minOnTime, minOffTime);
+            boolean chiller = tracker.chillerDecision(temperature, target, chillerOn, deadband, minOnTime, minOffTime);
+            if (chiller) {
+                heater = false; // can't run heater when the A/C is on
+            }
+            if (heater && !heaterOn) {
+                log.append(formatLogEntry("Turning on heater in zone " + zone + ", target temperature = " + target
+                        + "F, current temperature = " + temperature + "F"));
+            }
+            if (chiller && !chillerOn) {
+                log.append(formatLogEntry("Turning on air conditioner in zone " + zone + ", target temperature = "
+                        + target + "F, current temperature = " + temperature + "F"));
+            }
+            zones.setDevice(zone, ZoneState.HEATER, heater);
+            zones.setDevice(zone, ZoneState.CHILLER, chiller);
+
+            // the dehumidifier only runs with the A/C
+            if (zones.isKnown(zone, ZoneState.HUMIDIFIER) && zones.isOn(zone, ZoneState.HUMIDIFIER) && !chiller) {
+                zones.setDevice(zone, ZoneState.HUMIDIFIER, false);
+            }
+            tracker.commit(heater, chiller);
+        }
+        return breakIn;
+    }
+
+    /**
+     * Get the HVAC run-time tracking for a zone
+     */
+    private HvacHysteresis zoneTracker(int zone) {
+        if (zone >= zoneHvac.length) {
+            zoneHvac = Arrays.copyOf(zoneHvac, zone + 1);
+        }
+        if (zoneHvac[zone] == null) {
+            zoneHvac[zone] = hvac.newTracker();
+        }
+        return zoneHvac[zone];
+    }
 }
\ No newline at end of file
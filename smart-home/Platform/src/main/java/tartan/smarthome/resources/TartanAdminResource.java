@@ -0,0 +1,116 @@
+package tartan.smarthome.resources;
+
+import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.auth.Auth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.auth.TartanUser;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manages the fleet of houses while the server runs. Only administrators may use it.
+ */
+@Path("/admin/houses")
+@Produces(MediaType.APPLICATION_JSON)
+public class TartanAdminResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TartanAdminResource.class);
+
+    // the houses
+    private final HouseRegistry registry;
+
+    /**
+     * Manage the houses of a registry
+     * @param registry the houses
+     */
+    public TartanAdminResource(HouseRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * List the houses via HTTP GET. Managed by Jersey
+     * @param user must be an administrator
+     * @return the name, address, groups, connection status, load and circuit breaker state of each house
+     */
+    @GET
+    @Timed
+    public Response houses(@Auth TartanUser user) {
+        if (!user.isAdmin()) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        List<Map<String, Object>> houses = new ArrayList<>(registry.size());
+        for (TartanHomeService service : registry.getServices()) {
+            Map<String, Object> house = new LinkedHashMap<>();
+            house.put("name", service.getName());
+            house.put("address", service.getAddress());
+            house.put("groups", service.getGroups());
+            house.put("connected", service.isConnected());
+            house.put("status", service.getStatus());
+            house.put("queued", service.getQueued());
+            house.put("shed", service.getShed());
+            house.put("circuit", service.getBreaker().getState());
+            houses.add(house);
+        }
+        return Response.ok(houses).build();
+    }
+
+    /**
+     * Add or re-configure a house via HTTP PUT. Managed by Jersey. A house that is re-configured
+     * is disconnected and connected again with the new settings. The house connects in the
+     * background; its status shows when it is connected.
+     * @param house the house name
+     * @param user must be an administrator
+     * @param settings the house settings, as in the configuration file
+     * @return CREATED for a new house, OK for a re-configured one, or BAD_REQUEST for bad settings
+     */
+    @PUT
+    @Path("/{house}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Timed
+    public Response put(@PathParam("house") String house, @Auth TartanUser user, TartanHomeSettings settings) {
+        if (!user.isAdmin()) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        if (settings == null || (settings.getName() != null && !settings.getName().equals(house))) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        settings.setName(house);
+        LOGGER.info("Configuring house " + house);
+
+        try {
+            boolean added = registry.put(settings);
+            return Response.status(added ? Response.Status.CREATED : Response.Status.OK).build();
+        } catch (RuntimeException x) {
+            LOGGER.error("Bad settings for house " + house, x);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+    }
+
+    /**
+     * Remove a house via HTTP DELETE. Managed by Jersey
+     * @param house the house name
+     * @param user must be an administrator
+     * @return NO_CONTENT, or NOT_FOUND if there is no such house
+     */
+    @DELETE
+    @Path("/{house}")
+    @Timed
+    public Response remove(@PathParam("house") String house, @Auth TartanUser user) {
+        if (!user.isAdmin()) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        LOGGER.info("Removing house " + house);
+        if (!registry.remove(house)) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.noContent().build();
+    }
+}
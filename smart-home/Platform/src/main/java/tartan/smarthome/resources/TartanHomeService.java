@@ -2,18 +2,49 @@ package tartan.smarthome.resources;
 
 import tartan.smarthome.resources.iotcontroller.IoTControlManager;
 import tartan.smarthome.resources.iotcontroller.IoTValues;
-import io.dropwizard.hibernate.UnitOfWork;
+import tartan.smarthome.resources.iotcontroller.Priority;
+import tartan.smarthome.resources.iotcontroller.ZoneState;
+import tartan.smarthome.resources.automation.AutomationRule;
+import tartan.smarthome.resources.automation.AutomationStateEvaluator;
+import tartan.smarthome.resources.events.StateEvent;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.schedule.ScheduleEngine;
+import tartan.smarthome.resources.schedule.ScheduleEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import tartan.smarthome.TartanAutomationSettings;
 import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.TartanScheduleSettings;
+import tartan.smarthome.core.ActiveState;
+import tartan.smarthome.core.ArmedState;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.HvacMode;
+import tartan.smarthome.core.Occupancy;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.ReadingText;
 import tartan.smarthome.core.TartanHome;
-import tartan.smarthome.core.TartanHomeData;
 import tartan.smarthome.core.TartanHomeValues;
-import tartan.smarthome.db.HomeDAO;
+import tartan.smarthome.core.TartanZone;
 
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /***
  * The service layer for the Tartan Home System. Additional inputs and control mechanisms should be accessed here.
@@ -21,8 +52,15 @@ import java.util.Set;
  */
 public class TartanHomeService {
 
-    // the controller for the house
+    // the connection status of a house
+    public static final String CONNECTING = "connecting";
+    public static final String CONNECTED = "connected";
+    public static final String RETRYING = "retrying";
+
+    // the controller for the house, and the lock its commands are made under; a lock rather than a
+    // monitor, since the commands wait on the house and must not pin a virtual thread's carrier
     private IoTControlManager controller;
+    private final ReentrantLock controllerLock = new ReentrantLock();
 
     // a logging system
     private static final Logger LOGGER = LoggerFactory.getLogger(TartanHomeService.class);
@@ -31,34 +69,62 @@ public class TartanHomeService {
     private String name;
     private String address;
     private Integer port;
-    private String alarmDelay;
+    private Integer alarmDelay;
     private String alarmPasscode;
-    private String targetTemp;
+    private Integer targetTemp;
     private String user;
     private String password;
+    private List<String> groups = new ArrayList<>();
+
+    // the target temperature of each additional zone, indexed by zone; 0 if not set
+    private int[] zoneTargetTemps = new int[0];
+
+    // the weekly schedule
+    private List<ScheduleEntry> schedule = new ArrayList<>();
+    private ZoneId timeZone = ZoneId.systemDefault();
 
     // status parameters
-    private HomeDAO homeDAO;
     private boolean authenticated;
+    private volatile String status = CONNECTING;
 
-    // historian parameters
-    private Boolean logHistory;
-    private int historyTimer = 60000;
+    // the last converted state, and a count of the changes to it that the controller does not publish
+    private volatile StateSnapshot snapshot;
+    private final AtomicLong localVersion = new AtomicLong();
 
-    /**
-     * Create a new Tartan Home Service
-     * @param dao handle to a database
-     */
-    public TartanHomeService(HomeDAO dao) {
-        this.homeDAO = dao;
-    }
+    // the state versions of this service count up from its epoch, the time it was created in
+    // 1024ths of a millisecond, so a house that is re-configured, or a server that restarts, never
+    // hands out a version it used before for a different state. Services created in the same
+    // millisecond get epochs 1024 apart. The versions stay below 2^53, so JavaScript clients read
+    // them exactly
+    private static final AtomicLong LAST_EPOCH = new AtomicLong();
+    private final long epoch = LAST_EPOCH.accumulateAndGet(System.currentTimeMillis() << 10,
+            (last, now) -> Math.max(now, last + 1024));
+
+    // long-poll requests waiting for a state version other than the one they have
+    private final Queue<StateWaiter> waiters = new ConcurrentLinkedQueue<>();
+
+    // runs the operations that talk to the house, one at a time, most urgent first
+    private SerialExecutor houseLane = new SerialExecutor(Runnable::run);
+
+    // fails the calls to the house fast while it is not answering, and how long a call may take
+    private CircuitBreaker breaker = new CircuitBreaker();
+    private long callTimeout = CircuitBreaker.Factory.DEFAULT_CALL_TIMEOUT;
+
+    // the bus the controller publishes to, and the long polls' subscription to it
+    private StateEventBus eventBus;
+    private Flow.Subscription longPolls;
+
+    // the engine running this house's schedule, if it has one
+    private ScheduleEngine scheduleEngine;
+
+    // whether the historian records this house
+    private volatile boolean logHistory = false;
 
     /**
      * Initialize the settings
      * @param settings the house settings
-     * @param historyTimer historian delay
      */
-    public void initializeSettings(TartanHomeSettings settings, Integer historyTimer) {
+    public void initializeSettings(TartanHomeSettings settings) {
 
         this.user = settings.getUser();
         this.password = settings.getPassword();
@@ -66,30 +132,184 @@ public class TartanHomeService {
         this.address = settings.getAddress();
         this.port = settings.getPort();
         this.authenticated = false;
+        if (settings.getGroups() != null) {
+            this.groups = new ArrayList<>(settings.getGroups());
+        }
 
         // User configuration
-        this.targetTemp = settings.getTargetTemp();
-        this.alarmDelay = settings.getAlarmDelay();
+        this.targetTemp = Integer.parseInt(settings.getTargetTemp());
+        this.alarmDelay = Integer.parseInt(settings.getAlarmDelay());
         this.alarmPasscode = settings.getAlarmPasscode();
 
-        this.historyTimer = historyTimer*1000;
-        this.logHistory = true;
+        if (settings.getSchedule() != null) {
+            for (TartanScheduleSettings entry : settings.getSchedule()) {
+                this.schedule.add(ScheduleEntry.fromSettings(entry));
+            }
+        }
+        if (settings.getTimeZone() != null) {
+            this.timeZone = ZoneId.of(settings.getTimeZone());
+        }
 
-        // Create and initialize the controller for this house
-        this.controller = new IoTControlManager(user, password, new StaticTartanStateEvaluator());
+        // Create and initialize the controller for this house. User automations run ahead of the
+        // house rules so they can never override them
+        TartanStateEvaluator evaluator = new StaticTartanStateEvaluator();
+        if (settings.getAutomations() != null && !settings.getAutomations().isEmpty()) {
+            List<AutomationRule> rules = new ArrayList<>();
+            for (TartanAutomationSettings automation : settings.getAutomations()) {
+                rules.add(AutomationRule.fromSettings(automation));
+            }
+            evaluator = new AutomationStateEvaluator(rules, evaluator);
+        }
+        this.controller = new IoTControlManager(user, password, evaluator);
+        controller.setPollListener(answered -> {
+            if (answered) {
+                breaker.onSuccess();
+            } else {
+                breaker.onFailure();
+            }
+        });
         
         TartanHome temp = new TartanHome();
         temp.setAlarmDelay(alarmDelay);
 
         Map<String, Object> userSettings = new Hashtable<String, Object>();
-        userSettings.put(IoTValues.ALARM_DELAY, Integer.parseInt(this.alarmDelay));
-        userSettings.put(IoTValues.TARGET_TEMP, Integer.parseInt(this.targetTemp));
+        userSettings.put(IoTValues.ALARM_DELAY, this.alarmDelay);
+        userSettings.put(IoTValues.TARGET_TEMP, this.targetTemp);
         userSettings.put(IoTValues.ALARM_PASSCODE, this.alarmPasscode);
+        userSettings.put(IoTValues.HVAC_DEADBAND, Integer.parseInt(settings.getHvacDeadband()));
+        userSettings.put(IoTValues.HVAC_MIN_ON_TIME, Integer.parseInt(settings.getHvacMinOnTime()));
+        userSettings.put(IoTValues.HVAC_MIN_OFF_TIME, Integer.parseInt(settings.getHvacMinOffTime()));
         controller.updateSettings(userSettings);
 
         LOGGER.info("House " + this.name + " configured");
     }
 
+    /**
+     * Hand the weekly schedule for this house to the shared schedule engine
+     * @param engine the schedule engine
+     */
+    public void startSchedule(ScheduleEngine engine) {
+        if (!schedule.isEmpty()) {
+            this.scheduleEngine = engine;
+            engine.register(name, timeZone, schedule, this::applySchedule);
+        }
+    }
+
+    /**
+     * Run a shadow evaluator next to this house's evaluator
+     * @param factory creates the shadow evaluator for this house
+     */
+    public void startShadowEvaluation(ShadowEvaluator.Factory factory) {
+        controller.setShadowEvaluator(factory.create(name, controller.getStateEvaluator()));
+        LOGGER.info("Shadow evaluation enabled for house " + this.name);
+    }
+
+    /**
+     * Apply a scheduled transition. The target temperature is a user setting; arming the alarm is
+     * a state change and goes through the house rules like any other update.
+     * @param entry the transition
+     */
+    public void applySchedule(ScheduleEntry entry) {
+        if (entry.getTargetTemp() != null) {
+            this.targetTemp = entry.getTargetTemp();
+            Map<String, Object> userSettings = new Hashtable<String, Object>();
+            userSettings.put(IoTValues.TARGET_TEMP, entry.getTargetTemp());
+            controller.updateSettings(userSettings);
+            localVersion.incrementAndGet();
+            notifyWaiters();
+        }
+        if (entry.getAlarmArmed() != null && controller.isConnected()) {
+            Map<String, Object> state = new Hashtable<String, Object>();
+            state.put(IoTValues.ALARM_STATE, entry.getAlarmArmed());
+            controllerLock.lock();
+            try {
+                controller.processStateUpdate(state, Priority.SECURITY);
+            } finally {
+                controllerLock.unlock();
+            }
+        }
+        LOGGER.info("Applied scheduled settings to house " + this.name);
+    }
+
+    /**
+     * Run the operations that talk to the house on a shared pool rather than on the caller's thread
+     * @param pool the shared pool of house threads
+     * @param queueLimit how many user operations may wait for the house before more are rejected
+     */
+    public void startOperations(Executor pool, int queueLimit) {
+        this.houseLane = new SerialExecutor(pool, queueLimit);
+    }
+
+    /**
+     * Guard the calls to the house with a circuit breaker made to the given settings
+     * @param factory creates the breaker
+     */
+    public void startBreaker(CircuitBreaker.Factory factory) {
+        this.breaker = factory.create();
+        this.callTimeout = factory.getCallTimeout();
+    }
+
+    /**
+     * Get the circuit breaker of the house
+     * @return the breaker
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Tell whether the state served for the house may be out of date, because the house has
+     * stopped answering and its breaker is not closed
+     * @return true if the state is stale
+     */
+    public boolean isStale() {
+        return breaker.isOpen();
+    }
+
+    /**
+     * Get the number of operations waiting for the house
+     * @return the queue length
+     */
+    public int getQueued() {
+        return houseLane.getQueued();
+    }
+
+    /**
+     * Get the number of background exchanges with the house that were shed for more urgent ones
+     * @return the shed count
+     */
+    public long getShed() {
+        return controller.getAdmission().getShed(Priority.BACKGROUND);
+    }
+
+    /**
+     * Publish the house states to the event bus, and follow them to release long polls
+     * @param bus the event bus
+     */
+    public void startEvents(StateEventBus bus) {
+        this.eventBus = bus;
+        controller.publishTo(bus, name);
+        longPolls = bus.subscribe(name, StateEventBus.LONG_POLL, event -> notifyWaiters());
+    }
+
+    /**
+     * Stop everything this service started: its history, the schedule, the event subscriptions
+     * and the controller's connection and threads. The service cannot be used afterwards.
+     */
+    public void shutdown() {
+        stopHistorian();
+        if (longPolls != null) {
+            longPolls.cancel();
+            longPolls = null;
+        }
+        if (scheduleEngine != null) {
+            scheduleEngine.unregister(name);
+            scheduleEngine = null;
+        }
+        controller.disconnectFromHouse();
+        LOGGER.info("House " + this.name + " shut down");
+    }
+
     /**
      * Stop logging history
      */
@@ -98,38 +318,23 @@ public class TartanHomeService {
     }
 
     /**
-     * Start a thread to log house history on a delay
+     * Start logging history. The historian samples the published state of every house that is
+     * logging on its own schedule
      */
     public void startHistorian() {
-
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (logHistory) {
-                    try {
-                        TartanHome state = getState();
-                        if (state != null) {
-                            TartanHomeData home = new TartanHomeData(state);
-                            LOGGER.info("Logging " + name + "@" + address + " state");
-                            logHistory(home);
-                        }
-
-                        Thread.sleep(historyTimer);
-                    } catch (Exception x) {
-                        LOGGER.error("Failed to save " + name + "@" + address + " state");
-                    }
-                }
-            }
-        }).start();
+        this.logHistory = true;
     }
 
     /**
-     * Save the current state of the house
-     * @param tartanHomeData the current state in a Hibernate-aware format
+     * Get the state the historian records. This is the state the controller last published, so
+     * sampling it never calls the house
+     * @return the state, or null if history is stopped, nothing was published yet or the house is not answering
      */
-    @UnitOfWork
-    private void logHistory(TartanHomeData tartanHomeData) {
-        homeDAO.create(tartanHomeData);
+    public StateSnapshot getHistorySnapshot() {
+        if (!logHistory || breaker.isOpen() || getStateVersion() == StateSnapshot.UNVERSIONED) {
+            return null;
+        }
+        return getStateSnapshot();
     }
 
     /**
@@ -140,8 +345,30 @@ public class TartanHomeService {
         return name;
     }
 
+    /**
+     * Get the groups this house belongs to
+     * @return the group names
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Get the age of the published state
+     * @return milliseconds since the controller last published a state, or -1 if it never has
+     */
+    public long getStateAge() {
+        long publishedAt = controller.getPublishedAt();
+        return publishedAt == 0 ? -1 : System.currentTimeMillis() - publishedAt;
+    }
+
     public Boolean authenticate(String user, String pass) {
-        this.authenticated = (this.user.equals(user) && this.password.equals(pass));
+        boolean authenticated = (this.user.equals(user) && this.password.equals(pass));
+        if (authenticated != this.authenticated) {
+            this.authenticated = authenticated;
+            localVersion.incrementAndGet();
+            notifyWaiters();
+        }
         return this.authenticated;
     }
 
@@ -153,6 +380,22 @@ public class TartanHomeService {
         return address;
     }
 
+    /**
+     * Get the connection status
+     * @return CONNECTED, or CONNECTING while the first attempt runs, or RETRYING while waiting for the next one
+     */
+    public String getStatus() {
+        return controller.isConnected() ? CONNECTED : status;
+    }
+
+    /**
+     * Set the connection status while the house is not connected
+     * @param status CONNECTING or RETRYING
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
     /**
      *  Get the house conncected state
      * @return true if connected; false otherwise
@@ -167,9 +410,7 @@ public class TartanHomeService {
      *  @return true if on; false if off; otherwise null
      */
     private Boolean toIoTHumdifierState(TartanHome tartanHome) {
-        if (tartanHome.getHumidifier().equals(TartanHomeValues.OFF)) return false;
-        else if (tartanHome.getHumidifier().equals(TartanHomeValues.ON)) return true;
-        return null;
+        return toIoTPower(tartanHome.getHumidifier());
     }
 
     /**
@@ -178,29 +419,33 @@ public class TartanHomeService {
      * @return true if on; false if off; otherwise null
      */
     private Boolean toIoTLightState(TartanHome tartanHome) {
-        if (tartanHome.getLight().equals(TartanHomeValues.OFF)) return false;
-        else if (tartanHome.getLight().equals(TartanHomeValues.ON)) return true;
-        return null;
+        return toIoTPower(tartanHome.getLight());
     }
 
     /**
-     * Convert alarm armed state
-     * @param tartanHome the home
-     * @return true if armed; false if disarmed; otherwise null
+     * Convert an on/off state
+     * @param power the state
+     * @return true if on; false if off; otherwise null
      */
-    private Boolean toIoTAlarmArmedState(TartanHome tartanHome) {
-        if (tartanHome.getAlarmArmed().equals(TartanHomeValues.DISARMED)) return false;
-        else if (tartanHome.getAlarmArmed().equals(TartanHomeValues.ARMED)) return true;
-        return null;
+    private static Boolean toIoTPower(Power power) {
+        switch (power) {
+            case ON: return true;
+            case OFF: return false;
+            default: return null;
+        }
     }
 
     /**
-     * Convert alarm delay
+     * Convert alarm armed state
      * @param tartanHome the home
-     * @return the converted delay
+     * @return true if armed; false if disarmed; otherwise null
      */
-    private Integer toIoTAlarmDelay(TartanHome tartanHome) {
-        return Integer.parseInt(tartanHome.getAlarmDelay());
+    private Boolean toIoTAlarmArmedState(TartanHome tartanHome) {
+        switch (tartanHome.getAlarmArmed()) {
+            case ARMED: return true;
+            case DISARMED: return false;
+            default: return null;
+        }
     }
 
     /**
@@ -218,9 +463,11 @@ public class TartanHomeService {
      * @return true if open; false if closed' otherwise null
      */
     private Boolean toIoTDoorState(TartanHome tartanHome) {
-        if (tartanHome.getDoor().equals(TartanHomeValues.CLOSED)) return false;
-        else if (tartanHome.getDoor().equals(TartanHomeValues.OPEN)) return true;
-        return null;
+        switch (tartanHome.getDoor()) {
+            case OPEN: return true;
+            case CLOSED: return false;
+            default: return null;
+        }
     }
 
     /**
@@ -229,9 +476,11 @@ public class TartanHomeService {
      * @return true if occupied; false if empty; otherwise null
      */
     private Boolean toIoTProximityState(TartanHome tartanHome) {
-        if (tartanHome.getProximity().equals(TartanHomeValues.OCCUPIED)) return true;
-        else if (tartanHome.getProximity().equals(TartanHomeValues.EMPTY)) return false;
-        return null;
+        switch (tartanHome.getProximity()) {
+            case OCCUPIED: return true;
+            case EMPTY: return false;
+            default: return null;
+        }
     }
 
     /**
@@ -240,9 +489,11 @@ public class TartanHomeService {
      * @return true if active; false if inactive; otherwise null
      */
     private Boolean toIoTAlarmActiveState(TartanHome tartanHome) {
-        if (tartanHome.getAlarmActive().equals(TartanHomeValues.ACTIVE)) return true;
-        else if (tartanHome.getAlarmActive().equals(TartanHomeValues.INACTIVE)) return false;
-        return null;
+        switch (tartanHome.getAlarmActive()) {
+            case ACTIVE: return true;
+            case INACTIVE: return false;
+            default: return null;
+        }
     }
 
     /**
@@ -251,14 +502,7 @@ public class TartanHomeService {
      * @return true if on; false if off; otherwise null
      */
     private Boolean toIoTHeaterState(TartanHome tartanHome) {
-        if (tartanHome.getHvacMode().equals(TartanHomeValues.HEAT)) {
-            if (tartanHome.getHvacState().equals(TartanHomeValues.ON)) {
-                return true;
-            } else if (tartanHome.getHvacState().equals(TartanHomeValues.OFF)) {
-                return false;
-            }
-        }
-        return null;
+        return tartanHome.getHvacMode() == HvacMode.HEAT ? toIoTPower(tartanHome.getHvacState()) : null;
     }
 
     /**
@@ -267,34 +511,75 @@ public class TartanHomeService {
      * @return true if on; false if off; otherwise null
      */
     private Boolean toIoTChillerState(TartanHome tartanHome) {
-        if (tartanHome.getHvacMode().equals(TartanHomeValues.COOL)) {
-            if (tartanHome.getHvacState().equals(TartanHomeValues.ON)) {
-                return true;
-            } else if (tartanHome.getHvacState().equals(TartanHomeValues.OFF)) {
-                return false;
-            }
-        }
-        return null;
+        return tartanHome.getHvacMode() == HvacMode.COOL ? toIoTPower(tartanHome.getHvacState()) : null;
     }
 
     /**
-     * Convert target temperature state
+     * Convert HVAC mode state
      * @param tartanHome the home
-     * @return converted target temperature
+     * @return Heater, Chiller; or null
      */
-    private Integer toIoTTargetTempState(TartanHome tartanHome) {
-        return Integer.parseInt(tartanHome.getTargetTemp());
+    private String toIoTHvacModeState(TartanHome tartanHome) {
+        switch (tartanHome.getHvacMode()) {
+            case HEAT: return "Heater";
+            case COOL: return "Chiller";
+            default: return null;
+        }
     }
 
     /**
-     * Convert HVAC mode state
-     * @param tartanHome the home
-     * @return Heater, Chiller; or null
+     * Tell whether a reading sent by a client is a value, rather than the unknown placeholder
+     * @param reading the reading
+     * @return true if it can be sent to the house
      */
-    private String toIoTHvacModeState(TartanHome tartanHome) {
-        if (tartanHome.getHvacMode().equals(TartanHomeValues.HEAT)) return "Heater";
-        else if (tartanHome.getHvacMode().equals(TartanHomeValues.COOL)) return "Chiller";
-        return null;
+    private static boolean isKnown(Integer reading) {
+        return reading != null && reading != TartanHomeValues.UNKNOWN_READING;
+    }
+
+    /**
+     * Check the zones of an update against the zones the house reported. A zone must be a number
+     * from 1 to the zone count, and a zone target temperature a number. The zone count comes from
+     * the published state, or the last snapshot, so the check never calls the house; until the
+     * house has reported a state, updates with zones are refused
+     * @param h the update
+     * @return true if every zone can be sent to the house
+     */
+    public boolean hasValidZones(TartanHome h) {
+        if (h.getZones() == null) {
+            return true;
+        }
+        int zoneCount = getReportedZoneCount();
+        for (TartanZone tartanZone : h.getZones()) {
+            try {
+                int zone = Integer.parseInt(String.valueOf(tartanZone.getZone()));
+                if (zone < 1 || zone > zoneCount) {
+                    return false;
+                }
+                if (tartanZone.getTargetTemp() != null) {
+                    Integer.parseInt(tartanZone.getTargetTemp());
+                }
+            } catch (NumberFormatException x) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of zones the house last reported, without calling the house
+     * @return the zone count, 0 for a house without zones, or 0 if it has not reported a state yet
+     */
+    private int getReportedZoneCount() {
+        Map<String, Object> state = controller.getPublishedState();
+        if (state != null) {
+            Object zones = state.get(IoTValues.ZONES);
+            return zones instanceof ZoneState ? ((ZoneState) zones).getZoneCount() : 0;
+        }
+        StateSnapshot last = this.snapshot;
+        if (last != null && last.getHome().getZones() != null) {
+            return last.getHome().getZones().size();
+        }
+        return 0;
     }
 
     /**
@@ -303,20 +588,29 @@ public class TartanHomeService {
      * @return true
      */
     public Boolean setState(TartanHome h) {
-        synchronized (controller) {
+        controllerLock.lock();
+        try {
                         
             Map<String, Object> userSettings = new Hashtable<String, Object>();
-            if (h.getAlarmDelay()!=null) {
+            if (isKnown(h.getAlarmDelay())) {
                 this.alarmDelay = h.getAlarmDelay();
-                userSettings.put(IoTValues.ALARM_DELAY, Integer.parseInt(this.alarmDelay)); 
+                userSettings.put(IoTValues.ALARM_DELAY, this.alarmDelay); 
 
             }
-            if (h.getTargetTemp()!=null) {
+            if (isKnown(h.getTargetTemp())) {
                 this.targetTemp = h.getTargetTemp();
-                userSettings.put(IoTValues.TARGET_TEMP, Integer.parseInt(this.targetTemp)); 
+                userSettings.put(IoTValues.TARGET_TEMP, this.targetTemp); 
             }           
+            if (h.getZones()!=null) {
+                int[] zoneTargets = toIoTZoneTargetTemps(h);
+                if (zoneTargets != null) {
+                    userSettings.put(IoTValues.ZONE_TARGET_TEMPS, zoneTargets);
+                }
+            }
             controller.updateSettings(userSettings);  
             controller.processStateUpdate(toIotState(h));  
+        } finally {
+            controllerLock.unlock();
         }
         return true;
     }
@@ -326,6 +620,212 @@ public class TartanHomeService {
      * @return the current state
      */
     public TartanHome getState() {
+        return getStateSnapshot().getHome();
+    }
+
+    /**
+     * Get the version of the house state. It changes whenever the controller publishes a new state
+     * or a setting shown in the state changes, and counts up from the epoch of this service. This
+     * does not contact the house.
+     * @return the state version, or UNVERSIONED if there is no published state to version
+     */
+    public long getStateVersion() {
+        return versionOf(controller.getPublished(), localVersion.get());
+    }
+
+    /**
+     * Version a published state
+     * @param published the last published state, or null if there is none
+     * @param local the count of the changes the controller does not publish
+     * @return the state version, or UNVERSIONED if there is no published state to version
+     */
+    private long versionOf(StateEvent published, long local) {
+        if (published == null || !controller.isConnected()) {
+            return StateSnapshot.UNVERSIONED;
+        }
+        return epoch + published.getVersion() + local;
+    }
+
+    /**
+     * Get the epoch the state versions of this service count up from
+     * @return the epoch
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Wait for the house state to change. The callback runs once, as soon as the state version
+     * differs from the given one; that may be right away, on the calling thread, or later, on the
+     * thread that published the new state, so it must not block.
+     * @param since the state version the caller has
+     * @param callback called when the state version changes
+     * @return cancels the wait
+     */
+    public Runnable awaitStateChange(long since, Runnable callback) {
+        StateWaiter waiter = new StateWaiter(since, callback);
+        waiters.add(waiter);
+        // the state may have changed before the waiter was added
+        notifyWaiters();
+        return () -> waiters.remove(waiter);
+    }
+
+    /**
+     * Release the waiters whose state version is out of date
+     */
+    private void notifyWaiters() {
+        long version = getStateVersion();
+        if (version == StateSnapshot.UNVERSIONED) {
+            return;
+        }
+        Iterator<StateWaiter> it = waiters.iterator();
+        while (it.hasNext()) {
+            StateWaiter waiter = it.next();
+            if (waiter.since != version && waiter.fired.compareAndSet(false, true)) {
+                it.remove();
+                waiter.callback.run();
+            }
+        }
+    }
+
+    /**
+     * A request waiting for a newer state
+     */
+    private static class StateWaiter {
+        final long since;
+        final Runnable callback;
+        final AtomicBoolean fired = new AtomicBoolean(false);
+
+        StateWaiter(long since, Runnable callback) {
+            this.since = since;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * Fetch the current state of the house without waiting for it. A published state is converted
+     * on the calling thread; a state that must be read from the house is read on the house thread.
+     * While the breaker refuses calls, the last known state is returned instead; see isStale.
+     * @return the current state and its version, or an IllegalStateException if the house does not answer
+     */
+    public CompletableFuture<StateSnapshot> getStateSnapshotAsync() {
+        if (getStateVersion() != StateSnapshot.UNVERSIONED) {
+            return CompletableFuture.completedFuture(getStateSnapshot());
+        }
+        StateSnapshot last = this.snapshot;
+        if (last != null && breaker.isOpen()) {
+            return CompletableFuture.completedFuture(last);
+        }
+        return call(() -> {
+            Map<String, Object> state = readState();
+            if (state == null) {
+                throw new IllegalStateException("The house did not answer");
+            }
+            return new StateSnapshot(StateSnapshot.UNVERSIONED, toTartanHome(state));
+        }, Priority.USER);
+    }
+
+    /**
+     * Set the house state without waiting for the house
+     * @param h the new state
+     * @return completed with true once the house has been updated
+     */
+    public CompletableFuture<Boolean> setStateAsync(TartanHome h) {
+        return call(() -> setState(h), priorityOf(h));
+    }
+
+    /**
+     * Call the house through its breaker. The call timeout starts when the operation starts to
+     * run; see CircuitBreaker.call for which outcomes count against the breaker.
+     * @param operation the operation
+     * @param priority the lane it waits in
+     * @return completed with the result, or with a RejectedExecutionException if the breaker is open or the lane is full
+     */
+    private <T> CompletableFuture<T> call(Supplier<T> operation, Priority priority) {
+        if (!breaker.allowRequest()) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("House " + name + " is not answering"));
+        }
+        return breaker.call(houseLane, operation, priority, callTimeout, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Decide the lane of an update: entering a passcode, or changing the alarm or the door, is a
+     * security command and goes ahead of everything else waiting for the house
+     * @param h the new state
+     * @return SECURITY or USER
+     */
+    private Priority priorityOf(TartanHome h) {
+        if (h.getAlarmPasscode() != null) {
+            return Priority.SECURITY;
+        }
+        StateSnapshot current = this.snapshot;
+        TartanHome home = current == null ? new TartanHome() : current.getHome();
+        if (changes(h.getAlarmArmed(), home.getAlarmArmed()) || changes(h.getAlarmActive(), home.getAlarmActive())
+                || changes(h.getDoor(), home.getDoor())) {
+            return Priority.SECURITY;
+        }
+        return Priority.USER;
+    }
+
+    private static boolean changes(Enum<?> update, Enum<?> current) {
+        return update != null && update != current;
+    }
+
+    /**
+     * Fetch the current state of the house. The state is converted once per state version and
+     * then shared by every reader until the controller publishes a new state.
+     * @return the current state and its version
+     */
+    public StateSnapshot getStateSnapshot() {
+        // the state and its version come from the same event, so a publish in between cannot
+        // label one state with the version of another
+        StateEvent published = controller.getPublished();
+        long local = localVersion.get();
+        long version = versionOf(published, local);
+        StateSnapshot cached = this.snapshot;
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+
+        if (version == StateSnapshot.UNVERSIONED) {
+            // nothing has been published yet, so ask the house directly
+            return new StateSnapshot(StateSnapshot.UNVERSIONED, toTartanHome(readState()));
+        }
+
+        TartanHome home = toTartanHome(published.getState());
+        if (localVersion.get() != local) {
+            // a setting changed while converting, so the home may not be the state of this version
+            return new StateSnapshot(StateSnapshot.UNVERSIONED, home);
+        }
+        StateSnapshot fresh = new StateSnapshot(version, home);
+        this.snapshot = fresh;
+        return fresh;
+    }
+
+    /**
+     * Read the state from the house itself
+     * @return the controller state, or null if the house did not answer
+     */
+    private Map<String, Object> readState() {
+        controllerLock.lock();
+        try {
+            Map<String, Object> state = controller.getCurrentState();
+            for (String l : controller.getLogMessages()) {
+                LOGGER.info(l);
+            }
+            return state;
+        } finally {
+            controllerLock.unlock();
+        }
+    }
+
+    /**
+     * Convert a controller state to the house model
+     * @param state the controller state, or null if there is none
+     * @return the house model
+     */
+    private TartanHome toTartanHome(Map<String, Object> state) {
 
         TartanHome tartanHome = new TartanHome();
 
@@ -335,113 +835,182 @@ public class TartanHomeService {
         tartanHome.setTargetTemp(this.targetTemp);
         tartanHome.setAlarmDelay(this.alarmDelay);
 
-        tartanHome.setEventLog(controller.getLogMessages());
-        tartanHome.setAuthenticated(String.valueOf(this.authenticated));
+        // copy the log, the controller keeps appending to it
+        tartanHome.setEventLog(new ArrayList<>(controller.getLogMessages()));
+        tartanHome.setAuthenticated(this.authenticated);
 
-        Map<String, Object> state = null;
-        synchronized (controller) {
-            state = controller.getCurrentState();            
-            for (String l : controller.getLogMessages()) {
-                LOGGER.info(l);
-            }
-        }
         if (state == null) {
             LOGGER.info("zUsing default state");
             // There is no state, but something must be returned.
 
-            tartanHome.setTemperature(TartanHomeValues.UNKNOWN);
-            tartanHome.setHumidity(TartanHomeValues.UNKNOWN);
-            tartanHome.setTargetTemp(TartanHomeValues.UNKNOWN);
-            tartanHome.setHumidifier(TartanHomeValues.UNKNOWN);
-            tartanHome.setDoor(TartanHomeValues.UNKNOWN);
-            tartanHome.setLight(TartanHomeValues.UNKNOWN);
-            tartanHome.setProximity(TartanHomeValues.UNKNOWN);
-            tartanHome.setAlarmArmed(TartanHomeValues.UNKNOWN);
-            tartanHome.setAlarmActive(TartanHomeValues.UNKNOWN);
-            tartanHome.setHvacMode(TartanHomeValues.UNKNOWN);
-            tartanHome.setHvacState(TartanHomeValues.UNKNOWN);
+            tartanHome.setTemperature(TartanHomeValues.UNKNOWN_READING);
+            tartanHome.setHumidity(TartanHomeValues.UNKNOWN_READING);
+            tartanHome.setTargetTemp(TartanHomeValues.UNKNOWN_READING);
+            tartanHome.setHumidifier(Power.UNKNOWN);
+            tartanHome.setDoor(DoorState.UNKNOWN);
+            tartanHome.setLight(Power.UNKNOWN);
+            tartanHome.setProximity(Occupancy.UNKNOWN);
+            tartanHome.setAlarmArmed(ArmedState.UNKNOWN);
+            tartanHome.setAlarmActive(ActiveState.UNKNOWN);
+            tartanHome.setHvacMode(HvacMode.UNKNOWN);
+            tartanHome.setHvacState(Power.UNKNOWN);
 
             return tartanHome;
         }
 
         // A valid state was found, so use it
 
-        Set<String> keys = state.keySet();
-        for (String key : keys) {
-            LOGGER.info("State element: " + key + "=" + state.get(key));
-            if (key.equals(IoTValues.TEMP_READING)) {
-                tartanHome.setTemperature(String.valueOf(state.get(key)));
-            } else if (key.equals(IoTValues.HUMIDITY_READING)) {
-                tartanHome.setHumidity(String.valueOf(state.get(key)));
-            }
-            else if (key.equals(IoTValues.TARGET_TEMP)) {
-                tartanHome.setTargetTemp(String.valueOf(state.get(key)));
-            }
-            else if (key.equals(IoTValues.HUMIDIFIER_STATE)) {
-                Boolean humidifierState = (Boolean)state.get(key);
-                if (humidifierState) {
-                    tartanHome.setHumidifier(String.valueOf(TartanHomeValues.ON));
-                } else {
-                    tartanHome.setHumidifier(String.valueOf(TartanHomeValues.OFF));
-                }
-            } else if (key.equals(IoTValues.DOOR_STATE)) {
-                Boolean doorState = (Boolean)state.get(key);
-                if (doorState) {
-                    tartanHome.setDoor(TartanHomeValues.OPEN);
-                } else {
-                    tartanHome.setDoor(TartanHomeValues.CLOSED);
-                }
-            } else if (key.equals(IoTValues.LIGHT_STATE)) {
-                Boolean lightState = (Boolean)state.get(key);
-                if (lightState) {
-                    tartanHome.setLight(TartanHomeValues.ON);
-                } else {
-                    tartanHome.setLight(TartanHomeValues.OFF);
-                }
-            } else if (key.equals(IoTValues.PROXIMITY_STATE)) {
-                Boolean proxState = (Boolean)state.get(key);
-                if (proxState) {
-                    tartanHome.setProximity(TartanHomeValues.OCCUPIED);
-                } else {
-                    tartanHome.setProximity(TartanHomeValues.EMPTY);
-                }
-            } else if (key.equals(IoTValues.ALARM_STATE)) {
-                Boolean alarmState = (Boolean)state.get(key);
-                if (alarmState) {
-                    tartanHome.setAlarmArmed(TartanHomeValues.ARMED);
-                } else {
-                    tartanHome.setAlarmArmed(TartanHomeValues.DISARMED);
-                }
+        for (Map.Entry<String, Object> entry : state.entrySet()) {
+            LOGGER.info("State element: " + entry.getKey() + "=" + entry.getValue());
+            Object value = entry.getValue();
+            switch (entry.getKey()) {
+                case IoTValues.TEMP_READING:
+                    tartanHome.setTemperature(toReading(value));
+                    break;
+                case IoTValues.HUMIDITY_READING:
+                    tartanHome.setHumidity(toReading(value));
+                    break;
+                case IoTValues.TARGET_TEMP:
+                    tartanHome.setTargetTemp(toReading(value));
+                    break;
+                case IoTValues.HUMIDIFIER_STATE:
+                    tartanHome.setHumidifier((Boolean) value ? Power.ON : Power.OFF);
+                    break;
+                case IoTValues.DOOR_STATE:
+                    tartanHome.setDoor((Boolean) value ? DoorState.OPEN : DoorState.CLOSED);
+                    break;
+                case IoTValues.LIGHT_STATE:
+                    tartanHome.setLight((Boolean) value ? Power.ON : Power.OFF);
+                    break;
+                case IoTValues.PROXIMITY_STATE:
+                    tartanHome.setProximity((Boolean) value ? Occupancy.OCCUPIED : Occupancy.EMPTY);
+                    break;
+                case IoTValues.ALARM_STATE:
+                    tartanHome.setAlarmArmed((Boolean) value ? ArmedState.ARMED : ArmedState.DISARMED);
+                    break;
+                case IoTValues.ALARM_ACTIVE:
+                    tartanHome.setAlarmActive((Boolean) value ? ActiveState.ACTIVE : ActiveState.INACTIVE);
+                    break;
+                case IoTValues.ZONES:
+                    tartanHome.setZones(toTartanZones((ZoneState) value));
+                    break;
+                case IoTValues.HVAC_MODE:
+                    if ("Heater".equals(value)) {
+                        tartanHome.setHvacMode(HvacMode.HEAT);
+                    } else if ("Chiller".equals(value)) {
+                        tartanHome.setHvacMode(HvacMode.COOL);
+                    }
+
+                    // If either heat or chill is on then the hvac is on
+                    boolean running = Boolean.TRUE.equals(state.get(IoTValues.HEATER_STATE))
+                            || Boolean.TRUE.equals(state.get(IoTValues.CHILLER_STATE));
+                    tartanHome.setHvacState(running ? Power.ON : Power.OFF);
+                    break;
+                default:
+                    break;
             }
-            else if (key.equals(IoTValues.ALARM_ACTIVE)) {
-                Boolean alarmActiveState = (Boolean)state.get(key);
-                if (alarmActiveState) {
-                    tartanHome.setAlarmActive(TartanHomeValues.ACTIVE);
-                } else {
-                    tartanHome.setAlarmActive(TartanHomeValues.INACTIVE);
-                }
+        }
+        
+        return tartanHome;
+    }
 
-            } else if (key.equals(IoTValues.HVAC_MODE)) {
-                if (state.get(key).equals("Heater")) {
-                    tartanHome.setHvacMode(TartanHomeValues.HEAT);
-                } else if (state.get(key).equals("Chiller")) {
-                    tartanHome.setHvacMode(TartanHomeValues.COOL);
-                }
+    /**
+     * Convert a controller reading
+     * @param value the reading
+     * @return the reading as an int, or null if it is not a number
+     */
+    private static Integer toReading(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : null;
+    }
 
-                // If either heat or chill is on then the hvac is on
-                String heaterState = String.valueOf(state.get(IoTValues.HEATER_STATE));
-                String chillerState = String.valueOf(state.get(IoTValues.CHILLER_STATE));
+    /**
+     * Convert the zone states to the zone models
+     * @param zones the zone states
+     * @return one model per zone
+     */
+    private List<TartanZone> toTartanZones(ZoneState zones) {
+        List<TartanZone> result = new ArrayList<>(zones.getZoneCount());
+        for (int zone = 1; zone <= zones.getZoneCount(); zone++) {
+            TartanZone tartanZone = new TartanZone();
+            tartanZone.setZone(String.valueOf(zone));
+            tartanZone.setTargetTemp(zone < zoneTargetTemps.length && zoneTargetTemps[zone] > 0
+                    ? String.valueOf(zoneTargetTemps[zone]) : ReadingText.of(this.targetTemp));
+            if (zones.hasReading(zone, ZoneState.TEMPERATURE)) {
+                tartanZone.setTemperature(String.valueOf(zones.getReading(zone, ZoneState.TEMPERATURE)));
+            }
+            if (zones.hasReading(zone, ZoneState.HUMIDITY)) {
+                tartanZone.setHumidity(String.valueOf(zones.getReading(zone, ZoneState.HUMIDITY)));
+            }
+            if (zones.isKnown(zone, ZoneState.DOOR)) {
+                tartanZone.setDoor(zones.isOn(zone, ZoneState.DOOR) ? TartanHomeValues.OPEN : TartanHomeValues.CLOSED);
+            }
+            if (zones.isKnown(zone, ZoneState.LIGHT)) {
+                tartanZone.setLight(zones.isOn(zone, ZoneState.LIGHT) ? TartanHomeValues.ON : TartanHomeValues.OFF);
+            }
+            if (zones.isKnown(zone, ZoneState.PROXIMITY)) {
+                tartanZone.setProximity(zones.isOn(zone, ZoneState.PROXIMITY)
+                        ? TartanHomeValues.OCCUPIED : TartanHomeValues.EMPTY);
+            }
+            if (zones.isKnown(zone, ZoneState.HUMIDIFIER)) {
+                tartanZone.setHumidifier(zones.isOn(zone, ZoneState.HUMIDIFIER) ? TartanHomeValues.ON : TartanHomeValues.OFF);
+            }
+            boolean hvacOn = (zones.isKnown(zone, ZoneState.HEATER) && zones.isOn(zone, ZoneState.HEATER))
+                    || (zones.isKnown(zone, ZoneState.CHILLER) && zones.isOn(zone, ZoneState.CHILLER));
+            tartanZone.setHvacState(hvacOn ? TartanHomeValues.ON : TartanHomeValues.OFF);
+            result.add(tartanZone);
+        }
+        return result;
+    }
 
-                if (heaterState.equals("true") || chillerState.equals("true")) {
-                    tartanHome.setHvacState(TartanHomeValues.ON);
+    /**
+     * Convert the zone updates to a partial zone state
+     * @param tartanHome the home
+     * @return the zone devices to change
+     */
+    private ZoneState toIoTZoneState(TartanHome tartanHome) {
+        ZoneState zones = new ZoneState(0);
+        for (TartanZone tartanZone : tartanHome.getZones()) {
+            int zone = Integer.parseInt(tartanZone.getZone());
+            if (tartanZone.getDoor() != null) {
+                zones.setDevice(zone, ZoneState.DOOR, tartanZone.getDoor().equals(TartanHomeValues.OPEN));
+            }
+            if (tartanZone.getLight() != null) {
+                zones.setDevice(zone, ZoneState.LIGHT, tartanZone.getLight().equals(TartanHomeValues.ON));
+            }
+            if (tartanZone.getHumidifier() != null) {
+                zones.setDevice(zone, ZoneState.HUMIDIFIER, tartanZone.getHumidifier().equals(TartanHomeValues.ON));
+            }
+        }
+        return zones;
+    }
 
-                } else {
-                    tartanHome.setHvacState(TartanHomeValues.OFF);
-                }
+    /**
+     * Convert the zone target temperatures
+     * @param tartanHome the home
+     * @return the target temperatures indexed by zone, or null if none changed
+     */
+    private int[] toIoTZoneTargetTemps(TartanHome tartanHome) {
+        int[] targets = null;
+        for (TartanZone tartanZone : tartanHome.getZones()) {
+            if (tartanZone.getTargetTemp() == null) {
+                continue;
             }
+            int zone = Integer.parseInt(tartanZone.getZone());
+            if (!ZoneState.isValidZone(zone)) {
+                throw new IllegalArgumentException("Invalid zone " + zone);
+            }
+            if (targets == null) {
+                targets = zoneTargetTemps.clone();
+            }
+            if (zone >= targets.length) {
+                targets = Arrays.copyOf(targets, zone + 1);
+            }
+            targets[zone] = Integer.parseInt(tartanZone.getTargetTemp());
         }
-        
-        return tartanHome;
+        if (targets != null) {
+            zoneTargetTemps = targets;
+        }
+        return targets;
     }
 
     /**
@@ -471,7 +1040,7 @@ public class TartanHomeService {
         // entering a passcode also disables the alarm
         if (tartanHome.getAlarmPasscode()!=null) {
             state.put(IoTValues.GIVEN_PASSCODE, toIoTPasscode(tartanHome));
-            tartanHome.setAlarmArmed(TartanHomeValues.DISARMED);
+            tartanHome.setAlarmArmed(ArmedState.DISARMED);
             state.put(IoTValues.ALARM_STATE, toIoTAlarmArmedState(tartanHome));
         }
         else {
@@ -479,32 +1048,36 @@ public class TartanHomeService {
                 state.put(IoTValues.ALARM_STATE, toIoTAlarmArmedState(tartanHome));
             }
         }
-        if (tartanHome.getAlarmDelay()!=null) {
+        if (isKnown(tartanHome.getAlarmDelay())) {
             this.alarmDelay = tartanHome.getAlarmDelay();
 
             Hashtable<String, Object> ht = new Hashtable<String, Object>(){
-                {put(IoTValues.ALARM_DELAY,Integer.parseInt(TartanHomeService.this.alarmDelay));}
+                {put(IoTValues.ALARM_DELAY,TartanHomeService.this.alarmDelay);}
             };
             controller.updateSettings(ht);
         }
 
         if (tartanHome.getHvacMode()!=null) {
-            if (tartanHome.getHvacMode().equals(TartanHomeValues.HEAT)) {
+            if (tartanHome.getHvacMode() == HvacMode.HEAT) {
                 state.put(IoTValues.HVAC_MODE, "Heater");
                 if (tartanHome.getHvacState()!=null) {
                     state.put(IoTValues.HEATER_STATE, toIoTHeaterState(tartanHome));
                 }
             }
-            if (tartanHome.getHvacMode().equals(TartanHomeValues.COOL)) {
+            if (tartanHome.getHvacMode() == HvacMode.COOL) {
                 state.put(IoTValues.HVAC_MODE, "Chiller");
                 if (tartanHome.getHvacState()!=null) {
-                    if (tartanHome.getHvacState().equals(TartanHomeValues.ON)) {
+                    if (tartanHome.getHvacState() == Power.ON) {
                         state.put(IoTValues.CHILLER_ON, toIoTChillerState(tartanHome));
                     }
                 }
             }
         }
         
+        if (tartanHome.getZones()!=null) {
+            state.put(IoTValues.ZONES, toIoTZoneState(tartanHome));
+        }
+
         for (Map.Entry<String,Object> e : state.entrySet()) {
             LOGGER.info("State: " + e.getKey() + "=" + e.getValue());
         }
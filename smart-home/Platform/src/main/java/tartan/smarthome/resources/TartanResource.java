@@ -1,21 +1,51 @@
 package tartan.smarthome.resources;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
 import io.dropwizard.auth.Auth;
 import io.dropwizard.hibernate.UnitOfWork;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tartan.smarthome.TartanHomeSettings;
 import tartan.smarthome.auth.TartanUser;
+import tartan.smarthome.core.TartanBatchUpdate;
 import tartan.smarthome.core.TartanHome;
-import tartan.smarthome.db.HomeDAO;
+import tartan.smarthome.resources.batch.BatchJob;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.iotcontroller.IoTControlManager;
+import tartan.smarthome.resources.stream.StateBroadcaster;
+import tartan.smarthome.resources.stream.StreamSubscriber;
 import tartan.smarthome.views.SmartHomeView;
 
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.CacheControl;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.core.UriInfo;
+import jakarta.ws.rs.core.Variant;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * The resource class implements the HTTP handlers via Jersey.
@@ -27,83 +57,539 @@ public class TartanResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TartanResource.class);
 
+    // the representations of a house state, in order of preference
+    private static final List<Variant> STATE_VARIANTS = StateFormat.STATE_VARIANTS;
+
+    // clients may keep a state but must check it is still current before using it
+    private static final CacheControl REVALIDATE = noCache();
+
+    // the header carrying the state version, for use as the since parameter of a long poll
+    private static final String STATE_VERSION = "X-State-Version";
+
+    // the connection status of a house that cannot be served yet, and when to try again
+    private static final String HOUSE_STATUS = "X-House-Status";
+    private static final int RETRY_AFTER_SECONDS = 5;
+
+    // marks a state served from the last known snapshot while the house is not answering
+    private static final String STATE_STALE = "X-State-Stale";
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    // a state older than three missed house polls is reported as stale
+    private static final long STALE_AFTER_MILLIS = 3 * IoTControlManager.POLL_INTERVAL;
+
+    // the most houses a fleet request may name; enough for a console over a fleet of several hundred
+    private static final int MAX_FLEET_HOUSES = 1024;
+
+    // the longest a long poll may wait, in seconds
+    private static final int MAX_POLL_TIMEOUT = 120;
+
+    // the most events that may wait to be written to a stream client before it is disconnected
+    private static final int MAX_PENDING_EVENTS = 32;
+
+    // batches up to this size are answered when they finish; larger ones get a job to poll
+    private static final int SYNC_BATCH_LIMIT = 50;
+
+    // how long a finished batch job can still be polled
+    private static final long JOB_RETENTION_MILLIS = 60 * 60 * 1000;
+
+    // completes parked requests, so that houses never write to slow clients themselves
+    private final Executor notifier;
+
+    // carries the published house states to the long polls and streams
+    private final StateEventBus eventBus;
+
+    // how many seconds a request may wait for a house
+    private final int requestDeadline;
+
+    // how many house updates of a batch may run at once
+    private final int batchParallelism;
+
+    // the batch jobs by id
+    private final Map<String, BatchJob> jobs = new ConcurrentHashMap<>();
+
+    // writes the events to the stream clients, each client on its own
+    private final Executor streamWriter;
+
+    // one broadcaster per streamed house, shared by all of its subscribers
+    private final Map<String, StateBroadcaster> broadcasters = new ConcurrentHashMap<>();
+
     // There is one service per home
-    private ArrayList<TartanHomeService> services;
+    private final HouseRegistry registry;
 
     /**
-     * Create and connect to a list of houses
-     * @param houses the settings for each hose
-     * @param homeDAO the historian
-     * @param historyTimer how often to log history
+     * Serve the houses of a registry
+     * @param registry the houses
+     * @param notifier completes long polls when a house state changes
+     * @param eventBus carries the published house states
+     * @param requestDeadline how many seconds a request may wait for a house
+     * @param batchParallelism how many house updates of a batch may run at once
+     * @param streamWriter writes the events to the stream clients; a client that does not read
+     *                     blocks a thread of it
      */
-    public TartanResource(List<TartanHomeSettings> houses, HomeDAO homeDAO, Integer historyTimer) {
+    public TartanResource(HouseRegistry registry, Executor notifier, StateEventBus eventBus,
+                          Integer requestDeadline, Integer batchParallelism, Executor streamWriter) {
+
+        this.registry = registry;
+        this.notifier = notifier;
+        this.eventBus = eventBus;
+        this.requestDeadline = requestDeadline;
+        this.batchParallelism = batchParallelism;
+        this.streamWriter = streamWriter;
 
-        this.services = new ArrayList<>(houses.size());
-        for (TartanHomeSettings homeSettings : houses) {
-            TartanHomeService service = new TartanHomeService(homeDAO);
-            service.initializeSettings(homeSettings, historyTimer);
+        // a removed or re-configured house must not keep streaming from its old service
+        registry.addListener(new HouseRegistry.Listener() {
+            @Override
+            public void removed(String name) {
+                StateBroadcaster broadcaster = broadcasters.remove(name);
+                if (broadcaster != null) {
+                    broadcaster.close();
+                }
+            }
+        });
+    }
 
+    /**
+     * Fetch the service for a house
+     * @param houseName the target house
+     * @return the service or null if not found
+     */
+    private TartanHomeService getHomeService(String houseName) {
+        return registry.get(houseName);
+    }
+
+    /**
+     * Fetch the current house state via HTTP GET. Managed by Jersey. With a since version this is a
+     * long poll: the request is parked, without holding a server thread, until the house state
+     * version differs from the given one or the timeout passes. While the house is not answering,
+     * the last known state is served at once with an X-State-Stale header.
+     * @param house the house
+     * @param since the state version the client has, or null to answer right away
+     * @param timeout how many seconds to wait for a new state
+     * @param user the user allowed to access this house
+     * @param request the request, used to pick the representation
+     * @param response completed with a view of the house, with 304 on timeout, or with 503 while the house connects
+     */
+    @GET
+    @Produces({MediaType.TEXT_HTML, MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
+    @Path("/state/{house}")
+    @Timed
+    @UnitOfWork
+    public void state(@PathParam("house") String house, @QueryParam("since") Long since,
+                      @QueryParam("timeout") @DefaultValue("30") Integer timeout,
+                      @Auth TartanUser user, @Context Request request, @Suspended AsyncResponse response) {
+        // There are better ways to check authorization, but this works fine
+        if (!user.mayAccess(house)) {
+            response.resume(Response.noContent().build());
+            return;
+        }
+        LOGGER.info("Received a house GET for house: " + house);
+        TartanHomeService service = getHomeService(house);
+        if (service == null) {
+            response.resume(Response.noContent().build());
+            return;
+        }
+
+        Variant variant = request.selectVariant(STATE_VARIANTS);
+        StateFormat format = StateFormat.of(variant, StateFormat.HTML);
+        if (since == null) {
             if (!service.isConnected()) {
-                try {
+                response.resume(notConnected(service));
+                return;
+            }
+            // an unchanged house is answered from its version alone
+            Response notModified = notModified(service, format, request);
+            if (notModified != null) {
+                response.resume(notModified);
+                return;
+            }
+            resume(response, service.getStateSnapshotAsync(), snapshot -> stateResponse(service, snapshot, format));
+            return;
+        }
 
-                    service.connect();
-                    this.services.add(service);
-                    LOGGER.info("Connected to house " + service.getName() + " @ " + service.getAddress());
+        response.setTimeout(Math.max(1, Math.min(timeout, MAX_POLL_TIMEOUT)), TimeUnit.SECONDS);
+        Runnable cancel = service.awaitStateChange(since, () -> notifier.execute(() ->
+                service.getStateSnapshotAsync().whenComplete((snapshot, x) -> {
+                    if (x != null) {
+                        response.resume(x);
+                    } else {
+                        response.resume(stateResponse(service, snapshot, format));
+                    }
+                })));
+        response.setTimeoutHandler(r -> {
+            cancel.run();
+            Response.ResponseBuilder notModified = Response.notModified().cacheControl(REVALIDATE);
+            long version = service.getStateVersion();
+            if (version != StateSnapshot.UNVERSIONED) {
+                notModified.tag(stateTag(service, version, format)).header(STATE_VERSION, version);
+            }
+            r.resume(notModified.variants(STATE_VARIANTS).build());
+        });
+    }
 
-                } catch (TartanHomeConnectException thce) {
-                    LOGGER.error("Could not connect to house " + service.getName() + " @ " + service.getAddress());
-                }
+    /**
+     * Answer for a house that is still connecting, or waiting to try again
+     * @param service the house
+     * @return 503 Service Unavailable with the house status
+     */
+    private static Response notConnected(TartanHomeService service) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HOUSE_STATUS, service.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                .build();
+    }
 
-                startHistorian(service);
+    /**
+     * Check whether the client's copy of the house state is current
+     * @param service the house
+     * @param format the representation
+     * @param request the request whose preconditions are checked
+     * @return 304 if the client's copy is current, null otherwise
+     */
+    private Response notModified(TartanHomeService service, StateFormat format, Request request) {
+        long version = service.getStateVersion();
+        if (version != StateSnapshot.UNVERSIONED) {
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(stateTag(service, version, format));
+            if (notModified != null) {
+                return notModified.cacheControl(REVALIDATE).header(STATE_VERSION, version)
+                        .variants(STATE_VARIANTS).build();
             }
         }
+        return null;
     }
 
     /**
-     * Start the historian
-     * @param service the service to start logging
+     * Build the response for a house state. While the house is not answering, the state is the
+     * last one known and is marked stale.
+     * @param service the house
+     * @param snapshot the house state
+     * @param format the representation
+     * @return the house state
      */
-    public void startHistorian(TartanHomeService service) {
-        if (service.isConnected()) {
-            service.startHistorian();
+    private Response stateResponse(TartanHomeService service, StateSnapshot snapshot, StateFormat format) {
+        Response.ResponseBuilder response;
+        if (format != StateFormat.HTML) {
+            // JSON and binary clients get the cached bytes of this state version
+            response = Response.ok(snapshot.getEncoded(format), format.getMediaType());
+        } else {
+            response = Response.ok(new SmartHomeView(snapshot.getHome()), MediaType.TEXT_HTML_TYPE);
+        }
+        if (snapshot.getVersion() != StateSnapshot.UNVERSIONED) {
+            response.tag(stateTag(service, snapshot.getVersion(), format)).cacheControl(REVALIDATE)
+                    .header(STATE_VERSION, snapshot.getVersion());
+        }
+        if (service.isStale()) {
+            response.header(STATE_STALE, true).header("Warning", STALE_WARNING);
         }
+        return response.variants(STATE_VARIANTS).build();
     }
 
     /**
-     * Fetch the service for a house
-     * @param houseName the target house
-     * @return the service or null if not found
+     * Build the Cache-Control of a state: "no-cache" alone, without the "no-transform" a new
+     * CacheControl has by default
+     * @return the cache control
      */
-    private TartanHomeService getHomeService(String houseName) {
-        for (TartanHomeService h : services) {
-            if (h.getName().equals(houseName)) {
-                return h;
+    private static CacheControl noCache() {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoCache(true);
+        cacheControl.setNoTransform(false);
+        return cacheControl;
+    }
+
+    /**
+     * Complete a request when a house operation finishes, with 503 Service Unavailable if the
+     * house has too much waiting to take it or its circuit breaker is open, with 502 Bad Gateway if
+     * the house gave no answer, or with 504 Gateway Timeout if the house does not answer within
+     * the request deadline. The server thread is not held meanwhile. A request that misses its
+     * deadline cancels the operation, so that it is not sent to the house once it is answered.
+     * @param response the suspended request
+     * @param operation the house operation
+     * @param toResponse makes the response once the house has answered
+     */
+    private <T> void resume(AsyncResponse response, CompletableFuture<T> operation, Function<T, Response> toResponse) {
+        response.setTimeout(requestDeadline, TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> {
+            r.resume(Response.status(Response.Status.GATEWAY_TIMEOUT).build());
+            operation.cancel(false);
+        });
+        operation.thenApply(toResponse).whenComplete((r, x) -> {
+            Throwable cause = x instanceof CompletionException ? x.getCause() : x;
+            if (cause instanceof RejectedExecutionException) {
+                // the house has more waiting than it can serve in time
+                response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                        .build());
+            } else if (cause instanceof IllegalStateException) {
+                response.resume(Response.status(Response.Status.BAD_GATEWAY).build());
+            } else if (x != null) {
+                response.resume(cause);
+            } else {
+                response.resume(r);
             }
+        });
+    }
+
+    /**
+     * Fetch the state of many houses in one request. Managed by Jersey. The houses are read in
+     * parallel under one deadline; a house that fails or misses the deadline is reported in its
+     * entry rather than failing the whole response.
+     * @param houses a comma-separated list of houses
+     * @param group select the houses of a group instead
+     * @param user the user allowed to access the houses
+     * @param request the request, used to pick JSON, Smile or CBOR
+     * @param response completed with the combined document, or BAD_REQUEST if too many houses are listed
+     */
+    @GET
+    @Path("/states")
+    @Produces({MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
+    @Timed
+    public void states(@QueryParam("houses") String houses, @QueryParam("group") String group,
+                       @Auth TartanUser user, @Context Request request, @Suspended AsyncResponse response) {
+        StateFormat format = StateFormat.of(request.selectVariant(StateFormat.DATA_VARIANTS), StateFormat.JSON);
+        List<String> names = selectHouses(houses, group, user);
+        if (names == null) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        LOGGER.info("Received a bulk GET for houses: " + names);
+
+        List<CompletableFuture<HouseState>> results = new ArrayList<>(names.size());
+        for (String name : names) {
+            TartanHomeService service = getHomeService(name);
+            CompletableFuture<HouseState> result;
+            if (!user.mayAccess(name)) {
+                result = CompletableFuture.completedFuture(HouseState.failed(name, "unauthorized"));
+            } else if (service == null) {
+                result = CompletableFuture.completedFuture(HouseState.failed(name, "unknown house"));
+            } else if (!service.isConnected()) {
+                result = CompletableFuture.completedFuture(HouseState.failed(name, service.getStatus()));
+            } else {
+                CompletableFuture<StateSnapshot> read = service.getStateSnapshotAsync();
+                result = read
+                        .handle((snapshot, x) -> x == null
+                                ? new HouseState(name, snapshot, service.isConnected(), service.getStateAge(),
+                                        service.isStale())
+                                : HouseState.failed(name, String.valueOf(x.getCause() == null ? x : x.getCause())))
+                        .completeOnTimeout(HouseState.failed(name, "timeout"), requestDeadline, TimeUnit.SECONDS);
+                // a read still waiting for the house when its entry timed out is not sent
+                result.thenRun(() -> read.cancel(false));
+            }
+            results.add(result);
+        }
+
+        // every result completes by the deadline, so the server timeout is only a safety net
+        response.setTimeout(requestDeadline + 1, TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> r.resume(Response.status(Response.Status.GATEWAY_TIMEOUT).build()));
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).whenComplete((v, x) -> {
+            StreamingOutput body = output -> {
+                try (JsonGenerator json = format.getMapper().getFactory().createGenerator(output)) {
+                    json.writeStartObject();
+                    json.writeArrayFieldStart("houses");
+                    for (CompletableFuture<HouseState> result : results) {
+                        result.join().write(json, format);
+                    }
+                    json.writeEndArray();
+                    json.writeEndObject();
+                }
+            };
+            response.resume(Response.ok(body, format.getMediaType()).build());
+        });
+    }
+
+    /**
+     * Pick the houses a fleet request applies to
+     * @param houses a comma-separated list of houses, or null
+     * @param group a group name, or null
+     * @param user the user; with neither a list nor a group, all of the user's houses are picked,
+     *             which for an administrator is every house
+     * @return the house names, each once, or null if the list names more than MAX_FLEET_HOUSES houses
+     */
+    private List<String> selectHouses(String houses, String group, TartanUser user) {
+        Set<String> names = new LinkedHashSet<>();
+        if (houses != null) {
+            for (String house : houses.split(",")) {
+                if (!house.isBlank()) {
+                    names.add(house.trim());
+                }
+            }
+            if (names.size() > MAX_FLEET_HOUSES) {
+                return null;
+            }
+        }
+        if (group != null) {
+            for (TartanHomeService service : registry.getServices()) {
+                if (service.getGroups().contains(group) && user.mayAccess(service.getName())) {
+                    names.add(service.getName());
+                }
+            }
+        }
+        if (houses == null && group == null) {
+            if (user.isAdmin()) {
+                for (TartanHomeService service : registry.getServices()) {
+                    names.add(service.getName());
+                }
+            } else {
+                names.addAll(user.getHouses());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * One house entry of a bulk state response
+     */
+    private static class HouseState {
+        final String name;
+        final StateSnapshot snapshot;
+        final boolean connected;
+        final long age;
+        final boolean circuitOpen;
+        final String error;
+
+        HouseState(String name, StateSnapshot snapshot, boolean connected, long age, boolean circuitOpen) {
+            this.name = name;
+            this.snapshot = snapshot;
+            this.connected = connected;
+            this.age = age;
+            this.circuitOpen = circuitOpen;
+            this.error = null;
+        }
+
+        private HouseState(String name, String error) {
+            this.name = name;
+            this.snapshot = null;
+            this.connected = false;
+            this.age = -1;
+            this.circuitOpen = false;
+            this.error = error;
+        }
+
+        static HouseState failed(String name, String error) {
+            return new HouseState(name, error);
+        }
+
+        void write(JsonGenerator json, StateFormat format) throws IOException {
+            json.writeStartObject();
+            json.writeStringField("name", name);
+            if (error != null) {
+                json.writeStringField("error", error);
+            } else {
+                json.writeNumberField("version", snapshot.getVersion());
+                json.writeBooleanField("connected", connected);
+                json.writeNumberField("age", age);
+                json.writeBooleanField("stale", !connected || circuitOpen || age < 0 || age > STALE_AFTER_MILLIS);
+                json.writeFieldName("state");
+                if (format == StateFormat.JSON) {
+                    json.writeRawValue(snapshot.getHomeJson());
+                } else {
+                    // binary formats cannot embed the cached JSON
+                    json.writeObject(snapshot.getHome());
+                }
+            }
+            json.writeEndObject();
         }
-        return null;
     }
 
     /**
-     * Fetch the current house state via HTTP GET. Managed by Jersey
+     * Stream the changes of a house as server-sent events. Managed by Jersey
      * @param house the house
      * @param user the user allowed to access this house
-     * @return a view of the house or null
+     * @param sink the client connection
+     * @param sse builds the events
      */
     @GET
-    @Produces({MediaType.TEXT_HTML, MediaType.APPLICATION_JSON})
-    @Path("/state/{house}")
-    @Timed
-    @UnitOfWork
-    public SmartHomeView state(@PathParam("house") String house,  @Auth TartanUser user) {
-        // There are better ways to check authorization, but this works fine
-        if (user.getHouse().equals(house)) {
-            LOGGER.info("Received a house GET for house: " + house);
+    @Path("/stream/{house}")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void stream(@PathParam("house") String house, @Auth TartanUser user,
+                       @Context SseEventSink sink, @Context Sse sse) {
+        subscribe(Collections.singletonList(house), user, sink, sse);
+    }
+
+    /**
+     * Stream the changes of several houses over one connection. Managed by Jersey. The list is
+     * read as the bulk state read reads it: blank and repeated names are dropped, and a list of
+     * more than MAX_FLEET_HOUSES houses is refused with 400
+     * @param houses a comma-separated list of houses, or null for all the houses the user may access
+     * @param user the user allowed to access the houses
+     * @param sink the client connection
+     * @param sse builds the events
+     */
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void streams(@QueryParam("houses") String houses, @Auth TartanUser user,
+                        @Context SseEventSink sink, @Context Sse sse) {
+        List<String> names = selectHouses(houses, null, user);
+        if (names == null) {
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        subscribe(names, user, sink, sse);
+    }
+
+    /**
+     * Subscribe a client to the broadcasters of some houses
+     * @param houses the house names
+     * @param user the user
+     * @param sink the client connection
+     * @param sse builds the events
+     */
+    private void subscribe(List<String> houses, TartanUser user, SseEventSink sink, Sse sse) {
+        List<TartanHomeService> targets = new ArrayList<>(houses.size());
+        for (String house : houses) {
+            if (!user.mayAccess(house)) {
+                throw new WebApplicationException(Response.Status.UNAUTHORIZED);
+            }
             TartanHomeService service = getHomeService(house);
-            if (service == null) return null;
+            if (service == null) {
+                throw new NotFoundException("Unknown house " + house);
+            }
+            if (!service.isConnected()) {
+                throw new WebApplicationException(notConnected(service));
+            }
+            targets.add(service);
+        }
+        LOGGER.info("Streaming houses " + houses);
 
-            return new SmartHomeView(service.getState());
+        // a house that has published no state yet is read on its own lane, not on this thread
+        StreamSubscriber subscriber = new StreamSubscriber(sink, MAX_PENDING_EVENTS, streamWriter);
+        for (TartanHomeService service : targets) {
+            service.getStateSnapshotAsync().whenComplete((snapshot, x) -> {
+                if (x != null) {
+                    LOGGER.info("Could not read house " + service.getName() + " for a stream client", x);
+                    subscriber.close();
+                } else {
+                    getBroadcaster(service, sse).subscribe(subscriber, snapshot);
+                }
+            });
         }
-        return null;
+    }
+
+    /**
+     * Get the broadcaster of a house, creating it on first use
+     * @param service the house
+     * @param sse builds the events
+     * @return the broadcaster
+     */
+    private StateBroadcaster getBroadcaster(TartanHomeService service, Sse sse) {
+        return broadcasters.computeIfAbsent(service.getName(), name -> {
+            StateBroadcaster broadcaster = new StateBroadcaster(name, sse);
+            broadcaster.setSubscription(eventBus.subscribe(name, StateEventBus.STREAM,
+                    event -> broadcaster.publish(service.getStateSnapshot())));
+            return broadcaster;
+        });
+    }
+
+    /**
+     * Build the strong entity tag of a house state. It includes the epoch of the house service,
+     * since the controller's versions start over when the house is re-configured or the server
+     * restarts, and the representation.
+     * @param service the house
+     * @param version the state version
+     * @param format the representation
+     * @return the entity tag
+     */
+    private static EntityTag stateTag(TartanHomeService service, long version, StateFormat format) {
+        return new EntityTag(Long.toHexString(service.getEpoch()) + "-" + version + "-"
+                + format.name().toLowerCase());
     }
 
     /**
@@ -111,28 +597,149 @@ public class TartanResource {
      * @param house the house
      * @param user the user allowed to access this house
      * @param h the new state
-     * @return either HTTP OK or UNAUTHORIZED
+     * @param response completed with HTTP OK, BAD_REQUEST for a zone the house does not have, UNAUTHORIZED, SERVICE_UNAVAILABLE while the house connects or is not answering, or GATEWAY_TIMEOUT if the house does not answer in time
      */
     @POST
     @Path("/update/{house}")
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
     @Timed
-    public Response update(@PathParam("house") String house, @Auth TartanUser user, TartanHome h) {
-        if (user.getHouse().equals(house)) {
+    public void update(@PathParam("house") String house, @Auth TartanUser user, TartanHome h,
+                       @Suspended AsyncResponse response) {
+        if (user.mayAccess(house)) {
             LOGGER.info("Received a house POST to house " + house);
             TartanHomeService service = getHomeService(house);
+            if (service != null && !service.isConnected()) {
+                response.resume(notConnected(service));
+                return;
+            }
+            if (service != null && (h == null || !service.hasValidZones(h))) {
+                response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+                return;
+            }
             if (service != null) {
                 // tell the house about the update
-                service.setState(h);
-
-                return Response
+                resume(response, service.setStateAsync(h), ok -> Response
                         .status(Response.Status.OK)
-                        .build();
+                        .build());
+                return;
             }
         }
-        return Response
+        response.resume(Response
                 .status(Response.Status.UNAUTHORIZED)
+                .build());
+    }
+
+    /**
+     * Update many houses via a HTTP POST. Managed by Jersey. The body either lists house/patch
+     * pairs, or gives one patch and selects the houses by name or group. The updates run
+     * concurrently, at most batchParallelism at a time, each under the request deadline.
+     * Small batches are answered with the per-house report once every update has finished; large
+     * or async batches are answered right away with 202 Accepted and a job to poll. A batch of
+     * more than MAX_FLEET_HOUSES updates is refused.
+     * @param async answer with the job at once, however small the batch
+     * @param user the user allowed to access the houses
+     * @param batch the updates
+     * @param uriInfo used to build the job location
+     * @param response completed with the report, the job, or BAD_REQUEST
+     */
+    @POST
+    @Path("/updates")
+    @Consumes({MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
+    @Produces({MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
+    @Timed
+    public void updates(@QueryParam("async") boolean async, @Auth TartanUser user, TartanBatchUpdate batch,
+                        @Context UriInfo uriInfo, @Suspended AsyncResponse response) {
+        if (batch == null || (batch.getUpdates() == null && batch.getPatch() == null)
+                || (batch.getPatch() != null && batch.getHouses() == null && batch.getGroup() == null)) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+
+        List<String> names = List.of();
+        if (batch.getPatch() != null) {
+            String houses = batch.getHouses() == null ? null : String.join(",", batch.getHouses());
+            names = selectHouses(houses, batch.getGroup(), user);
+        }
+        int total = names == null ? 0 : names.size();
+        if (batch.getUpdates() != null) {
+            total += batch.getUpdates().size();
+        }
+        if (names == null || total > MAX_FLEET_HOUSES) {
+            response.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+
+        BatchJob job = new BatchJob(UUID.randomUUID().toString(), user.getName());
+        if (batch.getUpdates() != null) {
+            for (TartanBatchUpdate.HouseUpdate update : batch.getUpdates()) {
+                addUpdate(job, user, update.getHouse(), update.getPatch());
+            }
+        }
+        for (String house : names) {
+            addUpdate(job, user, house, batch.getPatch());
+        }
+        LOGGER.info("Received a batch POST of " + job.getTotal() + " house updates");
+
+        long now = System.currentTimeMillis();
+        jobs.values().removeIf(j -> j.isDone() && now - j.getCreated() > JOB_RETENTION_MILLIS);
+        jobs.put(job.getId(), job);
+
+        CompletableFuture<BatchJob> done = job.start(batchParallelism, requestDeadline);
+        Response accepted = Response.accepted(job)
+                .location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
                 .build();
+        if (async || job.getTotal() > SYNC_BATCH_LIMIT) {
+            response.resume(accepted);
+            return;
+        }
+
+        // each round of updates ends by the deadline; should the batch still run over, the
+        // client gets the job to poll instead
+        int rounds = (job.getTotal() + batchParallelism - 1) / Math.max(1, batchParallelism);
+        response.setTimeout((long) Math.max(1, rounds) * requestDeadline + 1, TimeUnit.SECONDS);
+        response.setTimeoutHandler(r -> r.resume(accepted));
+        done.thenAccept(j -> response.resume(Response.ok(j).build()));
     }
-}
 
+    /**
+     * Queue one house update of a batch, or record why it cannot run
+     * @param job the batch job
+     * @param user the user who sent the batch
+     * @param house the house
+     * @param patch the new state
+     */
+    private void addUpdate(BatchJob job, TartanUser user, String house, TartanHome patch) {
+        TartanHomeService service = getHomeService(house);
+        if (house == null || !user.mayAccess(house)) {
+            job.addFailed(house, "unauthorized");
+        } else if (service == null) {
+            job.addFailed(house, "unknown house");
+        } else if (!service.isConnected()) {
+            job.addFailed(house, service.getStatus());
+        } else if (patch == null) {
+            job.addFailed(house, "no patch");
+        } else if (!service.hasValidZones(patch)) {
+            job.addFailed(house, "invalid zone");
+        } else {
+            job.add(house, () -> service.setStateAsync(patch));
+        }
+    }
+
+    /**
+     * Fetch the progress of a batch job via HTTP GET. Managed by Jersey
+     * @param id the job id
+     * @param user only the user who sent the batch may see it
+     * @return the job, or NOT_FOUND
+     */
+    @GET
+    @Path("/updates/{id}")
+    @Produces({MediaType.APPLICATION_JSON, StateFormat.APPLICATION_SMILE, StateFormat.APPLICATION_CBOR})
+    @Timed
+    public Response batchJob(@PathParam("id") String id, @Auth TartanUser user) {
+        BatchJob job = jobs.get(id);
+        if (job == null || !job.getOwner().equals(user.getName())) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(job).build();
+    }
+}
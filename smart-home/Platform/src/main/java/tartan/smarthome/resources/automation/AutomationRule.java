@@ -0,0 +1,208 @@
+package tartan.smarthome.resources.automation;
+
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.Set;
+import tartan.smarthome.TartanAutomationSettings;
+import tartan.smarthome.resources.iotcontroller.IoTValues;
+
+/**
+ * A compiled user automation rule. All parsing happens when the rule is created so that firing
+ * a rule is only a comparison and a map update.
+ */
+public class AutomationRule {
+
+    // the state variables a rule may be triggered by
+    private static final Set<String> TRIGGERS = Set.of(IoTValues.TEMP_READING, IoTValues.HUMIDITY_READING,
+            IoTValues.HUMIDIFIER_STATE, IoTValues.DOOR_STATE, IoTValues.LIGHT_STATE, IoTValues.PROXIMITY_STATE,
+            IoTValues.ALARM_STATE, IoTValues.ALARM_ACTIVE, IoTValues.HVAC_MODE, IoTValues.HEATER_STATE,
+            IoTValues.CHILLER_STATE, IoTValues.TARGET_TEMP);
+
+    // the devices and settings a rule may set. The alarm, the door and the passcodes are the
+    // security of the house and are left to its owner
+    private static final Set<String> ACTIONS = Set.of(IoTValues.HUMIDIFIER_STATE, IoTValues.LIGHT_STATE,
+            IoTValues.HEATER_STATE, IoTValues.CHILLER_STATE, IoTValues.HVAC_MODE, IoTValues.TARGET_TEMP);
+
+    private final String name;
+    private final String trigger;
+    private final String condition;
+
+    // the comparison value in each of the forms a state variable can take
+    private final String value;
+    private final Integer intValue;
+    private final Boolean boolValue;
+
+    // optional time of day window; null if the rule applies all day
+    private final LocalTime after;
+    private final LocalTime before;
+
+    private final String action;
+    private final Object actionValue;
+
+    /**
+     * Create a new rule
+     * @param name the rule name, used in the event log
+     * @param trigger the IoTValues key that triggers the rule; a house state reading
+     * @param condition one of =, !=, &lt;, &lt;=, &gt;, &gt;=
+     * @param value the value to compare the trigger to
+     * @param after start of the time window, or null
+     * @param before end of the time window, or null
+     * @param action the IoTValues key to set; a device or the target temperature, never the alarm,
+     * the door or a passcode
+     * @param actionValue the value to set
+     * @throws IllegalArgumentException if a key, the condition or a value is not allowed
+     */
+    public AutomationRule(String name, String trigger, String condition, String value,
+                          LocalTime after, LocalTime before, String action, String actionValue) {
+        if (trigger == null || !TRIGGERS.contains(trigger)) {
+            throw new IllegalArgumentException("Invalid trigger '" + trigger + "' in automation " + name);
+        }
+        if (action == null || !ACTIONS.contains(action)) {
+            throw new IllegalArgumentException("Invalid action '" + action + "' in automation " + name);
+        }
+        if (condition == null || !condition.matches("=|!=|<|<=|>|>=")) {
+            throw new IllegalArgumentException("Invalid condition '" + condition + "' in automation " + name);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value in automation " + name);
+        }
+        this.name = name;
+        this.trigger = trigger;
+        this.condition = condition;
+        this.value = value;
+        this.intValue = toInteger(value);
+        this.boolValue = toBoolean(value);
+        this.after = after;
+        this.before = before;
+        this.action = action;
+        this.actionValue = toActionValue(action, actionValue);
+        if (this.actionValue == null) {
+            throw new IllegalArgumentException("Invalid action value '" + actionValue + "' in automation " + name);
+        }
+    }
+
+    /**
+     * Compile a rule from the house configuration
+     * @param settings the rule settings
+     * @return the compiled rule
+     * @throws IllegalArgumentException if the rule is not allowed
+     */
+    public static AutomationRule fromSettings(TartanAutomationSettings settings) {
+        return new AutomationRule(settings.getName(), settings.getTrigger(), settings.getCondition(),
+                settings.getValue(),
+                settings.getAfter() == null ? null : LocalTime.parse(settings.getAfter()),
+                settings.getBefore() == null ? null : LocalTime.parse(settings.getBefore()),
+                settings.getAction(), settings.getActionValue());
+    }
+
+    /**
+     * Get the rule name
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the state variable that triggers this rule
+     * @return the IoTValues key
+     */
+    public String getTrigger() {
+        return trigger;
+    }
+
+    /**
+     * Get the state variable this rule sets
+     * @return the IoTValues key
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * Get the value this rule sets
+     * @return the value
+     */
+    public Object getActionValue() {
+        return actionValue;
+    }
+
+    /**
+     * Check whether the rule should fire
+     * @param state the current state
+     * @param now the current time of day
+     * @return true if the trigger matches and the time is inside the window
+     */
+    public boolean matches(Map<String, Object> state, LocalTime now) {
+        if (!inWindow(now)) {
+            return false;
+        }
+        Object current = state.get(trigger);
+        int cmp;
+        if (current instanceof Integer && intValue != null) {
+            cmp = Integer.compare((Integer) current, intValue);
+        } else if (current instanceof Boolean && boolValue != null) {
+            cmp = Boolean.compare((Boolean) current, boolValue);
+        } else if (current != null) {
+            cmp = current.toString().compareTo(value);
+        } else {
+            return false;
+        }
+
+        switch (condition) {
+            case "=": return cmp == 0;
+            case "!=": return cmp != 0;
+            case "<": return cmp < 0;
+            case "<=": return cmp <= 0;
+            case ">": return cmp > 0;
+            default: return cmp >= 0;
+        }
+    }
+
+    /**
+     * Check the time of day window. A window where after is later than before wraps midnight.
+     */
+    private boolean inWindow(LocalTime now) {
+        if (after == null && before == null) return true;
+        if (after == null) return now.isBefore(before);
+        if (before == null) return !now.isBefore(after);
+        if (after.isBefore(before)) {
+            return !now.isBefore(after) && now.isBefore(before);
+        }
+        return !now.isBefore(after) || now.isBefore(before);
+    }
+
+    private static Integer toInteger(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    private static Boolean toBoolean(String value) {
+        switch (value.trim().toLowerCase()) {
+            case "true": case "on": case "open": case "armed": case "occupied": case "active": case "1":
+                return true;
+            case "false": case "off": case "closed": case "disarmed": case "empty": case "inactive": case "0":
+                return false;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Convert the action value to the type the house expects for the action key
+     */
+    private static Object toActionValue(String action, String actionValue) {
+        if (actionValue == null) {
+            return null;
+        } else if (action.equals(IoTValues.TARGET_TEMP)) {
+            return toInteger(actionValue);
+        } else if (action.equals(IoTValues.HVAC_MODE)) {
+            // the house knows these two modes only
+            return actionValue.equals("Heater") || actionValue.equals("Chiller") ? actionValue : null;
+        }
+        return toBoolean(actionValue);
+    }
+}
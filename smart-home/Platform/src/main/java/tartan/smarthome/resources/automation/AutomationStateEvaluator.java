@@ -0,0 +1,107 @@
+package tartan.smarthome.resources.automation;
+
+import java.sql.Date;
+import java.text.SimpleDateFormat;
+import java.time.Clock;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import tartan.smarthome.resources.TartanStateEvaluator;
+
+/**
+ * Runs a house's user automation rules before handing the state to the safety evaluator. Rules
+ * are indexed by the state variable that triggers them, so an evaluation only looks at the rules
+ * whose trigger changed since the previous evaluation. Because the wrapped evaluator runs last,
+ * an automation can never override the house safety rules.
+ */
+public class AutomationStateEvaluator implements TartanStateEvaluator {
+
+    // the evaluator that enforces the house rules
+    private final TartanStateEvaluator evaluator;
+
+    // the rules as given, and indexed by their trigger key
+    private final List<AutomationRule> rules;
+    private final Map<String, List<AutomationRule>> rulesByTrigger = new HashMap<>();
+
+    // the last seen value of each trigger key
+    private final Map<String, Object> previousTriggers = new HashMap<>();
+
+    private final Clock clock;
+
+    /**
+     * Create a new automation evaluator
+     * @param rules the user automation rules for the house
+     * @param evaluator the evaluator that enforces the house rules
+     */
+    public AutomationStateEvaluator(List<AutomationRule> rules, TartanStateEvaluator evaluator) {
+        this(rules, evaluator, Clock.systemDefaultZone());
+    }
+
+    /**
+     * Create a new automation evaluator
+     * @param rules the user automation rules for the house
+     * @param evaluator the evaluator that enforces the house rules
+     * @param clock the clock used for time of day windows
+     */
+    public AutomationStateEvaluator(List<AutomationRule> rules, TartanStateEvaluator evaluator, Clock clock) {
+        this.rules = rules;
+        this.evaluator = evaluator;
+        this.clock = clock;
+        for (AutomationRule rule : rules) {
+            rulesByTrigger.computeIfAbsent(rule.getTrigger(), k -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    /**
+     * Create an evaluator that runs the same automation rules ahead of another evaluator. The new
+     * evaluator tracks its triggers on its own
+     * @param evaluator the evaluator that enforces the house rules
+     * @param clock the clock used for time of day windows
+     * @return the new automation evaluator
+     */
+    public AutomationStateEvaluator wrap(TartanStateEvaluator evaluator, Clock clock) {
+        return new AutomationStateEvaluator(rules, evaluator, clock);
+    }
+
+    /**
+     * Apply the automations whose trigger changed, then evaluate the house rules
+     *
+     * @param inState The new state to evaluate
+     * @param log The log of state evaluations
+     * @return The evaluated state
+     */
+    @Override
+    public synchronized Map<String, Object> evaluateState(Map<String, Object> inState, StringBuffer log) {
+        Map<String, Object> state = inState;
+        LocalTime now = LocalTime.now(clock);
+
+        for (Map.Entry<String, List<AutomationRule>> entry : rulesByTrigger.entrySet()) {
+            Object current = inState.get(entry.getKey());
+            Object previous = previousTriggers.put(entry.getKey(), current);
+            if (current == null || current.equals(previous)) {
+                continue;
+            }
+
+            for (AutomationRule rule : entry.getValue()) {
+                if (rule.matches(inState, now)) {
+                    if (state == inState) {
+                        // only copy the state when an automation actually changes it
+                        state = new Hashtable<>(inState);
+                    }
+                    state.put(rule.getAction(), rule.getActionValue());
+                    log.append(formatLogEntry("Automation " + rule.getName() + ": set "
+                            + rule.getAction() + " to " + rule.getActionValue()));
+                }
+            }
+        }
+        return evaluator.evaluateState(state, log);
+    }
+
+    private String formatLogEntry(String entry) {
+        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd,yyyy HH:mm");
+        return "[" + sdf.format(new Date(clock.millis())) + "]: " + entry + "\n";
+    }
+}
@@ -0,0 +1,258 @@
+package tartan.smarthome.resources.batch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A batch of house updates. At most a fixed number of updates run at once; each one that
+ * finishes starts the next. The job is also its own progress report: it serializes to the
+ * per-house results so far.
+ */
+public class BatchJob {
+
+    // the result of each house update
+    public static final String PENDING = "pending";
+    public static final String OK = "ok";
+    public static final String FAILED = "failed";
+    public static final String TIMEOUT = "timeout";
+
+    // the error of an update the house did not apply
+    private static final String NOT_APPLIED = "The house did not apply the update";
+
+    private final String id;
+    private final String owner;
+    private final long created = System.currentTimeMillis();
+
+    private final List<Update> updates = new ArrayList<>();
+    private final List<Result> results = new ArrayList<>();
+
+    // the next update to start, and how many have finished
+    private final AtomicInteger next = new AtomicInteger(0);
+    private final AtomicInteger finished = new AtomicInteger(0);
+
+    private final CompletableFuture<BatchJob> completion = new CompletableFuture<>();
+
+    /**
+     * Create a new job
+     * @param id the job id
+     * @param owner the name of the user who submitted the job
+     */
+    public BatchJob(String id, String owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    /**
+     * Add an update to the job. Must be called before the job starts.
+     * @param house the house name
+     * @param operation starts the update and completes with true when the house is updated, or
+     *                  false if it was not; a house update that times out is completed with a
+     *                  TimeoutException, so one still waiting for the house is never sent
+     */
+    public void add(String house, Supplier<CompletableFuture<Boolean>> operation) {
+        updates.add(new Update(operation));
+        results.add(new Result(house));
+    }
+
+    /**
+     * Add an update that failed before it could start, such as one for an unknown house
+     * @param house the house name
+     * @param error why the update failed
+     */
+    public void addFailed(String house, String error) {
+        updates.add(null);
+        Result result = new Result(house);
+        result.status = FAILED;
+        result.error = error;
+        results.add(result);
+    }
+
+    /**
+     * Start the updates
+     * @param parallelism how many updates may run at once
+     * @param deadline how many seconds each house may take
+     * @return completes when every update has finished
+     */
+    public CompletableFuture<BatchJob> start(int parallelism, int deadline) {
+        if (updates.isEmpty()) {
+            completion.complete(this);
+        }
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            startNext(deadline);
+        }
+        return completion;
+    }
+
+    private void startNext(int deadline) {
+        while (true) {
+            int index = next.getAndIncrement();
+            if (index >= updates.size()) {
+                return;
+            }
+            Update update = updates.get(index);
+            Result result = results.get(index);
+            if (update == null) {
+                if (finishOne()) {
+                    return;
+                }
+                continue;
+            }
+
+            CompletableFuture<Boolean> operation;
+            try {
+                // the timeout completes the update itself, not a copy of it
+                operation = update.operation.get();
+                operation.orTimeout(deadline, TimeUnit.SECONDS);
+            } catch (RuntimeException x) {
+                operation = CompletableFuture.failedFuture(x);
+            }
+            // updates that are over already are finished here rather than recursively
+            if (operation.isDone()) {
+                record(result, operation);
+                if (finishOne()) {
+                    return;
+                }
+                continue;
+            }
+            CompletableFuture<Boolean> running = operation;
+            running.whenComplete((ok, x) -> {
+                record(result, running);
+                if (!finishOne()) {
+                    startNext(deadline);
+                }
+            });
+            return;
+        }
+    }
+
+    private void record(Result result, CompletableFuture<Boolean> operation) {
+        synchronized (result) {
+            try {
+                if (Boolean.TRUE.equals(operation.join())) {
+                    result.status = OK;
+                } else {
+                    result.status = FAILED;
+                    result.error = NOT_APPLIED;
+                }
+            } catch (CompletionException | CancellationException x) {
+                Throwable cause = x.getCause() != null ? x.getCause() : x;
+                result.status = cause instanceof TimeoutException ? TIMEOUT : FAILED;
+                result.error = String.valueOf(cause.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Count a finished update
+     * @return true if it was the last one
+     */
+    private boolean finishOne() {
+        if (finished.incrementAndGet() == updates.size()) {
+            completion.complete(this);
+            return true;
+        }
+        return false;
+    }
+
+    @JsonProperty
+    public String getId() {
+        return id;
+    }
+
+    @JsonIgnore
+    public String getOwner() {
+        return owner;
+    }
+
+    @JsonIgnore
+    public long getCreated() {
+        return created;
+    }
+
+    @JsonProperty
+    public int getTotal() {
+        return updates.size();
+    }
+
+    @JsonProperty
+    public int getCompleted() {
+        return finished.get();
+    }
+
+    @JsonProperty
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+    @JsonProperty
+    public List<Result> getResults() {
+        List<Result> copy = new ArrayList<>(results.size());
+        for (Result result : results) {
+            synchronized (result) {
+                copy.add(result.copy());
+            }
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * A house update waiting to start
+     */
+    private static class Update {
+        final Supplier<CompletableFuture<Boolean>> operation;
+
+        Update(Supplier<CompletableFuture<Boolean>> operation) {
+            this.operation = operation;
+        }
+    }
+
+    /**
+     * The outcome of one house update
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Result {
+        @JsonProperty
+        private final String house;
+
+        @JsonProperty
+        private String status = PENDING;
+
+        @JsonProperty
+        private String error;
+
+        Result(String house) {
+            this.house = house;
+        }
+
+        Result copy() {
+            Result copy = new Result(house);
+            copy.status = status;
+            copy.error = error;
+            return copy;
+        }
+
+        public String getHouse() {
+            return house;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
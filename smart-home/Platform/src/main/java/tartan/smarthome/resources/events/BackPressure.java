@@ -0,0 +1,15 @@
+package tartan.smarthome.resources.events;
+
+/**
+ * What the event bus does when a subscriber's queue is full
+ */
+public enum BackPressure {
+    /** drop the oldest queued event to make room for the new one */
+    DROP_OLDEST,
+
+    /** keep only the newest queued event of each house; older states are superseded anyway */
+    CONFLATE,
+
+    /** make the publisher wait, for a bounded time, until the subscriber makes room */
+    BLOCK
+}
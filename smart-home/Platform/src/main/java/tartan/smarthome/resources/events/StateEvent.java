@@ -0,0 +1,60 @@
+package tartan.smarthome.resources.events;
+
+import java.util.Map;
+
+/**
+ * A house state published by a controller after an evaluation
+ */
+public class StateEvent {
+
+    private final String house;
+    private final long version;
+    private final Map<String, Object> state;
+    private final long timestamp;
+
+    /**
+     * Create a new event
+     * @param house the house name
+     * @param version the controller state version
+     * @param state the published state; it must not be changed after publishing
+     * @param timestamp when the state was published, in milliseconds since the epoch
+     */
+    public StateEvent(String house, long version, Map<String, Object> state, long timestamp) {
+        this.house = house;
+        this.version = version;
+        this.state = state;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Get the house name
+     * @return the house name
+     */
+    public String getHouse() {
+        return house;
+    }
+
+    /**
+     * Get the controller state version
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the published state
+     * @return the state
+     */
+    public Map<String, Object> getState() {
+        return state;
+    }
+
+    /**
+     * Get the publishing time
+     * @return milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,332 @@
+package tartan.smarthome.resources.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The in-process bus that carries published house states to everything downstream of the
+ * controllers: the state caches, the long polls and the streaming endpoints. Controllers publish
+ * each evaluated state once; consumers subscribe to one house or to all of them instead of polling.
+ *
+ * Every subscriber has its own bounded queue, drained on the bus executor as the subscriber
+ * requests events, and its own back-pressure policy for when that queue is full. A slow consumer
+ * therefore never delays the others, and (unless it asks for BLOCK) never the controller either.
+ */
+public class StateEventBus implements Flow.Publisher<StateEvent> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateEventBus.class);
+
+    // the names of the consumers, as used to configure their back-pressure policies
+    public static final String STREAM = "stream";
+    public static final String LONG_POLL = "longPoll";
+
+    // the longest a BLOCK subscriber may hold up a publisher before the event is dropped
+    private static final long BLOCK_TIMEOUT_MILLIS = 1000;
+
+    private final Executor executor;
+    private final int bufferSize;
+
+    // the back-pressure policy of each named consumer
+    private final Map<String, BackPressure> policies;
+
+    // subscribers to one house, and subscribers to every house
+    private final Map<String, List<BusSubscription>> houseSubscriptions = new ConcurrentHashMap<>();
+    private final List<BusSubscription> allSubscriptions = new CopyOnWriteArrayList<>();
+
+    // events dropped because a subscriber queue was full
+    private final AtomicLong dropped = new AtomicLong(0);
+
+    /**
+     * Create a new bus
+     * @param executor delivers the events to the subscribers
+     * @param bufferSize the size of each subscriber queue
+     * @param policies the back-pressure policy of each named consumer; others use DROP_OLDEST
+     */
+    public StateEventBus(Executor executor, int bufferSize, Map<String, BackPressure> policies) {
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.policies = policies == null ? Collections.emptyMap() : new HashMap<>(policies);
+    }
+
+    /**
+     * Publish a house state to its subscribers
+     * @param event the state
+     */
+    public void publish(StateEvent event) {
+        List<BusSubscription> subscriptions = houseSubscriptions.get(event.getHouse());
+        if (subscriptions != null) {
+            for (BusSubscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+        }
+        for (BusSubscription subscription : allSubscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Subscribe to the states of every house, with the default queue and policy
+     * @param subscriber the subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super StateEvent> subscriber) {
+        subscribe(null, subscriber, BackPressure.DROP_OLDEST, bufferSize);
+    }
+
+    /**
+     * Subscribe to the states of a house
+     * @param house the house name, or null for every house
+     * @param subscriber the subscriber
+     * @param policy what to do when the subscriber queue is full
+     * @param capacity the size of the subscriber queue
+     */
+    public void subscribe(String house, Flow.Subscriber<? super StateEvent> subscriber,
+                         BackPressure policy, int capacity) {
+        BusSubscription subscription = new BusSubscription(house, subscriber, policy, capacity);
+        if (house == null) {
+            allSubscriptions.add(subscription);
+        } else {
+            houseSubscriptions.computeIfAbsent(house, h -> new CopyOnWriteArrayList<>()).add(subscription);
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Subscribe a named consumer to the states of a house. The consumer gets the queue size and
+     * back-pressure policy configured for its name, and every event it can keep up with.
+     * @param house the house name, or null for every house
+     * @param consumer the consumer name, used to look up its back-pressure policy
+     * @param handler called with each event, on the bus executor
+     * @return the subscription, to cancel it
+     */
+    public Flow.Subscription subscribe(String house, String consumer, Consumer<StateEvent> handler) {
+        BackPressure policy = policies.getOrDefault(consumer, BackPressure.DROP_OLDEST);
+        HandlerSubscriber subscriber = new HandlerSubscriber(consumer, handler);
+        subscribe(house, subscriber, policy, bufferSize);
+        return subscriber.subscription;
+    }
+
+    /**
+     * Get the number of events dropped because a subscriber could not keep up
+     * @return the dropped event count
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Get the number of subscriptions
+     * @return the subscription count
+     */
+    public int getSubscriberCount() {
+        int count = allSubscriptions.size();
+        for (List<BusSubscription> subscriptions : houseSubscriptions.values()) {
+            count += subscriptions.size();
+        }
+        return count;
+    }
+
+    private void remove(BusSubscription subscription) {
+        if (subscription.house == null) {
+            allSubscriptions.remove(subscription);
+        } else {
+            List<BusSubscription> subscriptions = houseSubscriptions.get(subscription.house);
+            if (subscriptions != null) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    /**
+     * A subscriber's bounded queue and demand
+     */
+    private class BusSubscription implements Flow.Subscription {
+        final String house;
+        final Flow.Subscriber<? super StateEvent> subscriber;
+        final BackPressure policy;
+        final int capacity;
+
+        // the queue and demand are guarded by the lock
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notFull = lock.newCondition();
+        final Deque<StateEvent> queue = new ArrayDeque<>();
+        long demand = 0;
+        volatile boolean cancelled = false;
+
+        // schedules at most one drain at a time
+        final AtomicInteger wip = new AtomicInteger(0);
+
+        BusSubscription(String house, Flow.Subscriber<? super StateEvent> subscriber,
+                        BackPressure policy, int capacity) {
+            this.house = house;
+            this.subscriber = subscriber;
+            this.policy = policy;
+            this.capacity = Math.max(1, capacity);
+        }
+
+        void offer(StateEvent event) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                switch (policy) {
+                    case CONFLATE:
+                        queue.removeIf(e -> e.getHouse().equals(event.getHouse()));
+                        if (queue.size() >= capacity) {
+                            queue.pollFirst();
+                            dropped.incrementAndGet();
+                        }
+                        break;
+                    case BLOCK:
+                        long wait = TimeUnit.MILLISECONDS.toNanos(BLOCK_TIMEOUT_MILLIS);
+                        while (queue.size() >= capacity && !cancelled) {
+                            if (wait <= 0) {
+                                dropped.incrementAndGet();
+                                return;
+                            }
+                            try {
+                                wait = notFull.awaitNanos(wait);
+                            } catch (InterruptedException ie) {
+                                Thread.currentThread().interrupt();
+                                dropped.incrementAndGet();
+                                return;
+                            }
+                        }
+                        break;
+                    default:
+                        if (queue.size() >= capacity) {
+                            queue.pollFirst();
+                            dropped.incrementAndGet();
+                        }
+                }
+                queue.addLast(event);
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Non-positive request " + n));
+                return;
+            }
+            lock.lock();
+            try {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            } finally {
+                lock.unlock();
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            remove(this);
+            lock.lock();
+            try {
+                queue.clear();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        void drain() {
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    StateEvent event;
+                    lock.lock();
+                    try {
+                        if (demand == 0 || queue.isEmpty()) {
+                            break;
+                        }
+                        event = queue.pollFirst();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    try {
+                        subscriber.onNext(event);
+                    } catch (RuntimeException x) {
+                        LOGGER.error("Event subscriber failed; cancelling its subscription", x);
+                        cancel();
+                        subscriber.onError(x);
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+
+    /**
+     * Adapts an event handler to a subscriber that takes every event it can keep up with
+     */
+    private static class HandlerSubscriber implements Flow.Subscriber<StateEvent> {
+        final String consumer;
+        final Consumer<StateEvent> handler;
+        Flow.Subscription subscription;
+
+        HandlerSubscriber(String consumer, Consumer<StateEvent> handler) {
+            this.consumer = consumer;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(StateEvent item) {
+            // one failed event must not end the subscription
+            try {
+                handler.accept(item);
+            } catch (RuntimeException x) {
+                LOGGER.error("Event consumer " + consumer + " failed for house " + item.getHouse(), x);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOGGER.error("Event consumer " + consumer + " stopped", throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
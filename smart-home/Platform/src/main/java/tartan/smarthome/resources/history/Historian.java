@@ -0,0 +1,168 @@
+package tartan.smarthome.resources.history;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.db.HomeDAO;
+import tartan.smarthome.resources.HouseRegistry;
+import tartan.smarthome.resources.StateSnapshot;
+import tartan.smarthome.resources.TartanHomeService;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the history of every house. On each tick it samples the state each house last
+ * published, which costs no call to the houses, and writes all of the samples in one transaction
+ * as batched inserts. There is one historian for the server, not a thread per house.
+ *
+ * In changes-only mode a house gets a row only when its state differs from the last row written
+ * for it, or when the heartbeat has passed since that row. The history is then a step function
+ * (see HistoryTimeline), and a gap longer than the heartbeat is a time the house was not recorded.
+ *
+ * With a spool, the samples are appended to it and written to the database later by a
+ * SpoolDrainer, so a slow or failing database never holds up the ticks or loses the samples.
+ */
+public class Historian implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Historian.class);
+
+    private final HouseRegistry registry;
+    private final HomeDAO homeDAO;
+
+    // holds the samples until they are drained to the database, or null to write them directly
+    private final HistorySpool spool;
+
+    // runs the ticks
+    private final ScheduledExecutorService ticker;
+
+    // the time between samples, in seconds, and the number of inserts per JDBC batch
+    private final long interval;
+    private final int batchSize;
+
+    // whether unchanged states are skipped, and the longest time without a row for a house, in seconds
+    private final boolean changesOnly;
+    private final long heartbeat;
+
+    // the last row written for each house; only the tick thread uses it
+    private final Map<String, TartanHomeData> lastRows = new HashMap<>();
+
+    private ScheduledFuture<?> ticks;
+
+    /**
+     * Create a new historian
+     * @param registry the houses to record
+     * @param homeDAO writes the history
+     * @param spool holds the history until it is drained, or null to write it directly
+     * @param ticker runs the ticks
+     * @param interval the time between samples, in seconds
+     * @param batchSize the number of inserts per JDBC batch
+     * @param changesOnly true to write a row only when the state of a house changes, or for a heartbeat
+     * @param heartbeat in changes-only mode, the longest time without a row for a house, in seconds
+     */
+    public Historian(HouseRegistry registry, HomeDAO homeDAO, HistorySpool spool, ScheduledExecutorService ticker,
+                     long interval, int batchSize, boolean changesOnly, long heartbeat) {
+        this.registry = registry;
+        this.homeDAO = homeDAO;
+        this.spool = spool;
+        this.ticker = ticker;
+        this.interval = Math.max(1, interval);
+        this.batchSize = Math.max(1, batchSize);
+        this.changesOnly = changesOnly;
+        this.heartbeat = Math.max(this.interval, heartbeat);
+    }
+
+    /**
+     * Start sampling
+     */
+    @Override
+    public void start() {
+        ticks = ticker.scheduleAtFixedRate(this::tick, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop sampling. A tick that is writing finishes
+     */
+    @Override
+    public void stop() {
+        if (ticks != null) {
+            ticks.cancel(false);
+            ticks = null;
+        }
+    }
+
+    /**
+     * Fetch the history of a house as a step function
+     * @param house the house name
+     * @param from the start of the period
+     * @param to the end of the period
+     * @return the rows in effect over the period
+     */
+    public HistoryTimeline getHistory(String house, Date from, Date to) {
+        // a row can be a tick late, after a heartbeat or after the previous tick
+        long maxGap = ((changesOnly ? heartbeat : interval) + interval) * 1000;
+        return new HistoryTimeline(homeDAO.findHistory(house, from, to), maxGap);
+    }
+
+    /**
+     * Sample the houses and write the samples. Failures are logged, so that the next tick runs
+     */
+    private void tick() {
+        try {
+            List<TartanHomeData> rows = sample();
+            if (!rows.isEmpty()) {
+                if (spool == null) {
+                    homeDAO.createAll(rows, batchSize);
+                } else if (!spool.append(rows)) {
+                    LOGGER.error("The history spool is full; dropped the state of " + rows.size() + " houses");
+                    return;
+                }
+                LOGGER.info("Logged the state of " + rows.size() + " houses");
+                for (TartanHomeData row : rows) {
+                    lastRows.put(row.getHomeName(), row);
+                }
+            }
+        } catch (RuntimeException x) {
+            LOGGER.error("Failed to save the house states", x);
+        }
+    }
+
+    /**
+     * Sample the published state of every house that is logging history
+     * @return one row per house that has a state to record
+     */
+    private List<TartanHomeData> sample() {
+        List<TartanHomeData> rows = new ArrayList<>(registry.size());
+        long now = System.currentTimeMillis();
+        for (TartanHomeService service : registry.getServices()) {
+            StateSnapshot snapshot = service.getHistorySnapshot();
+            if (snapshot != null) {
+                TartanHomeData row = new TartanHomeData(snapshot.getHome());
+                if (!changesOnly || isDue(row, lastRows.get(row.getHomeName()), now)) {
+                    rows.add(row);
+                }
+            }
+        }
+        // forget the houses that were removed
+        lastRows.keySet().removeIf(house -> registry.get(house) == null);
+        return rows;
+    }
+
+    /**
+     * Decide whether a sample must be written in changes-only mode
+     * @param row the sample
+     * @param last the last row written for the house, or null
+     * @param now the current time
+     * @return true if the state changed or the heartbeat is due
+     */
+    private boolean isDue(TartanHomeData row, TartanHomeData last, long now) {
+        return !row.sameState(last) || now - last.getCreateTimeStamp().getTime() >= heartbeat * 1000;
+    }
+}
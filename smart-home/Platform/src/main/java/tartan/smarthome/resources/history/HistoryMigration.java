@@ -0,0 +1,89 @@
+package tartan.smarthome.resources.history;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.db.HomeDAO;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the history kept in the old text-valued table into the typed history table while the
+ * server runs. Each chunk is copied and deleted in one transaction, with a pause between chunks so
+ * the migration does not crowd out the historian; a server stopped halfway carries on from where
+ * it was on its next start. Once the old table is empty the migration stops.
+ */
+public class HistoryMigration implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryMigration.class);
+
+    // the pause between chunks, and after a failed chunk, in milliseconds
+    private static final long CHUNK_DELAY = 100;
+    private static final long RETRY_DELAY = 60_000;
+
+    private final HomeDAO homeDAO;
+    private final ScheduledExecutorService executor;
+    private final int chunkSize;
+
+    private volatile boolean running = false;
+    private long moved = 0;
+
+    /**
+     * Create a new migration
+     * @param homeDAO moves the rows
+     * @param executor runs the migration; it should have a thread of its own
+     * @param chunkSize the most rows moved per transaction
+     */
+    public HistoryMigration(HomeDAO homeDAO, ScheduledExecutorService executor, int chunkSize) {
+        this.homeDAO = homeDAO;
+        this.executor = executor;
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Start moving rows
+     */
+    @Override
+    public void start() {
+        running = true;
+        executor.execute(this::migrate);
+    }
+
+    /**
+     * Stop after the chunk being moved, if any
+     */
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Move one chunk, then schedule the next, until there are no more
+     */
+    private void migrate() {
+        if (!running) {
+            return;
+        }
+        long delay = CHUNK_DELAY;
+        try {
+            int count = homeDAO.migrateLegacy(chunkSize);
+            if (count == 0) {
+                if (moved > 0) {
+                    LOGGER.info("Moved " + moved + " history rows to the typed history table");
+                }
+                return;
+            }
+            moved += count;
+        } catch (RuntimeException x) {
+            delay = RETRY_DELAY;
+            LOGGER.error("Failed to move the old history rows; trying again in " + delay + "ms", x);
+        }
+        try {
+            executor.schedule(this::migrate, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException x) {
+            // the server is stopping
+        }
+    }
+}
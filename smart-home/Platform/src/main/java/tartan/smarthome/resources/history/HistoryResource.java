@@ -0,0 +1,137 @@
+package tartan.smarthome.resources.history;
+
+import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.auth.Auth;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.auth.TartanUser;
+import tartan.smarthome.core.ReadingText;
+import tartan.smarthome.core.TartanHomeData;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves the recorded history of the houses. A house's history is a step function: each row holds
+ * until the next one, unless the gap to it is longer than the historian leaves between rows, in
+ * which case the house was not being recorded.
+ */
+@Path("/smarthome/history")
+@Produces(MediaType.APPLICATION_JSON)
+public class HistoryResource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryResource.class);
+
+    // the period served when none is asked for, and the longest that may be, in milliseconds
+    private static final long DEFAULT_PERIOD = 24 * 60 * 60 * 1000L;
+    private static final long MAX_PERIOD = 7 * DEFAULT_PERIOD;
+
+    // reads the history
+    private final Historian historian;
+
+    /**
+     * Serve the history a historian records
+     * @param historian the historian
+     */
+    public HistoryResource(Historian historian) {
+        this.historian = historian;
+    }
+
+    /**
+     * Fetch the history of a house over a period via HTTP GET. Managed by Jersey
+     * @param house the house name
+     * @param from the start of the period, in milliseconds since the epoch; a day before the end by default
+     * @param to the end of the period, in milliseconds since the epoch; now by default
+     * @param user the user allowed to access the house
+     * @return the rows in effect over the period, oldest first, BAD_REQUEST if the period is
+     * backwards or longer than a week, or UNAUTHORIZED
+     */
+    @GET
+    @Path("/{house}")
+    @Timed
+    public Response history(@PathParam("house") String house, @QueryParam("from") Long from,
+                            @QueryParam("to") Long to, @Auth TartanUser user) {
+        if (!user.mayAccess(house)) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        long end = to == null ? System.currentTimeMillis() : to;
+        long start = from == null ? end - DEFAULT_PERIOD : from;
+        if (start > end || end - start > MAX_PERIOD) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        LOGGER.info("Received a history GET for house " + house);
+
+        HistoryTimeline timeline = historian.getHistory(house, new Date(start), new Date(end));
+        List<Map<String, Object>> rows = new ArrayList<>(timeline.getRows().size());
+        for (TartanHomeData row : timeline.getRows()) {
+            rows.add(toEntry(row));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("house", house);
+        body.put("from", start);
+        body.put("to", end);
+        body.put("rows", rows);
+        return Response.ok(body).build();
+    }
+
+    /**
+     * Fetch the state a house was in at a time via HTTP GET. Managed by Jersey
+     * @param house the house name
+     * @param time the time, in milliseconds since the epoch
+     * @param user the user allowed to access the house
+     * @return the row in effect, NOT_FOUND if the house was not being recorded then,
+     * BAD_REQUEST without a time, or UNAUTHORIZED
+     */
+    @GET
+    @Path("/{house}/at")
+    @Timed
+    public Response at(@PathParam("house") String house, @QueryParam("time") Long time, @Auth TartanUser user) {
+        if (!user.mayAccess(house)) {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        if (time == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        Date at = new Date(time);
+        TartanHomeData row = historian.getHistory(house, at, at).at(at);
+        if (row == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(toEntry(row)).build();
+    }
+
+    /**
+     * Convert a row to what clients see: the readings as text and the devices as their words
+     * @param row the row
+     * @return the time of the row and its values; values it did not record are left out
+     */
+    private static Map<String, Object> toEntry(TartanHomeData row) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("time", row.getCreateTimeStamp().getTime());
+        put(entry, "targetTemp", ReadingText.of(row.getTargetTemp()));
+        put(entry, "temperature", ReadingText.of(row.getTemperature()));
+        put(entry, "humidity", ReadingText.of(row.getHumidity()));
+        put(entry, "alarmDelay", ReadingText.of(row.getAlarmDelay()));
+        put(entry, "door", row.getDoor());
+        put(entry, "light", row.getLight());
+        put(entry, "humidifier", row.getHumidifier());
+        put(entry, "proximity", row.getProximity());
+        put(entry, "hvacMode", row.getHvacMode());
+        put(entry, "hvacState", row.getHvacState());
+        put(entry, "alarmActive", row.getAlarmActive());
+        put(entry, "alarmArmed", row.getAlarmArmed());
+        return entry;
+    }
+
+    private static void put(Map<String, Object> entry, String key, Object value) {
+        if (value != null) {
+            entry.put(key, String.valueOf(value));
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package tartan.smarthome.resources.history;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.dropwizard.jackson.Jackson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.core.TartanHomeData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A local, append-only spool of history rows in a memory-mapped file, so that the historian never
+ * waits on the database. Rows are acknowledged once they are appended and forced to the file; a
+ * drainer then takes them from the head in batches and commits each batch once it is in the
+ * database. Whatever was not drained when the server stopped is still in the file when it starts.
+ *
+ * The file starts with a header holding the read and write positions, followed by the records:
+ * a length, the row's creation time and the row in Smile. Drained space is reclaimed when the
+ * spool empties, or by moving the undrained records to the front when an append does not fit.
+ * A row is drained at least once: one whose batch was committed to the database but not yet to
+ * the header when the server stopped is drained again. A record that cannot be read back is
+ * skipped and counted, rather than holding up the rows behind it.
+ */
+public class HistorySpool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistorySpool.class);
+
+    // marks a spool file, and the header: magic, unused, read position, write position
+    private static final int MAGIC = 0x54485350;
+    private static final int READ_POS = 8;
+    private static final int WRITE_POS = 16;
+    private static final int HEADER = 24;
+
+    // the length and creation time in front of each row
+    private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES;
+
+    // writes the rows; their ids are given by the database when they are drained
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper(new SmileFactory())
+            .addMixIn(TartanHomeData.class, SpooledRow.class);
+
+    @JsonIgnoreProperties({"id", "house"})
+    private abstract static class SpooledRow {
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // the first undrained record and the end of the last record
+    private int readPos;
+    private int writePos;
+
+    // the records between them, and the bytes and records handed out by peek but not committed yet,
+    // unreadable ones included
+    private int depth;
+    private int pendingBytes;
+    private int pendingCount;
+    private int pendingCorrupt;
+
+    // rows refused because the spool was full, and records skipped because they could not be read
+    private long dropped;
+    private long corrupt;
+
+    /**
+     * Open a spool, creating the file if there is none. The records left in an existing file are
+     * drained first.
+     * @param file the spool file
+     * @param capacity the size of a new file in bytes; an existing file keeps its size
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public HistorySpool(Path file, int capacity) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.capacity = (int) Math.max(Math.max(capacity, HEADER * 2), Math.min(channel.size(), Integer.MAX_VALUE));
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        recover();
+    }
+
+    /**
+     * Append rows, all of them or none
+     * @param rows the rows
+     * @return true once they are in the file, false if they do not fit
+     */
+    public boolean append(List<TartanHomeData> rows) {
+        List<byte[]> records = new ArrayList<>(rows.size());
+        int needed = 0;
+        for (TartanHomeData row : rows) {
+            byte[] record = encode(row);
+            records.add(record);
+            needed += RECORD_HEADER + record.length;
+        }
+
+        lock.lock();
+        try {
+            if (writePos + needed > capacity) {
+                compact();
+                if (writePos + needed > capacity) {
+                    dropped += rows.size();
+                    return false;
+                }
+            }
+            int position = writePos;
+            for (int i = 0; i < records.size(); i++) {
+                byte[] record = records.get(i);
+                buffer.putInt(position, record.length);
+                buffer.putLong(position + Integer.BYTES, rows.get(i).getCreateTimeStamp().getTime());
+                buffer.put(position + RECORD_HEADER, record);
+                position += RECORD_HEADER + record.length;
+            }
+            // the records are written before the position that makes them part of the spool
+            buffer.force(writePos, position - writePos);
+            writePos = position;
+            depth += rows.size();
+            buffer.putLong(WRITE_POS, writePos);
+            buffer.force(0, HEADER);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the oldest rows without removing them. Each call starts over from the oldest row, until
+     * the rows are committed. Records that cannot be read are left out, and removed with the rows
+     * by the commit; if none of the records could be read they are removed at once.
+     * @param max the most rows to get
+     * @return up to max rows, oldest first
+     */
+    public List<TartanHomeData> peek(int max) {
+        lock.lock();
+        try {
+            List<TartanHomeData> rows = new ArrayList<>(Math.min(max, depth));
+            int position = readPos;
+            int count = 0;
+            int skipped = 0;
+            while (count < max && position < writePos) {
+                int length = buffer.getInt(position);
+                byte[] record = new byte[length];
+                buffer.get(position + RECORD_HEADER, record);
+                TartanHomeData row = decode(record);
+                if (row == null) {
+                    skipped++;
+                } else {
+                    rows.add(row);
+                }
+                count++;
+                position += RECORD_HEADER + length;
+            }
+            pendingBytes = position - readPos;
+            pendingCount = count;
+            pendingCorrupt = skipped;
+            if (rows.isEmpty() && count > 0) {
+                commit();
+            }
+            return rows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the rows the last peek returned, once they are in the database
+     */
+    public void commit() {
+        lock.lock();
+        try {
+            readPos += pendingBytes;
+            depth -= pendingCount;
+            corrupt += pendingCorrupt;
+            pendingBytes = 0;
+            pendingCount = 0;
+            pendingCorrupt = 0;
+            if (readPos == writePos) {
+                // empty: start again at the front
+                readPos = HEADER;
+                writePos = HEADER;
+                buffer.putLong(WRITE_POS, writePos);
+            }
+            buffer.putLong(READ_POS, readPos);
+            buffer.force(0, HEADER);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of rows waiting to be drained
+     * @return the depth
+     */
+    public int getDepth() {
+        lock.lock();
+        try {
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get how long the oldest waiting row has waited
+     * @param now the current time
+     * @return the wait in milliseconds, or 0 if no row is waiting
+     */
+    public long getLag(long now) {
+        lock.lock();
+        try {
+            return depth == 0 ? 0 : Math.max(0, now - buffer.getLong(readPos + Integer.BYTES));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of rows refused because the spool was full
+     * @return the dropped count
+     */
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of records skipped because they could not be read
+     * @return the corrupt record count
+     */
+    public long getCorrupt() {
+        lock.lock();
+        try {
+            return corrupt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the file. The spool cannot be used afterwards
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            buffer.force();
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read the positions from the header, or start an empty spool if the file is new or not a
+     * spool, and count the waiting records
+     */
+    private void recover() {
+        readPos = (int) buffer.getLong(READ_POS);
+        writePos = (int) buffer.getLong(WRITE_POS);
+        if (buffer.getInt(0) != MAGIC || readPos < HEADER || writePos < readPos || writePos > capacity) {
+            readPos = HEADER;
+            writePos = HEADER;
+            buffer.putLong(READ_POS, readPos);
+            buffer.putLong(WRITE_POS, writePos);
+            buffer.putInt(0, MAGIC);
+            buffer.force(0, HEADER);
+        }
+        depth = 0;
+        int position = readPos;
+        while (position < writePos) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > writePos) {
+                // not a record: keep the ones before it
+                writePos = position;
+                buffer.putLong(WRITE_POS, writePos);
+                buffer.force(0, HEADER);
+                break;
+            }
+            depth++;
+            position += RECORD_HEADER + length;
+        }
+    }
+
+    /**
+     * Move the waiting records to the front of the file. Rows handed out by peek stay at the head,
+     * so a commit still removes the right ones. The records are only moved into free space, so a
+     * crash before the header is updated leaves them where the header says they are.
+     */
+    private void compact() {
+        if (readPos - HEADER < writePos - readPos) {
+            return;
+        }
+        byte[] waiting = new byte[writePos - readPos];
+        buffer.get(readPos, waiting);
+        buffer.put(HEADER, waiting);
+        buffer.force(HEADER, waiting.length);
+        readPos = HEADER;
+        writePos = HEADER + waiting.length;
+        buffer.putLong(READ_POS, readPos);
+        buffer.putLong(WRITE_POS, writePos);
+        buffer.force(0, HEADER);
+    }
+
+    private static byte[] encode(TartanHomeData row) {
+        try {
+            return MAPPER.writeValueAsBytes(row);
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Read a row back
+     * @param record the row in Smile
+     * @return the row, or null if the record is not a row
+     */
+    private static TartanHomeData decode(byte[] record) {
+        try {
+            return MAPPER.readValue(record, TartanHomeData.class);
+        } catch (IOException | RuntimeException x) {
+            LOGGER.error("Skipping an unreadable history spool record of " + record.length + " bytes", x);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package tartan.smarthome.resources.history;
+
+import tartan.smarthome.core.TartanHomeData;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The history of one house as a step function. A row holds from its creation time until the next
+ * row, since rows are only written when something changes. The historian also writes a heartbeat
+ * row while nothing changes, so a row older than the longest gap between rows means the house was
+ * not being recorded, not that it was unchanged.
+ */
+public class HistoryTimeline {
+
+    // the rows, oldest first
+    private final List<TartanHomeData> rows;
+
+    // the longest a row holds without a newer one, in milliseconds
+    private final long maxGap;
+
+    /**
+     * Create a new timeline
+     * @param rows the rows, oldest first
+     * @param maxGap the longest time between two rows while the house is recorded, in milliseconds
+     */
+    public HistoryTimeline(List<TartanHomeData> rows, long maxGap) {
+        this.rows = rows;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Get the rows
+     * @return the rows, oldest first
+     */
+    public List<TartanHomeData> getRows() {
+        return rows;
+    }
+
+    /**
+     * Find the state of the house at a time
+     * @param time the time
+     * @return the row in effect at that time, or null if the time is before the first row or in a gap in the recording
+     */
+    public TartanHomeData at(Date time) {
+        int low = 0;
+        int high = rows.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (rows.get(middle).getCreateTimeStamp().after(time)) {
+                high = middle - 1;
+            } else {
+                found = middle;
+                low = middle + 1;
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+        TartanHomeData row = rows.get(found);
+        if (time.getTime() - row.getCreateTimeStamp().getTime() > maxGap) {
+            return null;
+        }
+        return row;
+    }
+}
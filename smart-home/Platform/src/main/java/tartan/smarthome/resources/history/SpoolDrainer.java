@@ -0,0 +1,119 @@
+package tartan.smarthome.resources.history;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.db.HomeDAO;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves the history rows from the spool to the database, one batch per transaction, on its own
+ * thread. While the database is down or failing, the rows stay in the spool and the drainer tries
+ * again after a delay that doubles with each failure. The spool depth, the lag of its oldest row,
+ * the drain rate, the rows dropped by a full spool and the unreadable records skipped are reported
+ * in the metrics.
+ */
+public class SpoolDrainer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpoolDrainer.class);
+
+    // how long to wait when the spool is empty, and the longest wait after failures, in milliseconds
+    private static final long IDLE_DELAY = 1000;
+    private static final long MAX_RETRY_DELAY = 60_000;
+
+    private final HistorySpool spool;
+    private final HomeDAO homeDAO;
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+
+    // rows written to the database
+    private final Meter drained;
+
+    private volatile boolean running = false;
+    private int failures = 0;
+
+    /**
+     * Create a new drainer
+     * @param spool the spool to drain
+     * @param homeDAO writes the rows
+     * @param executor runs the drainer; it should have a thread of its own
+     * @param batchSize the most rows written per transaction
+     * @param metrics where the spool depth, lag, drain rate, dropped rows and skipped records are reported
+     */
+    public SpoolDrainer(HistorySpool spool, HomeDAO homeDAO, ScheduledExecutorService executor, int batchSize,
+                        MetricRegistry metrics) {
+        this.spool = spool;
+        this.homeDAO = homeDAO;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+
+        metrics.register(MetricRegistry.name(HistorySpool.class, "depth"), (Gauge<Integer>) spool::getDepth);
+        metrics.register(MetricRegistry.name(HistorySpool.class, "lag"),
+                (Gauge<Long>) () -> spool.getLag(System.currentTimeMillis()));
+        metrics.register(MetricRegistry.name(HistorySpool.class, "dropped"), (Gauge<Long>) spool::getDropped);
+        metrics.register(MetricRegistry.name(HistorySpool.class, "corrupt"), (Gauge<Long>) spool::getCorrupt);
+        this.drained = metrics.meter(MetricRegistry.name(HistorySpool.class, "drained"));
+    }
+
+    /**
+     * Start draining, beginning with whatever the spool kept from the last run
+     */
+    @Override
+    public void start() {
+        running = true;
+        int waiting = spool.getDepth();
+        if (waiting > 0) {
+            LOGGER.info("Replaying " + waiting + " spooled history rows");
+        }
+        executor.execute(this::drain);
+    }
+
+    /**
+     * Stop draining. The rows not drained yet stay in the spool for the next run
+     */
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        spool.close();
+    }
+
+    /**
+     * Write one batch, then schedule the next: at once while rows wait, later if the spool is
+     * empty or the write failed
+     */
+    private void drain() {
+        if (!running) {
+            return;
+        }
+        long delay = 0;
+        try {
+            List<TartanHomeData> rows = spool.peek(batchSize);
+            if (rows.isEmpty()) {
+                delay = IDLE_DELAY;
+            } else {
+                homeDAO.createAll(rows, batchSize);
+                spool.commit();
+                drained.mark(rows.size());
+                failures = 0;
+            }
+        } catch (RuntimeException x) {
+            delay = Math.min(MAX_RETRY_DELAY, IDLE_DELAY << Math.min(failures, 16));
+            failures++;
+            LOGGER.error("Failed to drain the history spool; " + spool.getDepth() + " rows wait, trying again in "
+                    + delay + "ms", x);
+        }
+        try {
+            executor.schedule(this::drain, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException x) {
+            // the server is stopping
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package tartan.smarthome.resources.iotcontroller;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control for the one socket of a house. Only one exchange with the house runs at a
+ * time; when the socket frees up, the waiting security commands go first, then user commands.
+ * Background work never waits: it is shed whenever the socket is busy or anything else is
+ * waiting, so a saturated house spends its time on the commands people are waiting for.
+ */
+public class HouseAdmission {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // one queue of waiting threads per lane, and how many wait in each
+    private final Map<Priority, Condition> turns = new EnumMap<>(Priority.class);
+    private final Map<Priority, Integer> waiting = new EnumMap<>(Priority.class);
+    private boolean busy = false;
+
+    // how many exchanges were admitted and shed in each lane
+    private final Map<Priority, AtomicLong> admitted = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> shed = new EnumMap<>(Priority.class);
+
+    /**
+     * Create the admission control for a house
+     */
+    public HouseAdmission() {
+        for (Priority priority : Priority.values()) {
+            turns.put(priority, lock.newCondition());
+            waiting.put(priority, 0);
+            admitted.put(priority, new AtomicLong(0));
+            shed.put(priority, new AtomicLong(0));
+        }
+    }
+
+    /**
+     * Take the socket. Security and user commands wait their turn; background work is shed
+     * rather than wait. Every successful call must be followed by {@link #release()}.
+     * @param priority the lane of the exchange
+     * @return true if the caller has the socket, false if the work was shed or the wait interrupted
+     */
+    public boolean acquire(Priority priority) {
+        lock.lock();
+        try {
+            if (priority == Priority.BACKGROUND && (busy || anyWaiting(Priority.BACKGROUND))) {
+                shed.get(priority).incrementAndGet();
+                return false;
+            }
+            waiting.merge(priority, 1, Integer::sum);
+            try {
+                while (busy || anyWaiting(priority)) {
+                    turns.get(priority).await();
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                waiting.merge(priority, -1, Integer::sum);
+                // this thread may have been the one given the turn
+                if (!busy) {
+                    signalNext();
+                }
+                return false;
+            }
+            waiting.merge(priority, -1, Integer::sum);
+            busy = true;
+            admitted.get(priority).incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Give the socket back, to the most urgent waiting command
+     */
+    public void release() {
+        lock.lock();
+        try {
+            busy = false;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNext() {
+        for (Priority priority : Priority.values()) {
+            if (waiting.get(priority) > 0) {
+                turns.get(priority).signal();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of exchanges admitted in a lane
+     * @param priority the lane
+     * @return the admitted count
+     */
+    public long getAdmitted(Priority priority) {
+        return admitted.get(priority).get();
+    }
+
+    /**
+     * Get the number of exchanges shed in a lane
+     * @param priority the lane
+     * @return the shed count
+     */
+    public long getShed(Priority priority) {
+        return shed.get(priority).get();
+    }
+
+    /**
+     * Check whether a more urgent lane than the given one has waiting commands
+     */
+    private boolean anyWaiting(Priority than) {
+        for (Priority priority : Priority.values()) {
+            if (priority.compareTo(than) >= 0) {
+                return false;
+            }
+            if (waiting.get(priority) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
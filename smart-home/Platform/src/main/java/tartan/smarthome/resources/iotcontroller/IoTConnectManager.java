@@ -4,6 +4,7 @@ import java.util.Hashtable;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages connection to the IoT house
@@ -17,6 +18,10 @@ public class IoTConnectManager {
     // Connection to the house
     private IoTConnection connection;
 
+    // one exchange with the house at a time; a lock rather than a monitor, so that a virtual
+    // thread waiting on the socket does not pin its carrier thread
+    private final ReentrantLock exchangeLock = new ReentrantLock();
+
     /**
      * Set up the connection manager with a connection
      * @param conn the (established) connection
@@ -36,17 +41,29 @@ public class IoTConnectManager {
      * Get the state from the house
      * @return the new state of things
      */
-    public synchronized Map<String,Object> getState() {
+    public Map<String,Object> getState() {
 
         System.out.println("Requesting state");
 
-        synchronized (connection) {
-            String update = connection.sendMessageToHouse(IoTValues.GET_STATE + IoTValues.MSG_END);
-            if (update == null) {
-                return null;
-            }
+        String update = exchange(IoTValues.GET_STATE + IoTValues.MSG_END);
+        if (update == null) {
+            return null;
+        }
 
-            return handleStateUpdate(update);
+        return handleStateUpdate(update);
+    }
+
+    /**
+     * Send a message to the house and wait for its answer
+     * @param msg the message
+     * @return the answer, or null if there was none
+     */
+    private String exchange(String msg) {
+        exchangeLock.lock();
+        try {
+            return connection.sendMessageToHouse(msg);
+        } finally {
+            exchangeLock.unlock();
         }
     }
 
@@ -57,7 +74,7 @@ public class IoTConnectManager {
      * @param state the new state
      * @return true if the state was accepted; false otherwise
      */
-    public synchronized Boolean setState(Map<String, Object> state) {
+    public Boolean setState(Map<String, Object> state) {
 
         StringBuffer newState = new StringBuffer();
         Set<String> keys = state.keySet();
@@ -172,15 +189,18 @@ public class IoTConnectManager {
             }
         }
 
+        // zone devices are sent as zone-qualified keys, e.g. LS@2=1
+        Object zones = state.get(IoTValues.ZONES);
+        if (zones instanceof ZoneState) {
+            appendZoneState(newState, (ZoneState) zones);
+        }
+
         //newState.append(IoTValues.MSG_END); // append protocol request terminator
         StringBuffer msg
                 = new StringBuffer(IoTValues.SET_STATE + IoTValues.MSG_DELIM + newState.toString() + IoTValues.MSG_END);
         System.out.println("New state for house: " + msg.toString());
 
-        String response = null;
-        synchronized (connection) {
-            response = connection.sendMessageToHouse(msg.toString());
-        }
+        String response = exchange(msg.toString());
         if (response == null) {
             System.out.println("No response");
             return false;
@@ -190,6 +210,30 @@ public class IoTConnectManager {
         return response.equals(IoTValues.OK);
     }
 
+    /**
+     * Append the zone actuator states to a state change request
+     * @param newState the request being built
+     * @param zones the zone states
+     */
+    private void appendZoneState(StringBuffer newState, ZoneState zones) {
+        for (int zone = 1; zone <= zones.getZoneCount(); zone++) {
+            for (int device = 0; device < ZoneState.DEVICES; device++) {
+                // proximity is a sensor, so it is never set
+                if (device == ZoneState.PROXIMITY || !zones.isKnown(zone, device)) {
+                    continue;
+                }
+                if (newState.length() > 0 && newState.charAt(newState.length() - 1) != IoTValues.PARAM_DELIM.charAt(0)) {
+                    newState.append(IoTValues.PARAM_DELIM);
+                }
+                newState.append(ZoneState.deviceKey(device));
+                newState.append(IoTValues.ZONE_DELIM);
+                newState.append(zone);
+                newState.append(IoTValues.PARAM_EQ);
+                newState.append(zones.isOn(zone, device) ? "1" : "0");
+            }
+        }
+    }
+
     /**
      * Process the new state reported by the house
      * @param stateUpdateMsg the new state message
@@ -228,6 +272,7 @@ public class IoTConnectManager {
             return null;
         }
         StringTokenizer pt = new StringTokenizer(body, IoTValues.PARAM_DELIM);
+        ZoneState zones = null;
 
         // process the new state
         while (pt.hasMoreTokens()) {
@@ -235,6 +280,28 @@ public class IoTConnectManager {
             String data[] = param.split(IoTValues.PARAM_EQ);
             Integer val = Integer.parseInt(data[1]);
 
+            // zone-qualified values belong to the additional zones
+            int at = data[0].indexOf(IoTValues.ZONE_DELIM);
+            if (at > 0) {
+                if (zones == null) {
+                    zones = new ZoneState(0);
+                }
+                String key = data[0].substring(0, at);
+                int zone = Integer.parseInt(data[0].substring(at + 1));
+                if (!ZoneState.isValidZone(zone)) {
+                    // a zone number out of range would only size the state arrays after it
+                    continue;
+                }
+                int reading = ZoneState.readingIndex(key);
+                int device = ZoneState.deviceIndex(key);
+                if (reading >= 0) {
+                    zones.setReading(zone, reading, val);
+                } else if (device >= 0) {
+                    zones.setDevice(zone, device, val == 1);
+                }
+                continue;
+            }
+
             if (data[0].equals(IoTValues.LIGHT_STATE)) {
                 if (val == 1) {
                     state.put(IoTValues.LIGHT_STATE, true);
@@ -295,6 +362,9 @@ public class IoTConnectManager {
                 }
             }
         }
+        if (zones != null) {
+            state.put(IoTValues.ZONES, zones);
+        }
         return state;
     }
 
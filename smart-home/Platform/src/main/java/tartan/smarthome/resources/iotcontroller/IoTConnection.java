@@ -1,6 +1,7 @@
 package tartan.smarthome.resources.iotcontroller;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 
@@ -13,6 +14,10 @@ import java.net.UnknownHostException;
  * 1.0 November 2015 - initial version
  */
 public class IoTConnection {
+
+    /** how long to wait for an unreachable house before giving up, in milliseconds */
+    private static final int CONNECT_TIMEOUT = 5000;
+
     private Boolean isConnected = false;
 
     /** connection settings */
@@ -101,7 +106,8 @@ public class IoTConnection {
     public Boolean connect() {
 
         try {
-            houseSocket = new Socket(this.address, this.port);
+            houseSocket = new Socket();
+            houseSocket.connect(new InetSocketAddress(this.address, this.port), CONNECT_TIMEOUT);
 
             out = new BufferedWriter(new OutputStreamWriter(houseSocket.getOutputStream()));
             in = new BufferedReader(new InputStreamReader( houseSocket.getInputStream()));
@@ -3,8 +3,15 @@ package tartan.smarthome.resources.iotcontroller;
 import java.io.*;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+import tartan.smarthome.resources.ShadowEvaluator;
 import tartan.smarthome.resources.TartanStateEvaluator;
+import tartan.smarthome.resources.events.StateEvent;
+import tartan.smarthome.resources.events.StateEventBus;
 
 /**
  * Controls the state of the IoT house. This class manages house state; it is
@@ -33,14 +40,55 @@ public class IoTControlManager {
 
     private LoginHandler loginHandler;
 
-    /** Thread to manage state updates */
+    /** Thread to manage state updates, and the time between its polls of the house in milliseconds */
     private Thread updateThread;
+    public static final long POLL_INTERVAL = 5000;
+
+    /** decides which exchange gets the house socket next */
+    private final HouseAdmission admission = new HouseAdmission();
+
+    /** the state keys whose changes are security commands */
+    private static final String[] SECURITY_KEYS = {
+            IoTValues.ALARM_STATE, IoTValues.ALARM_ACTIVE, IoTValues.DOOR_STATE, IoTValues.GIVEN_PASSCODE };
+
+    /** runs the away timers; one thread for all of them, so it can be stopped with the house */
+    private Timer awayTimer;
+    private boolean disconnected = false;
+    private final Object timerLock = new Object();
 
     /** Handle updates to the house state */
     private TartanStateEvaluator stateEvaluator;
 
+    /** an optional evaluator compared against the primary evaluator off the update path */
+    private volatile ShadowEvaluator shadowEvaluator;
+
     private Map<String, Object> lastState;  
 
+    /**
+     * the last evaluated state, with its version and time in one reference so readers never pair a
+     * state with another's version; the version changes every time a state is published
+     */
+    private volatile StateEvent published;
+    private final ReentrantLock publishLock = new ReentrantLock();
+
+    /** told after each poll whether the house answered */
+    private volatile Consumer<Boolean> pollListener;
+
+    /** one exchange with the house socket at a time. The socket and the publishing are guarded by
+     * locks rather than monitors, so that a virtual thread blocked in either does not pin its carrier */
+    private final ReentrantLock connectionLock = new ReentrantLock();
+
+    /** the bus each published state goes to, and the house name it is published under */
+    private volatile StateEventBus eventBus;
+    private String house;
+
+    /** the newest event not yet handed to the bus, and the version of the last one that was. One
+     * thread at a time hands events to the bus, outside the publish lock, so a subscriber that makes
+     * the bus wait holds up only that thread; the others leave their events to it */
+    private final AtomicReference<StateEvent> undelivered = new AtomicReference<>();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private long deliveredVersion = 0;
+
     /**
      * Constructor for the controller
      *
@@ -140,6 +188,34 @@ public class IoTControlManager {
         return userSettings;
     }
 
+    /**
+     * Get the evaluator that drives the house
+     *
+     * @return the primary evaluator
+     */
+    public TartanStateEvaluator getStateEvaluator() {
+        return stateEvaluator;
+    }
+
+    /**
+     * Run a second evaluator in shadow mode. It sees every input the primary evaluator sees, but
+     * its output is only compared with the primary output and never sent to the house.
+     *
+     * @param shadowEvaluator the shadow evaluation, or null to stop shadowing
+     */
+    public void setShadowEvaluator(ShadowEvaluator shadowEvaluator) {
+        this.shadowEvaluator = shadowEvaluator;
+    }
+
+    /**
+     * Get the shadow evaluation
+     *
+     * @return the shadow evaluation, or null if shadow mode is off
+     */
+    public ShadowEvaluator getShadowEvaluator() {
+        return shadowEvaluator;
+    }
+
     public Thread getUpdateThread() {
         return updateThread;
     }
@@ -149,23 +225,222 @@ public class IoTControlManager {
      * @param stateUpdate
      */
     public void processStateUpdate(Map<String, Object> stateUpdate) {
+        processStateUpdate(stateUpdate, priorityOf(stateUpdate));
+    }
+
+    /**
+     * Decide the lane of a state update: it is a security command if it gives a passcode or
+     * changes the alarm or the door
+     *
+     * @param stateUpdate the update
+     * @return SECURITY or USER
+     */
+    public Priority priorityOf(Map<String, Object> stateUpdate) {
+        for (String key : SECURITY_KEYS) {
+            Object value = stateUpdate.get(key);
+            if (value != null && (key.equals(IoTValues.GIVEN_PASSCODE) || !value.equals(lastState.get(key)))) {
+                return Priority.SECURITY;
+            }
+        }
+        return Priority.USER;
+    }
+
+    /**
+     * Follow the outcome of the background polls
+     * @param listener given true for each poll the house answered and false for each it did not
+     */
+    public void setPollListener(Consumer<Boolean> listener) {
+        this.pollListener = listener;
+    }
+
+    /**
+     * Get the admission control of the house socket
+     *
+     * @return the admission control
+     */
+    public HouseAdmission getAdmission() {
+        return admission;
+    }
+
+    /**
+     * User-initiated state update, in a given lane
+     * @param stateUpdate the update
+     * @param priority the lane the update waits in for the house socket
+     */
+    public void processStateUpdate(Map<String, Object> stateUpdate, Priority priority) {
+        if (!admission.acquire(priority)) {
+            throw new RejectedExecutionException("Interrupted while waiting for the house");
+        }
+        try {
+            updateState(stateUpdate);
+        } finally {
+            admission.release();
+        }
+    }
+
+    private void updateState(Map<String, Object> stateUpdate) {
 
         StringBuffer log = new StringBuffer();
 
         // User settings are part of the state
+        Map<String, Object> houseState = fetchState();
+        if (houseState == null) {
+            throw new IllegalStateException("The house did not answer");
+        }
         Map<String, Object> completeState = new Hashtable<>();
-        completeState.putAll(fetchState());
-        completeState.putAll(stateUpdate);     
-        Map<String, Object> newState = stateEvaluator.evaluateState(completeState, log);
+        completeState.putAll(houseState);
+        completeState.putAll(stateUpdate);
+
+        // zone updates are partial, so merge them into the zones reported by the house
+        Object houseZones = lastState.get(IoTValues.ZONES);
+        Object zoneUpdate = stateUpdate.get(IoTValues.ZONES);
+        if (houseZones instanceof ZoneState && zoneUpdate instanceof ZoneState) {
+            ZoneState zones = new ZoneState((ZoneState) houseZones);
+            zones.merge((ZoneState) zoneUpdate);
+            completeState.put(IoTValues.ZONES, zones);
+        }
+        Map<String, Object> newState = evaluate(completeState, log);
         logMessages.add(log.toString());
-        synchronized(connMgr) {
+        connectionLock.lock();
+        try {
             connMgr.setState(newState);
+        } finally {
+            connectionLock.unlock();
         }
         this.lastState.putAll(newState);
+        publishState();
     }
 
     public Map<String, Object> getCurrentState() {
-        return fetchState();
+        if (!admission.acquire(Priority.USER)) {
+            return null;
+        }
+        try {
+            return fetchState();
+        } finally {
+            admission.release();
+        }
+    }
+
+    /**
+     * Run the primary evaluator and, in shadow mode, hand the same input to the shadow evaluator
+     *
+     * @param state the state to evaluate
+     * @param log the evaluation log
+     * @return the new state from the primary evaluator
+     */
+    private Map<String, Object> evaluate(Map<String, Object> state, StringBuffer log) {
+        ShadowEvaluator shadow = this.shadowEvaluator;
+        if (shadow == null) {
+            return stateEvaluator.evaluateState(state, log);
+        }
+        // the input is copied because the controller keeps updating the last state
+        Map<String, Object> input = new Hashtable<>(state);
+        long evaluatedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        Map<String, Object> newState = stateEvaluator.evaluateState(state, log);
+        shadow.compare(input, newState, System.nanoTime() - start, evaluatedAt);
+        return newState;
+    }
+
+    /**
+     * Publish a snapshot of the last state, including the user settings, for readers that do not
+     * need to ask the house
+     */
+    private void publishState() {
+        StateEvent event;
+        publishLock.lock();
+        try {
+            Map<String, Object> state = this.lastState;
+            Map<String, Object> snapshot;
+            synchronized (state) {
+                snapshot = new Hashtable<>(state);
+            }
+            StateEvent last = this.published;
+            event = new StateEvent(house, last == null ? 1 : last.getVersion() + 1,
+                    Collections.unmodifiableMap(snapshot), System.currentTimeMillis());
+            this.published = event;
+        } finally {
+            publishLock.unlock();
+        }
+        undelivered.accumulateAndGet(event, (waiting, next) ->
+                waiting == null || next.getVersion() > waiting.getVersion() ? next : waiting);
+        deliver();
+    }
+
+    /**
+     * Hand the newest undelivered event to the bus, unless another thread is doing so. Versions
+     * reach the bus in order; a version superseded while the bus was busy is skipped, as the newer
+     * state replaces it anyway
+     */
+    private void deliver() {
+        // checked again after unlocking, in case an event was left while the lock was held
+        while (undelivered.get() != null && deliveryLock.tryLock()) {
+            try {
+                StateEvent event = undelivered.getAndSet(null);
+                StateEventBus bus = this.eventBus;
+                if (event != null && event.getVersion() > deliveredVersion) {
+                    deliveredVersion = event.getVersion();
+                    if (bus != null) {
+                        bus.publish(event);
+                    }
+                }
+            } finally {
+                deliveryLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Publish every evaluated state to an event bus
+     *
+     * @param bus the event bus
+     * @param house the house name to publish the states under
+     */
+    public void publishTo(StateEventBus bus, String house) {
+        this.house = house;
+        this.eventBus = bus;
+    }
+
+    /**
+     * Get the last published state together with its version and the time it was published. Unlike
+     * {@link #getCurrentState()} this does not contact the house
+     *
+     * @return the event that published the state, or null if no state has been published yet
+     */
+    public StateEvent getPublished() {
+        return published;
+    }
+
+    /**
+     * Get the last published state. Unlike {@link #getCurrentState()} this does not contact the
+     * house
+     *
+     * @return the state, or null if no state has been published yet
+     */
+    public Map<String, Object> getPublishedState() {
+        StateEvent published = this.published;
+        return published == null ? null : published.getState();
+    }
+
+    /**
+     * Get the time the last state was published
+     *
+     * @return milliseconds since the epoch; 0 until the first state is published
+     */
+    public long getPublishedAt() {
+        StateEvent published = this.published;
+        return published == null ? 0 : published.getTimestamp();
+    }
+
+    /**
+     * Get the version of the published state
+     *
+     * @return the version; 0 until the first state is published
+     */
+    public long getStateVersion() {
+        StateEvent published = this.published;
+        return published == null ? 0 : published.getVersion();
     }
 
     /**
@@ -174,11 +449,18 @@ public class IoTControlManager {
      */
     private Map<String, Object> fetchState() {
         // Map<String, Object> state = null;
-        synchronized (connMgr) {
+        connectionLock.lock();
+        try {
             if (connMgr.isConnected() == false) {
                 return null;
             }
-            lastState = connMgr.getState();
+            Map<String, Object> state = connMgr.getState();
+            if (state == null) {
+                return null;
+            }
+            lastState = state;
+        } finally {
+            connectionLock.unlock();
         }
 
         // The away timer is controlled here
@@ -200,41 +482,27 @@ public class IoTControlManager {
             public void run() {
 
                 Integer missedUpdates = 0;
-                while (true) {
-
-                    Map<String, Object> currentState = fetchState();
-                    if (currentState != null) {
-
-                        StringBuffer log = new StringBuffer();
-                        Map<String, Object> newState = stateEvaluator.evaluateState(currentState, log);
-                        logMessages.add(log.toString());
-                        
-                        // save this state 
-                        IoTControlManager.this.lastState.putAll(newState);
-
-                        synchronized (connMgr) {
-                            connMgr.setState(newState);
-                        }
-                        
-                        // Must handle away timer here
-                        if (true == (Boolean) newState.getOrDefault(IoTValues.AWAY_TIMER, false)) {
-                            startAwayTimer();
+                while (!Thread.currentThread().isInterrupted()) {
+
+                    // polling is background work: it is skipped, and not counted as a missed
+                    // update, while more urgent commands want the socket
+                    if (admission.acquire(Priority.BACKGROUND)) {
+                        try {
+                            missedUpdates = poll(missedUpdates);
+                        } finally {
+                            admission.release();
                         }
-                        else 
-                        missedUpdates = 0;
-
-                    } else {
-                        missedUpdates++;
                     }
 
                     if (missedUpdates > 6) { // 6 missed updates is 30 seconds
                         revertState();
                     }
 
-                    // currently a 5sec delay
                     try {
-                        Thread.sleep(5000);
+                        Thread.sleep(POLL_INTERVAL);
                     } catch (InterruptedException ie) {
+                        // the house is disconnecting
+                        Thread.currentThread().interrupt();
                     }
                 }
             }
@@ -243,9 +511,61 @@ public class IoTControlManager {
         updateLog("Started update monitor");
     }
 
+    /**
+     * Read the house state, evaluate it and write the result back
+     *
+     * @param missedUpdates how many polls in a row failed so far
+     * @return how many polls in a row failed now
+     */
+    private Integer poll(Integer missedUpdates) {
+        Map<String, Object> currentState = fetchState();
+        if (currentState != null) {
+
+            StringBuffer log = new StringBuffer();
+            Map<String, Object> newState = evaluate(currentState, log);
+            logMessages.add(log.toString());
+            
+            // save this state 
+            IoTControlManager.this.lastState.putAll(newState);
+
+            connectionLock.lock();
+            try {
+                connMgr.setState(newState);
+            } finally {
+                connectionLock.unlock();
+            }
+            publishState();
+            
+            // Must handle away timer here
+            if (true == (Boolean) newState.getOrDefault(IoTValues.AWAY_TIMER, false)) {
+                startAwayTimer();
+            }
+            else 
+            missedUpdates = 0;
+
+        } else {
+            missedUpdates++;
+        }
+        Consumer<Boolean> listener = pollListener;
+        if (listener != null) {
+            listener.accept(currentState != null);
+        }
+        return missedUpdates;
+    }
+
     private void revertState() {
-        synchronized (connMgr) {
-            connMgr.setState(this.lastState);
+        if (!admission.acquire(Priority.USER)) {
+            return;
+        }
+        try {
+            connectionLock.lock();
+            try {
+                connMgr.setState(this.lastState);
+            } finally {
+                connectionLock.unlock();
+            }
+        } finally {
+            admission.release();
         }
     }
 
@@ -277,12 +597,25 @@ public class IoTControlManager {
     }
 
     /**
-     * Disconnect from a house
+     * Disconnect from a house. This stops the update thread and any pending away timer, and
+     * publishes no more states.
      */
     public void disconnectFromHouse() {
-        if (connMgr.isConnected()) {
+        this.eventBus = null;
+        if (updateThread != null) {
+            updateThread.interrupt();
+        }
+        synchronized (timerLock) {
+            disconnected = true;
+            if (awayTimer != null) {
+                awayTimer.cancel();
+                awayTimer = null;
+            }
+        }
+        if (connMgr != null && connMgr.isConnected()) {
             connMgr.disconnectFromHouse();
         }
+        updateLog("Disconnected");
     }
 
     /**
@@ -305,10 +638,20 @@ public class IoTControlManager {
      * the house down
      */
     private void startAwayTimer() {
-        Timer t = new Timer();
-
         Integer awayTimeout = (Integer) userSettings.get(IoTValues.ALARM_DELAY);
 
+        synchronized (timerLock) {
+            if (disconnected) {
+                return;
+            }
+            if (awayTimer == null) {
+                awayTimer = new Timer();
+            }
+            scheduleAwayTimer(awayTimer, awayTimeout);
+        }
+    }
+
+    private void scheduleAwayTimer(Timer t, Integer awayTimeout) {
         t.schedule(new TimerTask() {
 
             /**
@@ -320,14 +663,26 @@ public class IoTControlManager {
                 // signal that the away timer has fired
                 IoTControlManager.this.lastState.put(IoTValues.AWAY_TIMER, true);
 
-                synchronized (connMgr) {
+                // locking an empty house down is a security command
+                if (!admission.acquire(Priority.SECURITY)) {
+                    return;
+                }
+                try {
+                    connectionLock.lock();
+                    try {
 
-                    StringBuffer log = new StringBuffer();
-                    Map<String, Object> newState = stateEvaluator.evaluateState(IoTControlManager.this.lastState, log);
-                    logMessages.add(log.toString());
-                    connMgr.setState(newState);
-                    IoTControlManager.this.lastState.putAll(newState);
+                        StringBuffer log = new StringBuffer();
+                        Map<String, Object> newState = evaluate(IoTControlManager.this.lastState, log);
+                        logMessages.add(log.toString());
+                        connMgr.setState(newState);
+                        IoTControlManager.this.lastState.putAll(newState);
+                    } finally {
+                        connectionLock.unlock();
+                    }
+                } finally {
+                    admission.release();
                 }
+                publishState();
             }
         }, awayTimeout * 1000);
     }
@@ -22,6 +22,11 @@ public abstract class IoTValues {
     public static final String ALARM_ACTIVE = "AA";
     public static final String HEATER_STATE = "HES";
     public static final String CHILLER_STATE = "CHS";
+
+    // multi-zone houses qualify zone readings with the zone number, e.g. TR@2
+    public static final String ZONE_DELIM = "@";
+    public static final String ZONES = "ZONES";
+    public static final String ZONE_TARGET_TEMPS = "ZONE_TARGET_TEMPS";
    
     // protocol control values
     public static final String PARAM_DELIM = ";";
@@ -59,6 +64,11 @@ public abstract class IoTValues {
     public static final String ALARM_PASSCODE = "ALARM_PASSCODE";
     public static final String GIVEN_PASSCODE = "GIVEN_PASSCODE";
 
+    // HVAC hysteresis settings
+    public static final String HVAC_DEADBAND = "HVAC_DEADBAND";
+    public static final String HVAC_MIN_ON_TIME = "HVAC_MIN_ON_TIME";
+    public static final String HVAC_MIN_OFF_TIME = "HVAC_MIN_OFF_TIME";
+
     public static final String GET_STATE = "GS";
     public static final String SET_STATE = "SS";
     public static final String STATE_UPDATE = "SU";
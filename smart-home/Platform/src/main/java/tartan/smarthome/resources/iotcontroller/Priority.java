@@ -0,0 +1,15 @@
+package tartan.smarthome.resources.iotcontroller;
+
+/**
+ * The priority lanes of the commands sent to a house, most urgent first
+ */
+public enum Priority {
+    // alarm, passcode and door changes
+    SECURITY,
+
+    // everything else a user asks for
+    USER,
+
+    // polling and other work nobody is waiting for
+    BACKGROUND
+}
@@ -0,0 +1,249 @@
+package tartan.smarthome.resources.iotcontroller;
+
+import java.util.Arrays;
+
+/**
+ * The state of the additional zones of a multi-zone house. The main zone keeps using the
+ * single-valued state keys (TR, DS, LS, ...); zones 1..N are reported by the house as
+ * zone-qualified keys (TR@1, DS@1, ...) and stored here in flat arrays indexed by zone, so that
+ * evaluating and serializing them is linear in the number of zones.
+ */
+public class ZoneState {
+
+    // readings, stored at (zone - 1) * READINGS + reading
+    public static final int TEMPERATURE = 0;
+    public static final int HUMIDITY = 1;
+    public static final int READINGS = 2;
+
+    // devices, stored as one bit per device in a per-zone mask
+    public static final int DOOR = 0;
+    public static final int LIGHT = 1;
+    public static final int PROXIMITY = 2;
+    public static final int HEATER = 3;
+    public static final int CHILLER = 4;
+    public static final int HUMIDIFIER = 5;
+    public static final int DEVICES = 6;
+
+    // the protocol keys for each reading and device, by index
+    private static final String[] READING_KEYS = { IoTValues.TEMP_READING, IoTValues.HUMIDITY_READING };
+    private static final String[] DEVICE_KEYS = { IoTValues.DOOR_STATE, IoTValues.LIGHT_STATE,
+            IoTValues.PROXIMITY_STATE, IoTValues.HEATER_STATE, IoTValues.CHILLER_STATE, IoTValues.HUMIDIFIER_STATE };
+
+    // the most additional zones a house may have; zone numbers above it are refused rather than
+    // grown into
+    public static final int MAX_ZONES = 64;
+
+    // marks a reading the house has not reported
+    private static final int NO_READING = Integer.MIN_VALUE;
+
+    private int zoneCount;
+    private int[] readings;
+    private byte[] devices;
+
+    // which devices the house has reported for each zone
+    private byte[] known;
+
+    /**
+     * Create an empty zone state
+     * @param zoneCount the number of additional zones
+     */
+    public ZoneState(int zoneCount) {
+        this.zoneCount = zoneCount;
+        this.readings = new int[zoneCount * READINGS];
+        this.devices = new byte[zoneCount];
+        this.known = new byte[zoneCount];
+        Arrays.fill(readings, NO_READING);
+    }
+
+    /**
+     * Copy a zone state
+     * @param other the state to copy
+     */
+    public ZoneState(ZoneState other) {
+        this.zoneCount = other.zoneCount;
+        this.readings = other.readings.clone();
+        this.devices = other.devices.clone();
+        this.known = other.known.clone();
+    }
+
+    /**
+     * Get the number of additional zones
+     * @return the zone count
+     */
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /**
+     * Check whether a zone has reported a reading
+     * @param zone the zone, starting at 1
+     * @param reading the reading index
+     * @return true if the reading is known
+     */
+    public boolean hasReading(int zone, int reading) {
+        return zone >= 1 && zone <= zoneCount && readings[(zone - 1) * READINGS + reading] != NO_READING;
+    }
+
+    /**
+     * Get a zone reading
+     * @param zone the zone, starting at 1
+     * @param reading the reading index
+     * @return the reading
+     */
+    public int getReading(int zone, int reading) {
+        return readings[(zone - 1) * READINGS + reading];
+    }
+
+    /**
+     * Set a zone reading, growing the state if needed
+     * @param zone the zone, starting at 1
+     * @param reading the reading index
+     * @param value the new value
+     */
+    public void setReading(int zone, int reading, int value) {
+        ensureZone(zone);
+        readings[(zone - 1) * READINGS + reading] = value;
+    }
+
+    /**
+     * Check whether a zone has reported a device state
+     * @param zone the zone, starting at 1
+     * @param device the device index
+     * @return true if the device state is known
+     */
+    public boolean isKnown(int zone, int device) {
+        return zone >= 1 && zone <= zoneCount && (known[zone - 1] & (1 << device)) != 0;
+    }
+
+    /**
+     * Get a zone device state
+     * @param zone the zone, starting at 1
+     * @param device the device index
+     * @return true if on (open, occupied), false otherwise
+     */
+    public boolean isOn(int zone, int device) {
+        return (devices[zone - 1] & (1 << device)) != 0;
+    }
+
+    /**
+     * Set a zone device state, growing the state if needed
+     * @param zone the zone, starting at 1
+     * @param device the device index
+     * @param on the new state
+     */
+    public void setDevice(int zone, int device, boolean on) {
+        ensureZone(zone);
+        if (on) {
+            devices[zone - 1] = (byte) (devices[zone - 1] | (1 << device));
+        } else {
+            devices[zone - 1] = (byte) (devices[zone - 1] & ~(1 << device));
+        }
+        known[zone - 1] = (byte) (known[zone - 1] | (1 << device));
+    }
+
+    /**
+     * Check whether anybody is in any of the additional zones
+     * @return true if a zone is occupied
+     */
+    public boolean isAnyOccupied() {
+        for (int zone = 1; zone <= zoneCount; zone++) {
+            if (isKnown(zone, PROXIMITY) && isOn(zone, PROXIMITY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the readings and device states set in an update
+     * @param update the (partial) update
+     */
+    public void merge(ZoneState update) {
+        for (int zone = 1; zone <= update.zoneCount; zone++) {
+            for (int r = 0; r < READINGS; r++) {
+                if (update.hasReading(zone, r)) {
+                    setReading(zone, r, update.getReading(zone, r));
+                }
+            }
+            for (int d = 0; d < DEVICES; d++) {
+                if (update.isKnown(zone, d)) {
+                    setDevice(zone, d, update.isOn(zone, d));
+                }
+            }
+        }
+    }
+
+    /**
+     * Map a protocol key to a reading index
+     * @param key the protocol key, such as TR
+     * @return the reading index or -1 if the key is not a zone reading
+     */
+    public static int readingIndex(String key) {
+        for (int r = 0; r < READINGS; r++) {
+            if (READING_KEYS[r].equals(key)) return r;
+        }
+        return -1;
+    }
+
+    /**
+     * Map a protocol key to a device index
+     * @param key the protocol key, such as DS
+     * @return the device index or -1 if the key is not a zone device
+     */
+    public static int deviceIndex(String key) {
+        for (int d = 0; d < DEVICES; d++) {
+            if (DEVICE_KEYS[d].equals(key)) return d;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the protocol key of a device
+     * @param device the device index
+     * @return the protocol key
+     */
+    public static String deviceKey(int device) {
+        return DEVICE_KEYS[device];
+    }
+
+    /**
+     * Check whether a zone number can be stored
+     * @param zone the zone, starting at 1
+     * @return true if it is between 1 and MAX_ZONES
+     */
+    public static boolean isValidZone(int zone) {
+        return zone >= 1 && zone <= MAX_ZONES;
+    }
+
+    private void ensureZone(int zone) {
+        if (!isValidZone(zone)) {
+            throw new IllegalArgumentException("Invalid zone " + zone);
+        }
+        if (zone > zoneCount) {
+            int oldReadings = readings.length;
+            readings = Arrays.copyOf(readings, zone * READINGS);
+            Arrays.fill(readings, oldReadings, readings.length, NO_READING);
+            devices = Arrays.copyOf(devices, zone);
+            known = Arrays.copyOf(known, zone);
+            zoneCount = zone;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ZoneState)) {
+            return false;
+        }
+        final ZoneState that = (ZoneState) o;
+        return zoneCount == that.zoneCount && Arrays.equals(readings, that.readings)
+                && Arrays.equals(devices, that.devices) && Arrays.equals(known, that.known);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(readings) + Arrays.hashCode(devices);
+    }
+}
@@ -0,0 +1,121 @@
+package tartan.smarthome.resources.limit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An adaptive limit on concurrent requests, set by additive increase and multiplicative decrease
+ * (AIMD) on the observed latency. While requests finish within the latency target and the limit
+ * is in use, it grows by about one per limit's worth of requests; when a request is slower than
+ * the target, the limit is multiplied by the backoff ratio, at most once per target interval so
+ * that one burst of slow requests counts once. Requests over the limit are rejected at once
+ * rather than queued.
+ */
+public class AimdLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTarget;
+    private final double backoffRatio;
+
+    // the current limit, and when it was last cut
+    private volatile double limit;
+    private long lastBackoff = 0;
+
+    private final AtomicInteger inflight = new AtomicInteger(0);
+
+    // requests rejected because the limit was reached
+    private final Meter rejected = new Meter();
+
+    /**
+     * Create a new limiter
+     * @param initialLimit the limit to start with
+     * @param minLimit the lowest the limit may go
+     * @param maxLimit the highest the limit may go
+     * @param latencyTarget the latency above which the limit is cut, in milliseconds
+     * @param backoffRatio what the limit is multiplied by when it is cut
+     */
+    public AimdLimiter(int initialLimit, int minLimit, int maxLimit, long latencyTarget, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyTarget = TimeUnit.MILLISECONDS.toNanos(latencyTarget);
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Report the limit, the requests in flight and the rejections
+     * @param metrics where they are reported
+     */
+    public void registerMetrics(MetricRegistry metrics) {
+        metrics.register(MetricRegistry.name(AimdLimiter.class, "limit"), (Gauge<Integer>) this::getLimit);
+        metrics.register(MetricRegistry.name(AimdLimiter.class, "inflight"), (Gauge<Integer>) this::getInflight);
+        metrics.register(MetricRegistry.name(AimdLimiter.class, "rejected"), rejected);
+    }
+
+    /**
+     * Start a request if the limit allows it. Every successful call must be followed by
+     * {@link #release(long)}.
+     * @return true if the request may run, false if it must be rejected
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= (int) limit) {
+                rejected.mark();
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finish a request and adjust the limit to its latency
+     * @param latency how long the request took, in nanoseconds
+     */
+    public void release(long latency) {
+        int current = inflight.getAndDecrement();
+        synchronized (this) {
+            if (latency > latencyTarget) {
+                long now = System.nanoTime();
+                if (now - lastBackoff > latencyTarget) {
+                    lastBackoff = now;
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                }
+            } else if (current * 2 >= limit) {
+                // only grow a limit that is actually in use
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+        }
+    }
+
+    /**
+     * Get the current limit
+     * @return the number of requests that may run at once
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the number of requests running
+     * @return the requests in flight
+     */
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * Get the number of rejected requests
+     * @return the rejection count
+     */
+    public long getRejected() {
+        return rejected.getCount();
+    }
+}
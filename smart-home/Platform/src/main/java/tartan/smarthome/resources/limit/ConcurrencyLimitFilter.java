@@ -0,0 +1,76 @@
+package tartan.smarthome.resources.limit;
+
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.HttpMethod;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * Sheds the REST requests over the adaptive concurrency limit with 503 Service Unavailable and
+ * Retry-After, before they are authenticated or queue for a house. Long polls of a house state
+ * and streams are left out: they are meant to be slow, and are bounded by their own timeouts and
+ * queues.
+ */
+@Priority(Priorities.AUTHENTICATION - 100)
+public class ConcurrencyLimitFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    // marks a request that holds a place under the limit, with the time it started
+    private static final String STARTED = ConcurrencyLimitFilter.class.getName() + ".started";
+
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final AimdLimiter limiter;
+
+    /**
+     * Create a new filter
+     * @param limiter the limit to enforce
+     */
+    public ConcurrencyLimitFilter(AimdLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (isLongLived(request)) {
+            return;
+        }
+        if (!limiter.tryAcquire()) {
+            request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .build());
+            return;
+        }
+        request.setProperty(STARTED, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Object started = request.getProperty(STARTED);
+        if (started != null) {
+            request.removeProperty(STARTED);
+            limiter.release(System.nanoTime() - (Long) started);
+        }
+    }
+
+    /**
+     * Tell whether a request is a long poll of one house state or a stream. Other requests with a
+     * since parameter are answered at once, so they count against the limit like any other
+     */
+    private static boolean isLongLived(ContainerRequestContext request) {
+        String path = request.getUriInfo().getPath();
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.equals("smarthome/stream") || path.startsWith("smarthome/stream/")) {
+            return true;
+        }
+        return HttpMethod.GET.equals(request.getMethod()) && path.startsWith("smarthome/state/")
+                && path.indexOf('/', "smarthome/state/".length()) < 0
+                && request.getUriInfo().getQueryParameters().containsKey("since");
+    }
+}
@@ -0,0 +1,194 @@
+package tartan.smarthome.resources.schedule;
+
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A single engine that runs the weekly schedules of every house. Pending transitions are kept in
+ * one delay queue ordered by their next transition time, and one thread fires them as they come
+ * due. There is no per-house thread and no polling.
+ */
+public class ScheduleEngine implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScheduleEngine.class);
+
+    // pending transitions for all houses, ordered by transition time
+    private final DelayQueue<Transition> queue = new DelayQueue<>();
+
+    // the active schedule for each house
+    private final Map<String, HouseSchedule> schedules = new ConcurrentHashMap<>();
+
+    private final Clock clock;
+
+    private Thread worker;
+
+    /**
+     * Create a new schedule engine using the system clock
+     */
+    public ScheduleEngine() {
+        this(Clock.systemUTC());
+    }
+
+    /**
+     * Create a new schedule engine
+     * @param clock the clock used to compute transition times
+     */
+    public ScheduleEngine(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Register (or replace) the schedule of a house. The transition currently in effect is
+     * applied immediately so the house starts in the scheduled state.
+     * @param house the house name
+     * @param zone the house time zone
+     * @param entries the weekly schedule
+     * @param listener called with each transition as it happens
+     */
+    public void register(String house, ZoneId zone, List<ScheduleEntry> entries, Consumer<ScheduleEntry> listener) {
+        HouseSchedule schedule = new HouseSchedule(house, listener);
+        HouseSchedule previous = schedules.put(house, schedule);
+        if (previous != null) {
+            cancel(previous);
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        ZonedDateTime now = ZonedDateTime.now(clock.withZone(zone));
+        ScheduleEntry current = null;
+        ZonedDateTime currentAt = null;
+        for (ScheduleEntry entry : entries) {
+            ZonedDateTime at = entry.previousBefore(now);
+            if (currentAt == null || at.isAfter(currentAt)) {
+                current = entry;
+                currentAt = at;
+            }
+            queue.add(new Transition(schedule, entry, entry.nextAfter(now)));
+        }
+        fire(schedule, current);
+    }
+
+    /**
+     * Remove the schedule of a house
+     * @param house the house name
+     */
+    public void unregister(String house) {
+        HouseSchedule schedule = schedules.remove(house);
+        if (schedule != null) {
+            cancel(schedule);
+        }
+    }
+
+    private void cancel(HouseSchedule schedule) {
+        schedule.cancelled = true;
+        queue.removeIf(t -> t.schedule == schedule);
+    }
+
+    /**
+     * Start the thread that fires the transitions
+     */
+    @Override
+    public void start() {
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Transition transition;
+                    try {
+                        transition = queue.take();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    if (transition.schedule.cancelled) {
+                        continue;
+                    }
+                    fire(transition.schedule, transition.entry);
+                    queue.add(new Transition(transition.schedule, transition.entry,
+                            transition.entry.nextAfter(transition.at)));
+                }
+            }
+        }, "schedule-engine");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop firing transitions
+     */
+    @Override
+    public void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Get the number of pending transitions across all houses
+     * @return the queue size
+     */
+    public int getPendingTransitions() {
+        return queue.size();
+    }
+
+    private void fire(HouseSchedule schedule, ScheduleEntry entry) {
+        try {
+            schedule.listener.accept(entry);
+        } catch (Exception x) {
+            LOGGER.error("Failed to apply schedule for house " + schedule.house, x);
+        }
+    }
+
+    /**
+     * The schedule of one house
+     */
+    private static class HouseSchedule {
+        final String house;
+        final Consumer<ScheduleEntry> listener;
+        volatile boolean cancelled = false;
+
+        HouseSchedule(String house, Consumer<ScheduleEntry> listener) {
+            this.house = house;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A pending transition, ordered by the time it is due
+     */
+    private class Transition implements Delayed {
+        final HouseSchedule schedule;
+        final ScheduleEntry entry;
+        final ZonedDateTime at;
+        final long atMillis;
+
+        Transition(HouseSchedule schedule, ScheduleEntry entry, ZonedDateTime at) {
+            this.schedule = schedule;
+            this.entry = entry;
+            this.at = at;
+            this.atMillis = at.toInstant().toEpochMilli();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(atMillis - clock.millis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(atMillis, ((Transition) o).atMillis);
+        }
+    }
+}
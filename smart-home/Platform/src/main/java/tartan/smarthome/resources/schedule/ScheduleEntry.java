@@ -0,0 +1,140 @@
+package tartan.smarthome.resources.schedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+import tartan.smarthome.TartanScheduleSettings;
+import tartan.smarthome.core.TartanHomeValues;
+
+/**
+ * One compiled transition of a weekly schedule
+ */
+public class ScheduleEntry {
+
+    private final Set<DayOfWeek> days;
+    private final LocalTime time;
+
+    // the new settings; null if the transition does not change them
+    private final Integer targetTemp;
+    private final Boolean alarmArmed;
+
+    /**
+     * Create a new schedule entry
+     * @param days the days the transition happens on
+     * @param time the time of day of the transition
+     * @param targetTemp the new target temperature, or null
+     * @param alarmArmed the new alarm state, or null
+     */
+    public ScheduleEntry(Set<DayOfWeek> days, LocalTime time, Integer targetTemp, Boolean alarmArmed) {
+        if (days.isEmpty()) {
+            throw new IllegalArgumentException("A schedule entry needs at least one day");
+        }
+        this.days = EnumSet.copyOf(days);
+        this.time = time;
+        this.targetTemp = targetTemp;
+        this.alarmArmed = alarmArmed;
+    }
+
+    /**
+     * Compile an entry from the house configuration
+     * @param settings the entry settings
+     * @return the compiled entry
+     */
+    public static ScheduleEntry fromSettings(TartanScheduleSettings settings) {
+        Boolean alarmArmed = null;
+        if (settings.getAlarmArmed() != null) {
+            if (settings.getAlarmArmed().equals(TartanHomeValues.ARMED)) alarmArmed = true;
+            else if (settings.getAlarmArmed().equals(TartanHomeValues.DISARMED)) alarmArmed = false;
+            else throw new IllegalArgumentException("Invalid scheduled alarm state: " + settings.getAlarmArmed());
+        }
+        return new ScheduleEntry(parseDays(settings.getDays()), LocalTime.parse(settings.getTime()),
+                settings.getTargetTemp() == null ? null : Integer.parseInt(settings.getTargetTemp()),
+                alarmArmed);
+    }
+
+    /**
+     * Parse a day list such as "MON,WED", "weekdays", "weekends" or "daily"
+     * @param days the day list
+     * @return the set of days
+     */
+    public static Set<DayOfWeek> parseDays(String days) {
+        Set<DayOfWeek> result = EnumSet.noneOf(DayOfWeek.class);
+        for (String day : days.split(",")) {
+            switch (day.trim().toUpperCase()) {
+                case "DAILY":
+                    result.addAll(EnumSet.allOf(DayOfWeek.class));
+                    break;
+                case "WEEKDAYS":
+                    result.addAll(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY));
+                    break;
+                case "WEEKENDS":
+                    result.add(DayOfWeek.SATURDAY);
+                    result.add(DayOfWeek.SUNDAY);
+                    break;
+                default:
+                    result.add(toDay(day.trim().toUpperCase()));
+            }
+        }
+        return result;
+    }
+
+    private static DayOfWeek toDay(String day) {
+        for (DayOfWeek d : DayOfWeek.values()) {
+            if (d.name().startsWith(day) && day.length() >= 3) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException("Invalid schedule day: " + day);
+    }
+
+    /**
+     * Find the first time strictly after the given time at which this transition happens
+     * @param after the reference time
+     * @return the next transition time
+     */
+    public ZonedDateTime nextAfter(ZonedDateTime after) {
+        ZonedDateTime candidate = after.with(time);
+        if (!candidate.isAfter(after)) {
+            candidate = candidate.plusDays(1);
+        }
+        while (!days.contains(candidate.getDayOfWeek())) {
+            candidate = candidate.plusDays(1);
+        }
+        // re-apply the time in case a daylight saving change moved it
+        return candidate.with(time);
+    }
+
+    /**
+     * Find the last time at or before the given time at which this transition happened
+     * @param before the reference time
+     * @return the previous transition time
+     */
+    public ZonedDateTime previousBefore(ZonedDateTime before) {
+        ZonedDateTime candidate = before.with(time);
+        if (candidate.isAfter(before)) {
+            candidate = candidate.minusDays(1);
+        }
+        while (!days.contains(candidate.getDayOfWeek())) {
+            candidate = candidate.minusDays(1);
+        }
+        return candidate.with(time);
+    }
+
+    /**
+     * Get the scheduled target temperature
+     * @return the temperature or null if unchanged
+     */
+    public Integer getTargetTemp() {
+        return targetTemp;
+    }
+
+    /**
+     * Get the scheduled alarm state
+     * @return true if armed, false if disarmed, null if unchanged
+     */
+    public Boolean getAlarmArmed() {
+        return alarmArmed;
+    }
+}
@@ -0,0 +1,197 @@
+package tartan.smarthome.resources.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.dropwizard.jackson.Jackson;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import tartan.smarthome.resources.StateSnapshot;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+
+/**
+ * Streams the changes of one house to all of its subscribers. Each change is turned into events
+ * and serialized once, however many clients are listening: a "state" event with the full state
+ * when a client subscribes, then "delta" events with the fields that changed and "log" events
+ * with new controller log entries.
+ */
+public class StateBroadcaster {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    // the event log is streamed as log events rather than as part of the state
+    private static final String EVENT_LOG = "eventLog";
+
+    private final String house;
+    private final Sse sse;
+    private final List<StreamSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    // the last state sent and how many log entries have been sent; null while nobody listens
+    private ObjectNode lastState = null;
+    private long lastVersion = StateSnapshot.UNVERSIONED;
+    private int logCount = 0;
+
+    // the event bus subscription that feeds this broadcaster
+    private Flow.Subscription subscription;
+
+    /**
+     * Create a new broadcaster
+     * @param house the house name
+     * @param sse builds the events
+     */
+    public StateBroadcaster(String house, Sse sse) {
+        this.house = house;
+        this.sse = sse;
+    }
+
+    /**
+     * Add a subscriber. It is sent the full state first, and the changes after that.
+     * @param subscriber the new subscriber
+     * @param snapshot the current state, used if no state has been sent yet
+     */
+    public synchronized void subscribe(StreamSubscriber subscriber, StateSnapshot snapshot) {
+        if (lastState == null) {
+            baseline(snapshot);
+        }
+        ObjectNode data = MAPPER.createObjectNode();
+        data.put("house", house);
+        data.put("version", lastVersion);
+        data.set("state", lastState);
+        if (subscriber.send(event("state", data))) {
+            subscribers.add(subscriber);
+        }
+    }
+
+    /**
+     * Send the changes between the last state sent and a new state
+     * @param snapshot the new state
+     */
+    public synchronized void publish(StateSnapshot snapshot) {
+        subscribers.removeIf(s -> !s.isOpen());
+        if (subscribers.isEmpty()) {
+            // nobody is listening, so there is nothing to compare against next time either
+            lastState = null;
+            return;
+        }
+        if (lastState == null) {
+            baseline(snapshot);
+            return;
+        }
+
+        ObjectNode state = MAPPER.valueToTree(snapshot.getHome());
+        JsonNode log = state.remove(EVENT_LOG);
+
+        ObjectNode changes = MAPPER.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = state.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (!field.getValue().equals(lastState.get(field.getKey()))) {
+                changes.set(field.getKey(), field.getValue());
+            }
+        }
+        Iterator<String> names = lastState.fieldNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!state.has(name)) {
+                changes.putNull(name);
+            }
+        }
+
+        ArrayNode entries = MAPPER.createArrayNode();
+        if (log != null && log.isArray()) {
+            for (int i = Math.min(logCount, log.size()); i < log.size(); i++) {
+                if (!log.get(i).asText().isBlank()) {
+                    entries.add(log.get(i));
+                }
+            }
+            logCount = log.size();
+        }
+
+        lastState = state;
+        lastVersion = snapshot.getVersion();
+
+        if (!changes.isEmpty()) {
+            ObjectNode data = MAPPER.createObjectNode();
+            data.put("house", house);
+            data.put("version", lastVersion);
+            data.set("changes", changes);
+            broadcast(event("delta", data));
+        }
+        if (!entries.isEmpty()) {
+            ObjectNode data = MAPPER.createObjectNode();
+            data.put("house", house);
+            data.set("entries", entries);
+            broadcast(event("log", data));
+        }
+    }
+
+    /**
+     * Set the event bus subscription that feeds this broadcaster, so that it ends with it
+     * @param subscription the subscription
+     */
+    public synchronized void setSubscription(Flow.Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    /**
+     * Stop broadcasting, when the house goes away. The subscribers are disconnected, so that
+     * they reconnect to whatever replaces the house.
+     */
+    public synchronized void close() {
+        if (subscription != null) {
+            subscription.cancel();
+            subscription = null;
+        }
+        for (StreamSubscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        subscribers.clear();
+        lastState = null;
+    }
+
+    /**
+     * Get the number of connected subscribers
+     * @return the subscriber count
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private void baseline(StateSnapshot snapshot) {
+        lastState = MAPPER.valueToTree(snapshot.getHome());
+        JsonNode log = lastState.remove(EVENT_LOG);
+        logCount = log != null && log.isArray() ? log.size() : 0;
+        lastVersion = snapshot.getVersion();
+    }
+
+    private void broadcast(OutboundSseEvent event) {
+        for (StreamSubscriber subscriber : subscribers) {
+            if (!subscriber.send(event)) {
+                subscribers.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Build an event. The data is serialized here, once for all subscribers.
+     */
+    private OutboundSseEvent event(String name, ObjectNode data) {
+        try {
+            return sse.newEventBuilder()
+                    .name(name)
+                    .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                    .data(String.class, MAPPER.writeValueAsString(data))
+                    .build();
+        } catch (JsonProcessingException x) {
+            throw new IllegalStateException("Cannot serialize " + name + " event for house " + house, x);
+        }
+    }
+}
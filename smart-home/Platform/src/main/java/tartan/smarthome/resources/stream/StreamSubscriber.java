@@ -0,0 +1,135 @@
+package tartan.smarthome.resources.stream;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * One client of the event stream. A client may follow several houses, but it has a single bounded
+ * queue of events, written to the socket by a writer of its own: the broadcasters only queue, so a
+ * client that stalls in a write holds up nobody else. A client that falls too far behind is
+ * disconnected rather than buffered without limit.
+ */
+public class StreamSubscriber {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamSubscriber.class);
+
+    private final SseEventSink sink;
+
+    // the most events that may wait to be written to this client, the one being written included
+    private final int maxPending;
+
+    // runs the writer; a write may block for as long as the client does not read
+    private final Executor writer;
+
+    // the events not yet written, and whether the writer is running
+    private final Queue<OutboundSseEvent> queue = new ArrayDeque<>();
+    private boolean writing = false;
+
+    /**
+     * Create a new subscriber
+     * @param sink the client connection
+     * @param maxPending the most events that may wait to be written
+     * @param writer runs the writes to the client
+     */
+    public StreamSubscriber(SseEventSink sink, int maxPending, Executor writer) {
+        this.sink = sink;
+        this.maxPending = maxPending;
+        this.writer = writer;
+    }
+
+    /**
+     * Queue an event for the client. This never waits for the client.
+     * @param event the event
+     * @return false if the client is gone or too slow and has been disconnected
+     */
+    public boolean send(OutboundSseEvent event) {
+        if (sink.isClosed()) {
+            return false;
+        }
+        synchronized (queue) {
+            if (queue.size() >= maxPending) {
+                LOGGER.info("Disconnecting slow stream client with " + maxPending + " events pending");
+                queue.clear();
+                close();
+                return false;
+            }
+            queue.add(event);
+            if (writing) {
+                return true;
+            }
+            writing = true;
+        }
+        try {
+            writer.execute(this::write);
+        } catch (RejectedExecutionException x) {
+            // the server is stopping
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the client is still connected
+     * @return true if the client is connected
+     */
+    public boolean isOpen() {
+        return !sink.isClosed();
+    }
+
+    /**
+     * Disconnect the client
+     */
+    public void close() {
+        try {
+            sink.close();
+        } catch (Exception x) {
+            LOGGER.debug("Failed to close stream client", x);
+        }
+    }
+
+    /**
+     * Write the oldest event. It stays in the queue, and counts against the bound, until the sink
+     * has written it; the next write is started when it completes
+     */
+    private void write() {
+        OutboundSseEvent event;
+        synchronized (queue) {
+            event = queue.peek();
+            if (event == null || sink.isClosed()) {
+                queue.clear();
+                writing = false;
+                return;
+            }
+        }
+        try {
+            sink.send(event).whenComplete((result, x) -> {
+                if (x != null) {
+                    close();
+                }
+                synchronized (queue) {
+                    queue.poll();
+                }
+                try {
+                    writer.execute(this::write);
+                } catch (RejectedExecutionException stopping) {
+                    close();
+                }
+            });
+        } catch (RuntimeException x) {
+            LOGGER.debug("Failed to write to stream client", x);
+            close();
+            synchronized (queue) {
+                queue.clear();
+                writing = false;
+            }
+        }
+    }
+}
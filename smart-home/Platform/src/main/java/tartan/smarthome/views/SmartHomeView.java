@@ -1,6 +1,7 @@
 package tartan.smarthome.views;
 
 import io.dropwizard.views.common.View;
+import tartan.smarthome.core.ReadingText;
 import tartan.smarthome.core.TartanHome;
 
 /**
@@ -26,4 +27,13 @@ public class SmartHomeView extends View {
     public TartanHome getTartanHome() {
         return tartanHome;
     }
+
+    /**
+     * Tell whether a reading is unknown, so the template can show UNKNOWN instead of the number
+     * @param reading the reading, or null
+     * @return true if the reading is unknown
+     */
+    public boolean isUnknown(Integer reading) {
+        return ReadingText.isUnknown(reading);
+    }
 }
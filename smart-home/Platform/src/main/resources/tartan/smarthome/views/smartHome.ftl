@@ -1,6 +1,8 @@
 <!-- This Apache Freemarker script is similar to a Java Server Page. It renders Dynamic server-side contnent.
 See -->
 <#-- @ftlvariable name="" type="tartan.smarthome.views.SmartHomeView" -->
+<#-- readings are ints; print them without grouping, and the unknown reading as UNKNOWN -->
+<#macro reading value><#if isUnknown(value)>UNKNOWN<#else>${value?c}</#if></#macro>
 <html lang="us">
 <head>
     <script src="https://ajax.googleapis.com/ajax/libs/jquery/3.1.0/jquery.min.js"></script>
@@ -96,14 +98,14 @@ div {
 <fieldset id="${tartanHome.name}_control"><legend><h2>House: ${tartanHome.name}@${tartanHome.address}</h2></legend>
     <h3>HVAC</h3>
     <p>
-        <strong>Temperature: <font color="blue">${tartanHome.temperature} F </font></strong>
+        <strong>Temperature: <font color="blue"><@reading tartanHome.temperature/> F </font></strong>
     </p>
     <strong>
         <label for="targetTemp">Set Temperature: </label>
-        <input id="targetTemp" type="number" value="${tartanHome.targetTemp}" min="50" max="85" /> degrees F
+        <input id="targetTemp" type="number" value="<@reading tartanHome.targetTemp/>" min="50" max="85" /> degrees F
     </strong>
     <p>
-        <strong>Humidity: <font color="blue">${tartanHome.humidity}% </font></strong>
+        <strong>Humidity: <font color="blue"><@reading tartanHome.humidity/>% </font></strong>
     </p>
     <p>
         <strong><label for="humidifier">Humidifier:</label></strong>
@@ -179,7 +181,7 @@ div {
     </p>
     <p>
         <strong>
-            Alarm delay: <input id="alarmDelay" type="number" value="${tartanHome.alarmDelay}" /> seconds
+            Alarm delay: <input id="alarmDelay" type="number" value="<@reading tartanHome.alarmDelay/>" /> seconds
         </strong>
     </p>
     <hr>
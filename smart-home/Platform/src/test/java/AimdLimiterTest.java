@@ -0,0 +1,51 @@
+package tartan.tests.limit;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.limit.AimdLimiter;
+
+class AimdLimiterTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(1000);
+
+    @Test
+    void requestsOverTheLimitAreRejected() {
+        var limiter = new AimdLimiter(2, 1, 10, 100, 0.5);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release(FAST);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void slowRequestsCutTheLimitAndFastOnesGrowIt() {
+        var metrics = new MetricRegistry();
+        var limiter = new AimdLimiter(8, 2, 10, 100, 0.5);
+        limiter.registerMetrics(metrics);
+        assertTrue(limiter.tryAcquire());
+        limiter.release(SLOW);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(4, metrics.getGauges().get(MetricRegistry.name(AimdLimiter.class, "limit")).getValue());
+
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.tryAcquire();
+            }
+            while (limiter.getInflight() > 0) {
+                limiter.release(FAST);
+            }
+        }
+        assertEquals(10, limiter.getLimit());
+    }
+}
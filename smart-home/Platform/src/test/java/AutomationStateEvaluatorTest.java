@@ -0,0 +1,125 @@
+package tartan.tests.automation;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import tartan.tests.util.Utility;
+import tartan.smarthome.TartanAutomationSettings;
+import tartan.smarthome.resources.StaticTartanStateEvaluator;
+import tartan.smarthome.resources.automation.AutomationRule;
+import tartan.smarthome.resources.automation.AutomationStateEvaluator;
+import tartan.smarthome.resources.iotcontroller.IoTValues;
+
+class AutomationStateEvaluatorTest {
+
+    private Clock at(int hour) {
+        return Clock.fixed(LocalDateTime.of(2024, 1, 1, hour, 0).toInstant(ZoneOffset.UTC), ZoneId.of("UTC"));
+    }
+
+    private Map<String, Object> occupiedState() {
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, true);
+        state.put(IoTValues.DOOR_STATE, false);
+        state.put(IoTValues.HVAC_MODE, "Chiller");
+        state.put(IoTValues.TEMP_READING, 75); // the dehumidifier only runs with the chiller
+        return state;
+    }
+
+    @Test
+    void ruleFiresWhenTriggerChanges() {
+        var rule = new AutomationRule("dehumidify", IoTValues.HUMIDITY_READING, ">", "70",
+                null, null, IoTValues.HUMIDIFIER_STATE, "on");
+        var evaluator = new AutomationStateEvaluator(List.of(rule), new StaticTartanStateEvaluator(), at(12));
+        var log = new StringBuffer();
+
+        Map<String, Object> state = occupiedState();
+        state.put(IoTValues.HUMIDITY_READING, 75);
+        var evaluatedState = evaluator.evaluateState(state, log);
+        assertEquals(true, evaluatedState.get(IoTValues.HUMIDIFIER_STATE));
+
+        // The humidity did not change, so the rule is not run again
+        state.put(IoTValues.HUMIDIFIER_STATE, false);
+        evaluatedState = evaluator.evaluateState(state, log);
+        assertEquals(false, evaluatedState.get(IoTValues.HUMIDIFIER_STATE));
+    }
+
+    @Test
+    void ruleOnlyFiresInsideTimeWindow() {
+        var rule = new AutomationRule("porch light", IoTValues.DOOR_STATE, "=", "open",
+                LocalTime.of(22, 0), LocalTime.of(6, 0), IoTValues.LIGHT_STATE, "on");
+        var log = new StringBuffer();
+
+        Map<String, Object> state = occupiedState();
+        state.put(IoTValues.ALARM_STATE, true);
+        state.put(IoTValues.DOOR_STATE, true);
+
+        var daytime = new AutomationStateEvaluator(List.of(rule), new StaticTartanStateEvaluator(), at(12));
+        assertEquals(false, daytime.evaluateState(state, log).get(IoTValues.LIGHT_STATE));
+
+        var night = new AutomationStateEvaluator(List.of(rule), new StaticTartanStateEvaluator(), at(23));
+        assertEquals(true, night.evaluateState(state, log).get(IoTValues.LIGHT_STATE));
+    }
+
+    @Test
+    void houseRulesStillApply() {
+        var rule = new AutomationRule("lights", IoTValues.HUMIDITY_READING, ">=", "0",
+                null, null, IoTValues.LIGHT_STATE, "on");
+        var evaluator = new AutomationStateEvaluator(List.of(rule), new StaticTartanStateEvaluator(), at(12));
+
+        // Nobody is home, so the light may not be turned on
+        Map<String, Object> state = occupiedState();
+        state.put(IoTValues.PROXIMITY_STATE, false);
+        var evaluatedState = evaluator.evaluateState(state, new StringBuffer());
+        assertEquals(false, evaluatedState.get(IoTValues.LIGHT_STATE));
+    }
+
+    @Test
+    void rulesMayNotTouchTheAlarmOrTheDoor() {
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("disarm", IoTValues.TEMP_READING,
+                ">", "90", null, null, IoTValues.ALARM_STATE, "disarmed"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("silence", IoTValues.DOOR_STATE,
+                "=", "open", null, null, IoTValues.ALARM_ACTIVE, "off"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("open up", IoTValues.PROXIMITY_STATE,
+                "=", "occupied", null, null, IoTValues.DOOR_STATE, "open"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("passcode", IoTValues.DOOR_STATE,
+                "=", "open", null, null, IoTValues.GIVEN_PASSCODE, "1"));
+    }
+
+    @Test
+    void rulesOnlyUseKnownKeys() {
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("unknown trigger", "XX",
+                "=", "1", null, null, IoTValues.LIGHT_STATE, "on"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("passcode trigger", IoTValues.ALARM_PASSCODE,
+                "=", "1234", null, null, IoTValues.LIGHT_STATE, "on"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("unknown action", IoTValues.DOOR_STATE,
+                "=", "open", null, null, "XX", "on"));
+        assertThrows(IllegalArgumentException.class, () -> new AutomationRule("unknown mode", IoTValues.DOOR_STATE,
+                "=", "open", null, null, IoTValues.HVAC_MODE, "Fan"));
+    }
+
+    @Test
+    void configuredRulesAreCheckedToo() {
+        var settings = new TartanAutomationSettings();
+        settings.setName("disarm");
+        settings.setTrigger(IoTValues.PROXIMITY_STATE);
+        settings.setCondition("=");
+        settings.setValue("occupied");
+        settings.setAction(IoTValues.ALARM_STATE);
+        settings.setActionValue("disarmed");
+
+        assertThrows(IllegalArgumentException.class, () -> AutomationRule.fromSettings(settings));
+
+        settings.setAction(IoTValues.LIGHT_STATE);
+        settings.setActionValue("on");
+        assertEquals(IoTValues.LIGHT_STATE, AutomationRule.fromSettings(settings).getAction());
+    }
+}
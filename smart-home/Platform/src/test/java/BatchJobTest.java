@@ -0,0 +1,84 @@
+package tartan.tests.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.batch.BatchJob;
+
+class BatchJobTest {
+
+    @Test
+    void runsAtMostParallelismUpdatesAtOnce() {
+        var job = new BatchJob("job", "user");
+        var running = new ArrayList<CompletableFuture<Boolean>>();
+        for (int i = 0; i < 5; i++) {
+            job.add("house" + i, () -> {
+                var update = new CompletableFuture<Boolean>();
+                running.add(update);
+                return update;
+            });
+        }
+
+        var done = job.start(2, 10);
+        assertEquals(2, running.size());
+
+        running.get(0).complete(true);
+        assertEquals(3, running.size());
+        running.get(1).completeExceptionally(new IllegalStateException("house down"));
+        running.get(2).complete(true);
+        running.get(3).complete(true);
+        assertFalse(done.isDone());
+        running.get(4).complete(true);
+
+        assertTrue(done.isDone());
+        assertEquals(5, job.getCompleted());
+        List<BatchJob.Result> results = job.getResults();
+        assertEquals(BatchJob.OK, results.get(0).getStatus());
+        assertEquals(BatchJob.FAILED, results.get(1).getStatus());
+        assertEquals("house down", results.get(1).getError());
+    }
+
+    @Test
+    void failedAndFinishedUpdatesDoNotHoldUpTheJob() {
+        var job = new BatchJob("job", "user");
+        job.addFailed("a", "unknown house");
+        job.add("b", () -> CompletableFuture.completedFuture(true));
+        job.addFailed("c", "unauthorized");
+
+        var done = job.start(1, 10);
+
+        assertTrue(done.isDone());
+        assertEquals(3, job.getCompleted());
+        assertEquals(BatchJob.FAILED, job.getResults().get(0).getStatus());
+        assertEquals(BatchJob.OK, job.getResults().get(1).getStatus());
+        assertEquals("unauthorized", job.getResults().get(2).getError());
+    }
+
+    @Test
+    void anUpdateTheHouseRefusedIsNotOk() {
+        var job = new BatchJob("job", "user");
+        job.add("a", () -> CompletableFuture.completedFuture(false));
+
+        job.start(1, 10);
+
+        assertEquals(BatchJob.FAILED, job.getResults().get(0).getStatus());
+    }
+
+    @Test
+    void aTimedOutUpdateIsCompletedSoItIsNotSentLater() {
+        var job = new BatchJob("job", "user");
+        var update = new CompletableFuture<Boolean>();
+        job.add("a", () -> update);
+
+        job.start(1, 1).join();
+
+        assertTrue(update.isCompletedExceptionally());
+        assertEquals(BatchJob.TIMEOUT, job.getResults().get(0).getStatus());
+    }
+}
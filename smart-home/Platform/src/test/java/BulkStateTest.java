@@ -0,0 +1,141 @@
+package tartan.tests.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.auth.TartanUser;
+import tartan.smarthome.core.TartanBatchUpdate;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.resources.HouseRegistry;
+import tartan.smarthome.resources.TartanResource;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.schedule.ScheduleEngine;
+
+class BulkStateTest {
+
+    private ScheduledExecutorService connector;
+    private HouseRegistry registry;
+    private TartanResource resource;
+
+    private TartanHomeSettings unreachableHouse(String name, String group) {
+        var settings = new TartanHomeSettings();
+        settings.setName(name);
+        settings.setAddress("127.0.0.1");
+        settings.setPort(1);
+        settings.setUser(name);
+        settings.setPassword("1234");
+        settings.setTargetTemp("70");
+        settings.setAlarmDelay("30");
+        settings.setAlarmPasscode("quit");
+        settings.setGroups(List.of(group));
+        return settings;
+    }
+
+    @BeforeEach
+    void startHouses() {
+        connector = Executors.newSingleThreadScheduledExecutor();
+        var bus = new StateEventBus(Runnable::run, 4, Map.of());
+        registry = new HouseRegistry(new ScheduleEngine(), null, bus, Runnable::run, 16, null, connector, 60);
+        registry.put(unreachableHouse("mse", "pittsburgh"));
+        registry.put(unreachableHouse("cmu", "pittsburgh"));
+        registry.put(unreachableHouse("sv", "california"));
+        resource = new TartanResource(registry, Runnable::run, bus, 1, 2, Runnable::run);
+    }
+
+    @AfterEach
+    void stopHouses() {
+        registry.remove("mse");
+        registry.remove("cmu");
+        registry.remove("sv");
+        connector.shutdownNow();
+    }
+
+    // an async response that keeps what it is resumed with
+    private AsyncResponse responseInto(List<Object> resumed) {
+        return (AsyncResponse) Proxy.newProxyInstance(AsyncResponse.class.getClassLoader(),
+                new Class<?>[] {AsyncResponse.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("resume")) {
+                        resumed.add(args[0]);
+                    }
+                    return method.getReturnType() == boolean.class ? true : null;
+                });
+    }
+
+    // the house names in a bulk response
+    private List<String> read(String houses, String group, TartanUser user) throws Exception {
+        var resumed = new ArrayList<Object>();
+        var response = responseInto(resumed);
+        var request = (Request) Proxy.newProxyInstance(Request.class.getClassLoader(),
+                new Class<?>[] {Request.class}, (proxy, method, args) -> null);
+
+        resource.states(houses, group, user, request, response);
+
+        assertEquals(1, resumed.size());
+        var body = new ByteArrayOutputStream();
+        ((StreamingOutput) ((Response) resumed.get(0)).getEntity()).write(body);
+        var names = new ArrayList<String>();
+        for (JsonNode house : new ObjectMapper().readTree(body.toByteArray()).get("houses")) {
+            names.add(house.get("name").asText());
+        }
+        return names;
+    }
+
+    @Test
+    void anAdministratorReadsSeveralHousesAtOnce() throws Exception {
+        var admin = new TartanUser("operator", null, true);
+
+        assertEquals(List.of("mse", "cmu"), read("mse,cmu,mse", null, admin));
+        assertEquals(Set.of("mse", "cmu"), Set.copyOf(read(null, "pittsburgh", admin)));
+        assertEquals(3, read(null, null, admin).size());
+    }
+
+    @Test
+    void aHouseUserReadsOnlyTheirHouse() throws Exception {
+        var user = new TartanUser("mse", "mse");
+
+        assertEquals(List.of("mse"), read(null, "pittsburgh", user));
+        assertEquals(List.of("mse"), read(null, null, user));
+    }
+
+    @Test
+    void aBatchOverTheFleetLimitIsRefused() {
+        var admin = new TartanUser("operator", null, true);
+        var updates = new ArrayList<TartanBatchUpdate.HouseUpdate>();
+        for (int i = 0; i < 1023; i++) {
+            var update = new TartanBatchUpdate.HouseUpdate();
+            update.setHouse("sv");
+            update.setPatch(new TartanHome());
+            updates.add(update);
+        }
+        var batch = new TartanBatchUpdate();
+        batch.setUpdates(updates);
+        batch.setGroup("pittsburgh");
+        batch.setPatch(new TartanHome());
+        var resumed = new ArrayList<Object>();
+
+        // 1023 listed updates and the two houses of the group
+        resource.updates(false, admin, batch, null, responseInto(resumed));
+
+        assertEquals(1, resumed.size());
+        assertEquals(400, ((Response) resumed.get(0)).getStatus());
+    }
+}
@@ -0,0 +1,155 @@
+package tartan.tests.breaker;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.CircuitBreaker;
+import tartan.smarthome.resources.SerialExecutor;
+import tartan.smarthome.resources.iotcontroller.Priority;
+
+class CircuitBreakerTest {
+
+    /**
+     * A clock that only moves when told to
+     */
+    private static class TestClock extends Clock {
+        private long millis = 1000;
+
+        void advanceSeconds(int seconds) { millis += seconds * 1000L; }
+
+        @Override
+        public ZoneId getZone() { return ZoneId.of("UTC"); }
+
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+
+        @Override
+        public long millis() { return millis; }
+
+        @Override
+        public Instant instant() { return Instant.ofEpochMilli(millis); }
+    }
+
+    @Test
+    void failuresOpenTheBreakerOnceEnoughCallsAreKnown() {
+        var breaker = new CircuitBreaker(10, 50, 30, new TestClock());
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void answersKeepTheFailureRateDown() {
+        var breaker = new CircuitBreaker(10, 50, 30, new TestClock());
+        for (int i = 0; i < 20; i++) {
+            breaker.onSuccess();
+            breaker.onSuccess();
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void oneTrialCallDecidesWhetherTheBreakerCloses() {
+        var clock = new TestClock();
+        var breaker = new CircuitBreaker(2, 50, 30, clock);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        clock.advanceSeconds(30);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        clock.advanceSeconds(30);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    void anIgnoredTrialLetsAnotherThrough() {
+        var clock = new TestClock();
+        var breaker = new CircuitBreaker(2, 50, 30, clock);
+        breaker.onFailure();
+        clock.advanceSeconds(30);
+
+        assertTrue(breaker.allowRequest());
+        breaker.onIgnored();
+        assertTrue(breaker.allowRequest());
+    }
+
+    private static int sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        return 1;
+    }
+
+    @Test
+    void timeWaitingInTheLaneDoesNotCountAgainstTheHouse() throws Exception {
+        var breaker = new CircuitBreaker(2, 50, 30, new TestClock());
+        var pool = Executors.newSingleThreadExecutor();
+        try {
+            var lane = new SerialExecutor(pool, 16);
+            var calls = new ArrayList<CompletableFuture<Integer>>();
+            // each call runs within the timeout, but the last waits for longer than it
+            for (int i = 0; i < 3; i++) {
+                calls.add(breaker.call(lane, () -> sleep(80), Priority.USER, 100, TimeUnit.MILLISECONDS));
+            }
+            for (var call : calls) {
+                assertEquals(1, call.get());
+            }
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aCallThatRunsTooLongIsAFailure() throws Exception {
+        var breaker = new CircuitBreaker(2, 50, 30, new TestClock());
+        var pool = Executors.newSingleThreadExecutor();
+        try {
+            var lane = new SerialExecutor(pool, 16);
+            var slow = breaker.call(lane, () -> sleep(500), Priority.USER, 50, TimeUnit.MILLISECONDS);
+            var queued = breaker.call(lane, () -> sleep(0), Priority.USER, 50, TimeUnit.MILLISECONDS);
+            queued.cancel(false);
+
+            var x = assertThrows(ExecutionException.class, slow::get);
+            assertTrue(x.getCause() instanceof TimeoutException);
+            for (int i = 0; i < 100 && !breaker.isOpen(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
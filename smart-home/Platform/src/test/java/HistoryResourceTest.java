@@ -0,0 +1,99 @@
+package tartan.tests.history;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import org.hibernate.SessionFactory;
+
+import tartan.smarthome.auth.TartanUser;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.core.TartanHomeValues;
+import tartan.smarthome.db.HomeDAO;
+import tartan.smarthome.resources.history.Historian;
+import tartan.smarthome.resources.history.HistoryResource;
+
+class HistoryResourceTest {
+
+    // a DAO serving fixed rows, and the periods it was asked for
+    private static class FixedHistory extends HomeDAO {
+        final List<TartanHomeData> rows;
+        final List<Date[]> asked = new ArrayList<>();
+
+        FixedHistory(List<TartanHomeData> rows) {
+            super((SessionFactory) Proxy.newProxyInstance(SessionFactory.class.getClassLoader(),
+                    new Class<?>[] {SessionFactory.class}, (proxy, method, args) -> {
+                        throw new UnsupportedOperationException();
+                    }));
+            this.rows = rows;
+        }
+
+        @Override
+        public List<TartanHomeData> findHistory(String homeName, Date from, Date to) {
+            asked.add(new Date[] {from, to});
+            return rows;
+        }
+    }
+
+    private TartanHomeData row(long seconds, Power light, int temperature) {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setLight(light);
+        home.setTemperature(temperature);
+        var row = new TartanHomeData(home);
+        row.setCreateTimeStamp(new Date(seconds * 1000));
+        return row;
+    }
+
+    private HistoryResource resource(HomeDAO dao) {
+        // rows every 60 seconds, with a heartbeat every 60 seconds
+        return new HistoryResource(new Historian(null, dao, null, null, 60, 10, true, 60));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void theHistoryOfAPeriodIsServedAsText() {
+        var dao = new FixedHistory(List.of(row(100, Power.OFF, 70), row(160, Power.ON, TartanHomeValues.UNKNOWN_READING)));
+        var user = new TartanUser("user", "house");
+
+        var response = resource(dao).history("house", 50_000L, 200_000L, user);
+
+        assertEquals(200, response.getStatus());
+        assertEquals(50_000L, dao.asked.get(0)[0].getTime());
+        assertEquals(200_000L, dao.asked.get(0)[1].getTime());
+        var rows = (List<Map<String, Object>>) ((Map<String, Object>) response.getEntity()).get("rows");
+        assertEquals(2, rows.size());
+        assertEquals(100_000L, rows.get(0).get("time"));
+        assertEquals("70", rows.get(0).get("temperature"));
+        assertEquals("off", rows.get(0).get("light"));
+        assertEquals(TartanHomeValues.UNKNOWN, rows.get(1).get("temperature"));
+    }
+
+    @Test
+    void aTimeInAGapInTheRecordingIsNotFound() {
+        var dao = new FixedHistory(List.of(row(100, Power.OFF, 70)));
+        var user = new TartanUser("user", "house");
+
+        assertEquals(200, resource(dao).at("house", 150_000L, user).getStatus());
+        assertEquals(404, resource(dao).at("house", 300_000L, user).getStatus());
+        assertEquals(404, resource(dao).at("house", 50_000L, user).getStatus());
+    }
+
+    @Test
+    void otherHousesAndBadPeriodsAreRefused() {
+        var dao = new FixedHistory(List.of());
+        var user = new TartanUser("user", "house");
+
+        assertEquals(401, resource(dao).history("other", null, null, user).getStatus());
+        assertEquals(400, resource(dao).history("house", 200_000L, 100_000L, user).getStatus());
+        assertEquals(400, resource(dao).at("house", null, user).getStatus());
+        assertEquals(0, dao.asked.size());
+    }
+}
@@ -0,0 +1,111 @@
+package tartan.tests.history;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.resources.history.HistorySpool;
+
+class HistorySpoolTest {
+
+    @TempDir
+    Path dir;
+
+    private TartanHomeData row(int temperature) {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setAddress("127.0.0.1");
+        home.setTemperature(temperature);
+        home.setDoor(DoorState.CLOSED);
+        var row = new TartanHomeData(home);
+        row.setCreateTimeStamp(new Date(1000L * temperature));
+        return row;
+    }
+
+    @Test
+    void rowsLeftInTheSpoolAreReplayedAfterAReopen() throws Exception {
+        var file = dir.resolve("history.spool");
+        try (var spool = new HistorySpool(file, 64 * 1024)) {
+            assertTrue(spool.append(List.of(row(70), row(71), row(72))));
+            assertEquals(2, spool.peek(2).size());
+            spool.commit();
+        }
+
+        try (var spool = new HistorySpool(file, 64 * 1024)) {
+            assertEquals(1, spool.getDepth());
+            var rows = spool.peek(10);
+            assertEquals(72, rows.get(0).getTemperature());
+            assertEquals(DoorState.CLOSED, rows.get(0).getDoor());
+            assertEquals(72_000, rows.get(0).getCreateTimeStamp().getTime());
+            assertEquals(8_000, spool.getLag(80_000));
+            spool.commit();
+            assertEquals(0, spool.getDepth());
+            assertEquals(0, spool.getLag(80_000));
+        }
+    }
+
+    @Test
+    void rowsStayUntilTheirBatchIsCommitted() throws Exception {
+        try (var spool = new HistorySpool(dir.resolve("history.spool"), 64 * 1024)) {
+            spool.append(List.of(row(70), row(71)));
+            assertEquals(70, spool.peek(1).get(0).getTemperature());
+            assertEquals(70, spool.peek(1).get(0).getTemperature());
+            spool.commit();
+            assertEquals(71, spool.peek(1).get(0).getTemperature());
+        }
+    }
+
+    @Test
+    void aFullSpoolRefusesRowsUntilDrainedSpaceIsReclaimed() throws Exception {
+        try (var spool = new HistorySpool(dir.resolve("history.spool"), 2048)) {
+            int appended = 0;
+            while (spool.append(List.of(row(appended)))) {
+                appended++;
+            }
+            assertTrue(appended > 2);
+            assertEquals(1, spool.getDropped());
+            assertFalse(spool.append(List.of(row(0))));
+
+            spool.peek(appended - 1);
+            spool.commit();
+            assertTrue(spool.append(List.of(row(100))));
+            assertEquals(2, spool.getDepth());
+            assertEquals(appended - 1, spool.peek(1).get(0).getTemperature());
+        }
+    }
+
+    @Test
+    void unreadableRecordsAreSkippedAndCounted() throws Exception {
+        var file = dir.resolve("history.spool");
+        try (var spool = new HistorySpool(file, 64 * 1024)) {
+            assertTrue(spool.append(List.of(row(70), row(71))));
+            assertTrue(spool.append(List.of(row(72))));
+        }
+        // the length and creation time stay valid, but the first row is no longer Smile
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0 }), 24 + Integer.BYTES + Long.BYTES);
+        }
+
+        try (var spool = new HistorySpool(file, 64 * 1024)) {
+            var rows = spool.peek(2);
+            assertEquals(1, rows.size());
+            assertEquals(71, rows.get(0).getTemperature());
+            spool.commit();
+            assertEquals(1, spool.getCorrupt());
+            assertEquals(1, spool.getDepth());
+            assertEquals(72, spool.peek(2).get(0).getTemperature());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package tartan.tests.history;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.resources.history.HistoryTimeline;
+
+class HistoryTimelineTest {
+
+    private TartanHomeData row(long seconds, Power light, int temperature) {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setLight(light);
+        home.setTemperature(temperature);
+        var row = new TartanHomeData(home);
+        row.setCreateTimeStamp(new Date(seconds * 1000));
+        return row;
+    }
+
+    @Test
+    void rowsHoldUntilTheNextRow() {
+        var first = row(100, Power.OFF, 70);
+        var second = row(160, Power.ON, 70);
+        var timeline = new HistoryTimeline(List.of(first, second), 90_000);
+
+        assertNull(timeline.at(new Date(99_000)));
+        assertSame(first, timeline.at(new Date(100_000)));
+        assertSame(first, timeline.at(new Date(159_999)));
+        assertSame(second, timeline.at(new Date(200_000)));
+    }
+
+    @Test
+    void aRowOlderThanTheHeartbeatIsAGap() {
+        var timeline = new HistoryTimeline(List.of(row(100, Power.OFF, 70), row(400, Power.OFF, 70)), 90_000);
+
+        assertNull(timeline.at(new Date(300_000)));
+        assertNull(timeline.at(new Date(500_000)));
+    }
+
+    @Test
+    void onlyTheRecordedValuesMakeADifferentState() {
+        assertTrue(row(100, Power.OFF, 70).sameState(row(200, Power.OFF, 70)));
+        assertFalse(row(100, Power.OFF, 70).sameState(row(100, Power.ON, 70)));
+        assertFalse(row(100, Power.OFF, 70).sameState(row(100, Power.OFF, 71)));
+        assertFalse(row(100, Power.OFF, 70).sameState(null));
+    }
+}
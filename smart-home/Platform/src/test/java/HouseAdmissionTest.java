@@ -0,0 +1,97 @@
+package tartan.tests.admission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.SerialExecutor;
+import tartan.smarthome.resources.iotcontroller.HouseAdmission;
+import tartan.smarthome.resources.iotcontroller.Priority;
+
+class HouseAdmissionTest {
+
+    /** Holds the tasks until the test runs them */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    @Test
+    void backgroundWorkIsShedWhileTheSocketIsBusy() {
+        var admission = new HouseAdmission();
+        assertTrue(admission.acquire(Priority.USER));
+        assertFalse(admission.acquire(Priority.BACKGROUND));
+        admission.release();
+        assertTrue(admission.acquire(Priority.BACKGROUND));
+        admission.release();
+
+        assertEquals(1, admission.getShed(Priority.BACKGROUND));
+        assertEquals(1, admission.getAdmitted(Priority.BACKGROUND));
+    }
+
+    @Test
+    void securityCommandsGoAheadOfWaitingUserCommands() throws Exception {
+        var admission = new HouseAdmission();
+        var order = Collections.synchronizedList(new ArrayList<Priority>());
+        assertTrue(admission.acquire(Priority.BACKGROUND));
+
+        var user = waiter(admission, Priority.USER, order);
+        user.start();
+        while (user.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+        var security = waiter(admission, Priority.SECURITY, order);
+        security.start();
+        while (security.getState() != Thread.State.WAITING) {
+            Thread.sleep(5);
+        }
+
+        admission.release();
+        user.join(5000);
+        security.join(5000);
+        assertEquals(List.of(Priority.SECURITY, Priority.USER), order);
+    }
+
+    @Test
+    void houseLanesRunTheMostUrgentTaskNextAndBoundUserWork() {
+        var executor = new ManualExecutor();
+        var lane = new SerialExecutor(executor, 1);
+        var order = new ArrayList<String>();
+
+        lane.execute(() -> order.add("first"));
+        lane.execute(() -> order.add("user"));
+        assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> order.add("rejected")));
+        lane.execute(() -> order.add("disarm"), Priority.SECURITY);
+        executor.runAll();
+
+        assertEquals(List.of("first", "disarm", "user"), order);
+        assertEquals(0, lane.getQueued());
+    }
+
+    private Thread waiter(HouseAdmission admission, Priority priority, List<Priority> order) {
+        return new Thread(() -> {
+            if (admission.acquire(priority)) {
+                order.add(priority);
+                admission.release();
+            }
+        });
+    }
+}
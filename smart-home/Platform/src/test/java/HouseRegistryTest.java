@@ -0,0 +1,92 @@
+package tartan.tests.registry;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.resources.HouseRegistry;
+import tartan.smarthome.resources.TartanHomeService;
+import tartan.smarthome.resources.events.StateEventBus;
+import tartan.smarthome.resources.schedule.ScheduleEngine;
+
+class HouseRegistryTest {
+
+    private TartanHomeSettings unreachableHouse(String name) {
+        var settings = new TartanHomeSettings();
+        settings.setName(name);
+        settings.setAddress("127.0.0.1");
+        settings.setPort(1);
+        settings.setUser("admin");
+        settings.setPassword("1234");
+        settings.setTargetTemp("70");
+        settings.setAlarmDelay("30");
+        settings.setAlarmPasscode("quit");
+        return settings;
+    }
+
+    @Test
+    void unreachableHousesAreRegisteredAndRetried() throws Exception {
+        var connector = Executors.newSingleThreadScheduledExecutor();
+        var bus = new StateEventBus(Runnable::run, 4, Map.of());
+        var registry = new HouseRegistry(new ScheduleEngine(), null, bus, Runnable::run, 16, null, connector, 60);
+        try {
+            assertTrue(registry.put(unreachableHouse("mse")));
+            TartanHomeService service = registry.get("mse");
+            assertFalse(service.isConnected());
+
+            for (int i = 0; i < 100 && !TartanHomeService.RETRYING.equals(service.getStatus()); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(TartanHomeService.RETRYING, service.getStatus());
+
+            assertFalse(registry.put(unreachableHouse("mse")));
+            assertEquals(1, registry.size());
+            assertTrue(registry.remove("mse"));
+            assertNull(registry.get("mse"));
+            assertEquals(0, bus.getSubscriberCount());
+        } finally {
+            connector.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentReplacementsLeaveOneServiceRunning() throws Exception {
+        var connector = Executors.newSingleThreadScheduledExecutor();
+        var admins = Executors.newFixedThreadPool(8);
+        var bus = new StateEventBus(Runnable::run, 4, Map.of());
+        var registry = new HouseRegistry(new ScheduleEngine(), null, bus, Runnable::run, 16, null, connector, 60);
+        try {
+            var puts = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 32; i++) {
+                puts.add(admins.submit(() -> registry.put(unreachableHouse("mse"))));
+            }
+            for (var put : puts) {
+                put.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(1, registry.size());
+            assertTrue(registry.remove("mse"));
+            assertEquals(0, bus.getSubscriberCount(), "Every replaced service was shut down");
+        } finally {
+            admins.shutdownNow();
+            connector.shutdownNow();
+        }
+    }
+
+    @Test
+    void aReplacedHouseNeverReusesTheStateVersionsOfTheOldOne() {
+        var first = new TartanHomeService();
+        var second = new TartanHomeService();
+
+        // the versions of a service count up from its epoch
+        assertTrue(second.getEpoch() >= first.getEpoch() + 1024);
+    }
+}
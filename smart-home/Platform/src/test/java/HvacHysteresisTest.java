@@ -0,0 +1,92 @@
+package tartan.tests.hvac;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import tartan.tests.util.Utility;
+import tartan.smarthome.resources.HvacHysteresis;
+import tartan.smarthome.resources.StaticTartanStateEvaluator;
+import tartan.smarthome.resources.iotcontroller.IoTValues;
+
+class HvacHysteresisTest {
+
+    /**
+     * A clock that only moves when told to
+     */
+    private static class TestClock extends Clock {
+        private long millis = 1000;
+
+        void advanceSeconds(int seconds) { millis += seconds * 1000L; }
+
+        @Override
+        public ZoneId getZone() { return ZoneId.of("UTC"); }
+
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+
+        @Override
+        public long millis() { return millis; }
+
+        @Override
+        public Instant instant() { return Instant.ofEpochMilli(millis); }
+    }
+
+    private Map<String, Object> hvacState(int temperature, boolean heaterOn) {
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, true);
+        state.put(IoTValues.HVAC_MODE, "Heater");
+        state.put(IoTValues.TARGET_TEMP, 70);
+        state.put(IoTValues.TEMP_READING, temperature);
+        state.put(IoTValues.HEATER_STATE, heaterOn);
+        state.put(IoTValues.HVAC_DEADBAND, 1);
+        state.put(IoTValues.HVAC_MIN_ON_TIME, 300);
+        state.put(IoTValues.HVAC_MIN_OFF_TIME, 180);
+        return state;
+    }
+
+    @Test
+    void heaterHoldsInsideDeadband() {
+        var evaluator = new StaticTartanStateEvaluator(new HvacHysteresis(new TestClock()));
+        var log = new StringBuffer();
+
+        // Below the deadband the heater comes on
+        var evaluatedState = evaluator.evaluateState(hvacState(68, false), log);
+        assertEquals(true, evaluatedState.get(IoTValues.HEATER_STATE));
+
+        // Crossing the target is not enough to turn it off
+        evaluatedState = evaluator.evaluateState(hvacState(70, true), log);
+        assertEquals(true, evaluatedState.get(IoTValues.HEATER_STATE));
+    }
+
+    @Test
+    void heaterRespectsMinimumRunTime() {
+        var clock = new TestClock();
+        var evaluator = new StaticTartanStateEvaluator(new HvacHysteresis(clock));
+        var log = new StringBuffer();
+
+        // Establish the heater as off, then turn it on
+        evaluator.evaluateState(hvacState(71, false), log);
+        var evaluatedState = evaluator.evaluateState(hvacState(68, false), log);
+        assertEquals(true, evaluatedState.get(IoTValues.HEATER_STATE));
+
+        // Above the deadband, but the heater has not run long enough
+        clock.advanceSeconds(60);
+        evaluatedState = evaluator.evaluateState(hvacState(71, true), log);
+        assertEquals(true, evaluatedState.get(IoTValues.HEATER_STATE));
+
+        // Once the minimum run time has passed it may turn off
+        clock.advanceSeconds(300);
+        evaluatedState = evaluator.evaluateState(hvacState(71, true), log);
+        assertEquals(false, evaluatedState.get(IoTValues.HEATER_STATE));
+
+        // ... and must then rest for the minimum off time
+        clock.advanceSeconds(60);
+        evaluatedState = evaluator.evaluateState(hvacState(60, false), log);
+        assertEquals(false, evaluatedState.get(IoTValues.HEATER_STATE));
+    }
+}
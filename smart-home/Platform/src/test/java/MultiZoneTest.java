@@ -0,0 +1,137 @@
+package tartan.tests.zones;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.tests.util.Utility;
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanZone;
+import tartan.smarthome.resources.TartanHomeService;
+import tartan.smarthome.resources.StaticTartanStateEvaluator;
+import tartan.smarthome.resources.iotcontroller.IoTValues;
+import tartan.smarthome.resources.iotcontroller.ZoneState;
+
+class MultiZoneTest {
+
+    @Test
+    void lightsFollowZoneOccupancy() {
+        var evaluator = new StaticTartanStateEvaluator();
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, true);
+        state.put(IoTValues.DOOR_STATE, false);
+
+        var zones = new ZoneState(2);
+        zones.setDevice(1, ZoneState.PROXIMITY, true);
+        zones.setDevice(1, ZoneState.LIGHT, true);
+        zones.setDevice(2, ZoneState.PROXIMITY, false);
+        zones.setDevice(2, ZoneState.LIGHT, true);
+        state.put(IoTValues.ZONES, zones);
+
+        var evaluatedZones = (ZoneState) evaluator.evaluateState(state, new StringBuffer()).get(IoTValues.ZONES);
+
+        assertTrue(evaluatedZones.isOn(1, ZoneState.LIGHT), "Light stays on in an occupied zone");
+        assertFalse(evaluatedZones.isOn(2, ZoneState.LIGHT), "Light is turned off in an empty zone");
+        assertTrue(zones.isOn(2, ZoneState.LIGHT), "The input state is not changed");
+    }
+
+    @Test
+    void occupiedZoneKeepsHouseOccupied() {
+        var evaluator = new StaticTartanStateEvaluator();
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, false);
+        state.put(IoTValues.DOOR_STATE, false);
+        state.put(IoTValues.ALARM_STATE, false);
+
+        var zones = new ZoneState(3);
+        zones.setDevice(3, ZoneState.PROXIMITY, true);
+        state.put(IoTValues.ZONES, zones);
+
+        var evaluatedState = evaluator.evaluateState(state, new StringBuffer());
+
+        // Somebody is home in zone 3, so the away timer does not start and the alarm may stay off
+        assertEquals(false, evaluatedState.get(IoTValues.AWAY_TIMER));
+        assertEquals(false, evaluatedState.get(IoTValues.ALARM_STATE));
+        assertEquals(false, evaluatedState.get(IoTValues.PROXIMITY_STATE));
+    }
+
+    @Test
+    void zoneDoorOpenedInVacantHouseSoundsAlarm() {
+        var evaluator = new StaticTartanStateEvaluator();
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, false);
+        state.put(IoTValues.DOOR_STATE, false);
+        state.put(IoTValues.ALARM_STATE, true);
+
+        var zones = new ZoneState(2);
+        zones.setDevice(2, ZoneState.DOOR, true);
+        state.put(IoTValues.ZONES, zones);
+
+        var evaluatedState = evaluator.evaluateState(state, new StringBuffer());
+        assertEquals(true, evaluatedState.get(IoTValues.ALARM_ACTIVE));
+    }
+
+    @Test
+    void zoneHvacUsesZoneTarget() {
+        var evaluator = new StaticTartanStateEvaluator();
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, true);
+        state.put(IoTValues.DOOR_STATE, false);
+        state.put(IoTValues.TARGET_TEMP, 70);
+
+        var zones = new ZoneState(2);
+        zones.setReading(1, ZoneState.TEMPERATURE, 68);
+        zones.setReading(2, ZoneState.TEMPERATURE, 68);
+        state.put(IoTValues.ZONES, zones);
+        state.put(IoTValues.ZONE_TARGET_TEMPS, new int[] { 0, 0, 65 });
+
+        var evaluatedZones = (ZoneState) evaluator.evaluateState(state, new StringBuffer()).get(IoTValues.ZONES);
+
+        assertTrue(evaluatedZones.isOn(1, ZoneState.HEATER), "Zone 1 heats to the house target");
+        assertFalse(evaluatedZones.isOn(2, ZoneState.HEATER), "Zone 2 has its own lower target");
+        assertTrue(evaluatedZones.isOn(2, ZoneState.CHILLER), "Zone 2 is above its target");
+    }
+
+    @Test
+    void zoneNumbersOutOfRangeAreRefused() {
+        var zones = new ZoneState(0);
+        zones.setDevice(ZoneState.MAX_ZONES, ZoneState.LIGHT, true);
+        assertEquals(ZoneState.MAX_ZONES, zones.getZoneCount());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> zones.setReading(Integer.MAX_VALUE / 2, ZoneState.TEMPERATURE, 70));
+        assertThrows(IllegalArgumentException.class, () -> zones.setDevice(-1, ZoneState.DOOR, true));
+        assertEquals(ZoneState.MAX_ZONES, zones.getZoneCount(), "A refused zone does not grow the state");
+    }
+
+    @Test
+    void zonesAreNotCheckedByAskingTheHouse() {
+        var settings = new TartanHomeSettings();
+        settings.setName("house");
+        settings.setAddress("127.0.0.1");
+        settings.setPort(1);
+        settings.setUser("admin");
+        settings.setPassword("1234");
+        settings.setTargetTemp("70");
+        settings.setAlarmDelay("30");
+        settings.setAlarmPasscode("quit");
+        var service = new TartanHomeService();
+        service.initializeSettings(settings);
+
+        var zone = new TartanZone();
+        zone.setZone("1");
+        zone.setTargetTemp("72");
+        var update = new TartanHome();
+        update.setZones(List.of(zone));
+
+        // the house has reported no zones yet, and the check does not go and ask it
+        assertFalse(service.hasValidZones(update));
+        assertTrue(service.hasValidZones(new TartanHome()));
+    }
+}
@@ -0,0 +1,46 @@
+package tartan.tests.schedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.schedule.ScheduleEntry;
+
+class ScheduleEntryTest {
+
+    // Monday 1 January 2024, 12:00
+    private final ZonedDateTime monday = ZonedDateTime.of(LocalDateTime.of(2024, 1, 1, 12, 0), ZoneId.of("UTC"));
+
+    @Test
+    void parsesDayLists() {
+        assertEquals(EnumSet.range(DayOfWeek.MONDAY, DayOfWeek.FRIDAY), ScheduleEntry.parseDays("weekdays"));
+        assertEquals(EnumSet.of(DayOfWeek.SATURDAY, DayOfWeek.SUNDAY), ScheduleEntry.parseDays("weekends"));
+        assertEquals(EnumSet.of(DayOfWeek.MONDAY, DayOfWeek.WEDNESDAY), ScheduleEntry.parseDays("MON, wed"));
+    }
+
+    @Test
+    void nextTransitionSkipsToScheduledDay() {
+        var entry = new ScheduleEntry(ScheduleEntry.parseDays("weekends"), LocalTime.of(8, 0), 68, null);
+
+        assertEquals(monday.plusDays(5).with(LocalTime.of(8, 0)), entry.nextAfter(monday));
+        assertEquals(monday.minusDays(1).with(LocalTime.of(8, 0)), entry.previousBefore(monday));
+    }
+
+    @Test
+    void nextTransitionLaterToday() {
+        var entry = new ScheduleEntry(ScheduleEntry.parseDays("daily"), LocalTime.of(22, 0), 62, true);
+
+        assertEquals(monday.with(LocalTime.of(22, 0)), entry.nextAfter(monday));
+
+        // A transition happening now is not the next one
+        var tenPm = monday.with(LocalTime.of(22, 0));
+        assertEquals(tenPm.plusDays(1), entry.nextAfter(tenPm));
+        assertEquals(tenPm, entry.previousBefore(tenPm));
+    }
+}
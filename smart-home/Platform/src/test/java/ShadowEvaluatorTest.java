@@ -0,0 +1,105 @@
+package tartan.tests.shadow;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import tartan.tests.util.Utility;
+import tartan.smarthome.resources.ShadowEvaluator;
+import tartan.smarthome.resources.StaticTartanStateEvaluator;
+import tartan.smarthome.resources.automation.AutomationRule;
+import tartan.smarthome.resources.automation.AutomationStateEvaluator;
+import tartan.smarthome.resources.iotcontroller.IoTValues;
+
+class ShadowEvaluatorTest {
+
+    private ShadowEvaluator compare(Map<String, Object> primaryOutput, MetricRegistry metrics) throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        var primary = new StaticTartanStateEvaluator();
+        var shadow = new ShadowEvaluator("house", primary, new StaticTartanStateEvaluator(), executor, metrics);
+        shadow.compare(new Utility().createDefaultState(), primaryOutput, 1000, System.currentTimeMillis());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        return shadow;
+    }
+
+    @Test
+    void identicalOutputsDoNotDiverge() throws InterruptedException {
+        var metrics = new MetricRegistry();
+        var output = new StaticTartanStateEvaluator().evaluateState(new Utility().createDefaultState(), new StringBuffer());
+
+        var shadow = compare(output, metrics);
+
+        assertTrue(shadow.getRecentDivergences().isEmpty(), "Equivalent evaluators agree");
+        assertEquals(1, metrics.timer("tartan.smarthome.resources.ShadowEvaluator.primary.StaticTartanStateEvaluator").getCount());
+        assertEquals(1, metrics.timer("tartan.smarthome.resources.ShadowEvaluator.shadow.StaticTartanStateEvaluator").getCount());
+    }
+
+    @Test
+    void differentOutputsAreRecorded() throws InterruptedException {
+        var metrics = new MetricRegistry();
+        var output = new StaticTartanStateEvaluator().evaluateState(new Utility().createDefaultState(), new StringBuffer());
+        output.put(IoTValues.LIGHT_STATE, true);
+
+        var shadow = compare(output, metrics);
+
+        assertEquals(1, shadow.getRecentDivergences().size());
+        assertTrue(shadow.getRecentDivergences().get(0).startsWith(IoTValues.LIGHT_STATE), "The divergent key is named");
+        assertEquals(1, metrics.meter("tartan.smarthome.resources.ShadowEvaluator.divergences").getCount());
+    }
+
+    @Test
+    void aBusyHouseDropsComparisonsAndCountsThem() {
+        var metrics = new MetricRegistry();
+        var held = new ArrayList<Runnable>();
+        var shadow = new ShadowEvaluator("house", new StaticTartanStateEvaluator(), new StaticTartanStateEvaluator(),
+                held::add, metrics);
+        var output = new StaticTartanStateEvaluator().evaluateState(new Utility().createDefaultState(), new StringBuffer());
+
+        for (int i = 0; i < 20; i++) {
+            shadow.compare(new Utility().createDefaultState(), output, 1000, System.currentTimeMillis());
+        }
+
+        // one comparison runs at a time and sixteen wait behind it
+        assertEquals(1, held.size(), "The house's comparisons run one at a time");
+        assertEquals(3, metrics.meter("tartan.smarthome.resources.ShadowEvaluator.dropped").getCount());
+    }
+
+    @Test
+    void theShadowRunsTheHouseAutomationsAtThePrimaryTime() throws InterruptedException {
+        var metrics = new MetricRegistry();
+        var rule = new AutomationRule("porch light", IoTValues.DOOR_STATE, "=", "open",
+                LocalTime.of(22, 0), LocalTime.of(6, 0), IoTValues.LIGHT_STATE, "on");
+        var zone = ZoneId.systemDefault();
+        var night = Clock.fixed(LocalDateTime.of(2024, 1, 1, 23, 0).atZone(zone).toInstant(), zone);
+        var primary = new AutomationStateEvaluator(List.of(rule), new StaticTartanStateEvaluator(night), night);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        var shadow = new ShadowEvaluator.Factory(StaticTartanStateEvaluator.class.getName(), executor, metrics)
+                .create("house", primary);
+
+        Map<String, Object> state = new Utility().createDefaultState();
+        state.put(IoTValues.PROXIMITY_STATE, true);
+        state.put(IoTValues.ALARM_STATE, true);
+        state.put(IoTValues.DOOR_STATE, true);
+        var output = primary.evaluateState(new Hashtable<>(state), new StringBuffer());
+        shadow.compare(state, output, 1000, night.millis());
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+
+        assertEquals(true, output.get(IoTValues.LIGHT_STATE));
+        assertTrue(shadow.getRecentDivergences().isEmpty(), "The shadow applies the same automations at the same time");
+    }
+}
@@ -0,0 +1,131 @@
+package tartan.tests.stream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+import jakarta.ws.rs.sse.SseEventSink;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.resources.StateSnapshot;
+import tartan.smarthome.resources.stream.StateBroadcaster;
+import tartan.smarthome.resources.stream.StreamSubscriber;
+
+class StateBroadcasterTest {
+
+    /** Builds events without a server */
+    private static class TestSse implements Sse {
+        @Override
+        public OutboundSseEvent.Builder newEventBuilder() {
+            return new OutboundEvent.Builder();
+        }
+
+        @Override
+        public SseBroadcaster newBroadcaster() {
+            return null;
+        }
+    }
+
+    /**
+     * Writes like Jersey's sink: the event is written before send returns, and the stage it
+     * returns is already complete. A stalled client blocks the write until it is released.
+     */
+    private static class TestSink implements SseEventSink {
+        final List<OutboundSseEvent> events = new CopyOnWriteArrayList<>();
+        final CountDownLatch reading;
+        final CountDownLatch stalled = new CountDownLatch(1);
+        volatile boolean closed = false;
+
+        TestSink(CountDownLatch reading) {
+            this.reading = reading;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public CompletionStage<?> send(OutboundSseEvent event) {
+            stalled.countDown();
+            try {
+                reading.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private StateSnapshot snapshot(long version, Power light, String... log) {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setLight(light);
+        home.setDoor(DoorState.CLOSED);
+        home.setEventLog(new ArrayList<>(List.of(log)));
+        return new StateSnapshot(version, home);
+    }
+
+    @Test
+    void subscribersGetTheStateThenTheChanges() {
+        var broadcaster = new StateBroadcaster("house", new TestSse());
+        var sink = new TestSink(new CountDownLatch(0));
+        broadcaster.subscribe(new StreamSubscriber(sink, 4, Runnable::run), snapshot(1, Power.OFF, "first"));
+
+        broadcaster.publish(snapshot(2, Power.ON, "first", "second", ""));
+        broadcaster.publish(snapshot(3, Power.ON, "first", "second", ""));
+
+        assertEquals(3, sink.events.size(), "An unchanged state sends nothing");
+        assertEquals("state", sink.events.get(0).getName());
+        assertEquals("delta", sink.events.get(1).getName());
+        assertEquals("{\"house\":\"house\",\"version\":2,\"changes\":{\"light\":\"on\"}}", sink.events.get(1).getData());
+        assertEquals("log", sink.events.get(2).getName());
+        assertEquals("{\"house\":\"house\",\"entries\":[\"second\"]}", sink.events.get(2).getData());
+    }
+
+    @Test
+    void aStalledSubscriberHoldsUpNobodyAndIsDisconnected() throws Exception {
+        var writers = Executors.newCachedThreadPool();
+        try {
+            var broadcaster = new StateBroadcaster("house", new TestSse());
+            var stalled = new TestSink(new CountDownLatch(1));
+            var fast = new TestSink(new CountDownLatch(0));
+            broadcaster.subscribe(new StreamSubscriber(stalled, 2, writers), snapshot(1, Power.OFF));
+            broadcaster.subscribe(new StreamSubscriber(fast, 2, Runnable::run), snapshot(1, Power.OFF));
+            assertTrue(stalled.stalled.await(5, TimeUnit.SECONDS), "The state event is being written");
+
+            // the stalled client has the state event in its write and room for one more
+            broadcaster.publish(snapshot(2, Power.ON));
+            broadcaster.publish(snapshot(3, Power.OFF));
+
+            assertTrue(stalled.closed, "The stalled client is disconnected");
+            assertFalse(fast.closed, "The fast client stays connected");
+            assertEquals(1, broadcaster.getSubscriberCount());
+            assertEquals(3, fast.events.size());
+            stalled.reading.countDown();
+        } finally {
+            writers.shutdownNow();
+        }
+    }
+}
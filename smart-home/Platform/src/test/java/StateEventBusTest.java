@@ -0,0 +1,116 @@
+package tartan.tests.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.resources.events.BackPressure;
+import tartan.smarthome.resources.events.StateEvent;
+import tartan.smarthome.resources.events.StateEventBus;
+
+class StateEventBusTest {
+
+    /** Holds the deliveries until the test runs them */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    /** Records the versions it receives, asking for one event at a time */
+    private static class Recorder implements Flow.Subscriber<StateEvent> {
+        final List<String> received = new ArrayList<>();
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(StateEvent item) {
+            received.add(item.getHouse() + item.getVersion());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private StateEvent event(String house, long version) {
+        return new StateEvent(house, version, Collections.emptyMap(), 0);
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestEvents() {
+        var executor = new ManualExecutor();
+        var bus = new StateEventBus(executor, 2, Map.of());
+        var recorder = new Recorder();
+        bus.subscribe("a", recorder, BackPressure.DROP_OLDEST, 2);
+
+        bus.publish(event("a", 1));
+        bus.publish(event("a", 2));
+        bus.publish(event("a", 3));
+        bus.publish(event("b", 4));
+        recorder.subscription.request(10);
+        executor.runAll();
+
+        assertEquals(List.of("a2", "a3"), recorder.received);
+        assertEquals(1, bus.getDropped());
+    }
+
+    @Test
+    void conflateKeepsTheNewestEventOfEachHouse() {
+        var executor = new ManualExecutor();
+        var bus = new StateEventBus(executor, 4, Map.of());
+        var recorder = new Recorder();
+        bus.subscribe(null, recorder, BackPressure.CONFLATE, 4);
+
+        bus.publish(event("a", 1));
+        bus.publish(event("b", 1));
+        bus.publish(event("a", 2));
+        recorder.subscription.request(1);
+        executor.runAll();
+        recorder.subscription.request(1);
+        executor.runAll();
+
+        assertEquals(List.of("b1", "a2"), recorder.received);
+    }
+
+    @Test
+    void namedConsumersUseTheirConfiguredPolicy() {
+        var executor = new ManualExecutor();
+        var bus = new StateEventBus(executor, 4, Map.of(StateEventBus.STREAM, BackPressure.CONFLATE));
+        var received = new ArrayList<Long>();
+        var subscription = bus.subscribe("a", StateEventBus.STREAM, e -> received.add(e.getVersion()));
+
+        bus.publish(event("a", 1));
+        bus.publish(event("a", 2));
+        executor.runAll();
+        subscription.cancel();
+        bus.publish(event("a", 3));
+        executor.runAll();
+
+        assertEquals(List.of(2L), received);
+        assertEquals(0, bus.getSubscriberCount());
+    }
+}
@@ -0,0 +1,47 @@
+package tartan.tests.format;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Variant;
+import tartan.smarthome.core.ArmedState;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.resources.StateFormat;
+import tartan.smarthome.resources.StateSnapshot;
+
+class StateFormatTest {
+
+    private StateSnapshot snapshot() {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setAlarmArmed(ArmedState.ARMED);
+        home.setDoor(DoorState.CLOSED);
+        home.setEventLog(new ArrayList<>());
+        return new StateSnapshot(7, home);
+    }
+
+    @Test
+    void binaryFormsCarryTheSameDocumentInFewerBytes() throws Exception {
+        var snapshot = snapshot();
+        var json = StateFormat.JSON.getMapper().readTree(snapshot.getEncoded(StateFormat.JSON));
+        for (StateFormat format : new StateFormat[] { StateFormat.SMILE, StateFormat.CBOR }) {
+            byte[] bytes = snapshot.getEncoded(format);
+            assertEquals(json, format.getMapper().readTree(bytes));
+            assertTrue(bytes.length < snapshot.getJson().length);
+            assertSame(bytes, snapshot.getEncoded(format));
+        }
+    }
+
+    @Test
+    void variantsMapBackToTheirFormats() {
+        var cbor = new Variant(MediaType.valueOf(StateFormat.APPLICATION_CBOR), (String) null, null);
+        assertEquals(StateFormat.CBOR, StateFormat.of(cbor, StateFormat.JSON));
+        assertEquals(StateFormat.HTML, StateFormat.of(null, StateFormat.HTML));
+    }
+}
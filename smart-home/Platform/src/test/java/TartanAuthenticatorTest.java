@@ -0,0 +1,44 @@
+package tartan.tests.auth;
+
+import java.util.Set;
+
+import io.dropwizard.auth.basic.BasicCredentials;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.TartanHomeSettings;
+import tartan.smarthome.auth.TartanAuthenticator;
+
+class TartanAuthenticatorTest {
+
+    private TartanHomeSettings house(String name, String user, String password) {
+        var settings = new TartanHomeSettings();
+        settings.setName(name);
+        settings.setUser(user);
+        settings.setPassword(password);
+        return settings;
+    }
+
+    @Test
+    void housesAddedAndRemovedAtRuntimeChangeWhoMayLogIn() throws Exception {
+        var auth = new TartanAuthenticator();
+        auth.addHouse(house("mse", "admin", "1234"));
+        auth.addHouse(house("cmu", "admin", "1234"));
+
+        var user = auth.authenticate(new BasicCredentials("admin", "1234")).orElseThrow();
+        assertEquals(Set.of("cmu"), user.getHouses(), "Credentials give access to one house");
+        assertFalse(user.mayAccess("mse"));
+        assertFalse(user.isAdmin());
+
+        auth.removeHouse("cmu");
+        user = auth.authenticate(new BasicCredentials("admin", "1234")).orElseThrow();
+        assertEquals(Set.of("mse"), user.getHouses());
+        assertEquals("mse", user.getHouse());
+
+        auth.removeHouse("mse");
+        assertTrue(auth.authenticate(new BasicCredentials("admin", "1234")).isEmpty());
+    }
+}
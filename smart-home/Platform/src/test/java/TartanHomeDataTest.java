@@ -0,0 +1,78 @@
+package tartan.tests.core;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import tartan.smarthome.core.ActiveState;
+import tartan.smarthome.core.ArmedState;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.HvacMode;
+import tartan.smarthome.core.Occupancy;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanHomeData;
+import tartan.smarthome.core.TartanHomeValues;
+
+class TartanHomeDataTest {
+
+    @Test
+    void everyDeviceKeepsItsOwnFlags() {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setDoor(DoorState.UNKNOWN);
+        home.setLight(Power.ON);
+        home.setHumidifier(Power.OFF);
+        home.setProximity(Occupancy.EMPTY);
+        home.setHvacMode(HvacMode.COOL);
+        home.setHvacState(Power.UNKNOWN);
+        home.setAlarmActive(ActiveState.ACTIVE);
+        home.setAlarmArmed(ArmedState.UNKNOWN);
+        var row = new TartanHomeData(home);
+
+        assertEquals(DoorState.UNKNOWN, row.getDoor());
+        assertEquals(Power.ON, row.getLight());
+        assertEquals(Power.OFF, row.getHumidifier());
+        assertEquals(Occupancy.EMPTY, row.getProximity());
+        assertEquals(HvacMode.COOL, row.getHvacMode());
+        assertEquals(Power.UNKNOWN, row.getHvacState());
+        assertEquals(ActiveState.ACTIVE, row.getAlarmActive());
+        assertEquals(ArmedState.UNKNOWN, row.getAlarmArmed());
+
+        row.setLight(null);
+        assertNull(row.getLight());
+        assertEquals(DoorState.UNKNOWN, row.getDoor());
+        assertEquals(Power.OFF, row.getHumidifier());
+    }
+
+    @Test
+    void readingsTellMissingFromUnknown() {
+        var row = new TartanHomeData();
+        row.setTemperature(-40);
+        row.setHumidity(TartanHomeValues.UNKNOWN_READING);
+        row.setAlarmDelay(100_000);
+
+        assertEquals(-40, row.getTemperature());
+        assertEquals(TartanHomeValues.UNKNOWN_READING, row.getHumidity());
+        assertEquals(TartanHomeValues.UNKNOWN_READING, row.getAlarmDelay());
+        assertNull(row.getTargetTemp());
+    }
+
+    @Test
+    void sameStateComparesTheHouseAndEveryValue() {
+        var first = new TartanHomeData();
+        first.setHomeName("house");
+        first.setTemperature(70);
+        first.setDoor(DoorState.OPEN);
+        var second = new TartanHomeData();
+        second.setHomeName("house");
+        second.setTemperature(70);
+        second.setDoor(DoorState.OPEN);
+        assertTrue(first.sameState(second));
+
+        second.setDoor(DoorState.CLOSED);
+        assertFalse(first.sameState(second));
+    }
+}
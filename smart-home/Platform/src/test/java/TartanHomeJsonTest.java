@@ -0,0 +1,84 @@
+package tartan.tests.core;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import tartan.smarthome.core.ActiveState;
+import tartan.smarthome.core.ArmedState;
+import tartan.smarthome.core.DoorState;
+import tartan.smarthome.core.HvacMode;
+import tartan.smarthome.core.Occupancy;
+import tartan.smarthome.core.Power;
+import tartan.smarthome.core.TartanHome;
+import tartan.smarthome.core.TartanHomeValues;
+
+class TartanHomeJsonTest {
+
+    // the documents the string-valued model wrote
+    private static final String KNOWN = "{\"name\":\"house\",\"address\":\"127.0.0.1\",\"targetTemp\":\"70\","
+            + "\"temperature\":\"68\",\"humidity\":\"40\",\"door\":\"closed\",\"light\":\"on\",\"humidifier\":\"off\","
+            + "\"proximity\":\"occupied\",\"hvacMode\":\"heat\",\"hvacState\":\"on\",\"alarmActive\":\"inactive\","
+            + "\"alarmDelay\":\"30\",\"alarmArmed\":\"armed\",\"eventLog\":[\"x\"],\"authenticated\":\"false\","
+            + "\"alarmPasscode\":null}";
+    private static final String UNKNOWN = "{\"name\":\"house\",\"address\":null,\"targetTemp\":null,"
+            + "\"temperature\":\"UNKNOWN\",\"humidity\":null,\"door\":\"UNKNOWN\",\"light\":null,\"humidifier\":null,"
+            + "\"proximity\":null,\"hvacMode\":null,\"hvacState\":null,\"alarmActive\":null,\"alarmDelay\":\"30\","
+            + "\"alarmArmed\":null,\"eventLog\":null,\"authenticated\":\"true\",\"alarmPasscode\":null}";
+
+    private final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    @Test
+    void typedFieldsWriteTheSameText() throws Exception {
+        var home = new TartanHome();
+        home.setName("house");
+        home.setAddress("127.0.0.1");
+        home.setTargetTemp(70);
+        home.setTemperature(68);
+        home.setHumidity(40);
+        home.setDoor(DoorState.CLOSED);
+        home.setLight(Power.ON);
+        home.setHumidifier(Power.OFF);
+        home.setProximity(Occupancy.OCCUPIED);
+        home.setHvacMode(HvacMode.HEAT);
+        home.setHvacState(Power.ON);
+        home.setAlarmActive(ActiveState.INACTIVE);
+        home.setAlarmDelay(30);
+        home.setAlarmArmed(ArmedState.ARMED);
+        home.setEventLog(List.of("x"));
+        home.setAuthenticated(false);
+        assertEquals(KNOWN, mapper.writeValueAsString(home));
+
+        var unknown = new TartanHome();
+        unknown.setName("house");
+        unknown.setTemperature(TartanHomeValues.UNKNOWN_READING);
+        unknown.setDoor(DoorState.UNKNOWN);
+        unknown.setAlarmDelay(30);
+        unknown.setAuthenticated(true);
+        assertEquals(UNKNOWN, mapper.writeValueAsString(unknown));
+    }
+
+    @Test
+    void documentsReadBackToTheSameText() throws Exception {
+        for (String json : new String[] { KNOWN, UNKNOWN }) {
+            assertEquals(json, mapper.writeValueAsString(mapper.readValue(json, TartanHome.class)));
+        }
+    }
+
+    @Test
+    void clientsMaySendNumbersButNotUnfamiliarWords() throws Exception {
+        var home = mapper.readValue("{\"targetTemp\":72,\"light\":null}", TartanHome.class);
+        assertEquals(72, home.getTargetTemp());
+        assertNull(home.getLight());
+
+        // a mapping failure is answered with 400 Bad Request
+        assertThrows(JsonMappingException.class,
+                () -> mapper.readValue("{\"light\":\"dim\"}", TartanHome.class));
+    }
+}